@@ -0,0 +1,79 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Storages in temp directories filled with generated values.
+ */
+final class BenchmarkStorage {
+    private static final int FILL_BATCH_SIZE = 1000;
+
+    /**
+     * Value of the given size, a plain object so the field serializer is measured too
+     */
+    public static class Payload {
+        long id;
+        String name;
+        byte[] data;
+    }
+
+    private BenchmarkStorage() {
+    }
+
+    static DbStorage open(StorageEngine engine) throws IOException {
+        final File dir = Files.createTempDirectory("paperdb-benchmark").toFile();
+        final BookOptions options = new BookOptions().storageEngine(engine);
+        if (engine == StorageEngine.APPEND_LOG) {
+            return new DbStorageAppendLog(dir.getPath(), "book",
+                    new HashMap<Class, Serializer>(), options);
+        }
+        return new DbStoragePlainFile(dir.getPath(), "book",
+                new HashMap<Class, Serializer>(), options);
+    }
+
+    /**
+     * Deletes the book and the temp directory it's in
+     */
+    static void close(DbStorage storage) {
+        storage.destroy();
+        //noinspection ResultOfMethodCallIgnored
+        new File(storage.getRootFolderPath()).getParentFile().delete();
+    }
+
+    static Payload payload(long id, int size) {
+        final Payload payload = new Payload();
+        payload.id = id;
+        payload.name = "payload-" + id;
+        payload.data = new byte[size];
+        // Random bytes, so file systems with compression don't get an advantage
+        new Random(id).nextBytes(payload.data);
+        return payload;
+    }
+
+    static String key(int index) {
+        return "key-" + index;
+    }
+
+    /**
+     * Writes keys {@link #key(int)} from 0 to count - 1, in batches to keep large books fast
+     * to set up.
+     */
+    static void fill(DbStorage storage, int count, int valueSize) {
+        final Map<String, Object> batch = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            batch.put(key(i), payload(i, valueSize));
+            if (batch.size() == FILL_BATCH_SIZE || i == count - 1) {
+                storage.insertAll(batch);
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.paperdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on random keys of books with 10 to 1M keys of 100 B values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeyCountBenchmark {
+    private static final int VALUE_SIZE = 100;
+    private static final String DELETED_KEY = "deleted";
+
+    @Param({"PLAIN_FILE", "APPEND_LOG"})
+    public StorageEngine engine;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int keyCount;
+
+    private DbStorage mStorage;
+    private BenchmarkStorage.Payload mValue;
+    private final Random mRandom = new Random(42);
+
+    @Setup
+    public void setUp() throws IOException {
+        mStorage = BenchmarkStorage.open(engine);
+        BenchmarkStorage.fill(mStorage, keyCount, VALUE_SIZE);
+        mValue = BenchmarkStorage.payload(keyCount, VALUE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkStorage.close(mStorage);
+    }
+
+    /**
+     * Recreates the key removed by {@link #delete(DeletedKey)} before each call. Invocation
+     * level setup is fine for operations taking tens of microseconds and more.
+     */
+    @State(Scope.Benchmark)
+    public static class DeletedKey {
+        @Setup(Level.Invocation)
+        public void insert(KeyCountBenchmark benchmark) {
+            benchmark.mStorage.insert(DELETED_KEY, benchmark.mValue);
+        }
+    }
+
+    private String randomKey() {
+        return BenchmarkStorage.key(mRandom.nextInt(keyCount));
+    }
+
+    @Benchmark
+    public void insert() {
+        mStorage.insert(randomKey(), mValue);
+    }
+
+    @Benchmark
+    public Object select() {
+        return mStorage.select(randomKey());
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return mStorage.exists(randomKey());
+    }
+
+    @Benchmark
+    public List<String> getAllKeys() {
+        return mStorage.getAllKeys();
+    }
+
+    @Benchmark
+    public void delete(DeletedKey deletedKey) {
+        mStorage.deleteIfExists(DELETED_KEY);
+    }
+}
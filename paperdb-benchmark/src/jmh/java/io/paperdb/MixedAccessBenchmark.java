@@ -0,0 +1,95 @@
+package io.paperdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent reads and writes of random keys, by 1 to 64 threads sharing the storage.
+ * Each operation is a read with {@link #READ_PERCENT} chance, otherwise a write, an exists check
+ * or a delete of a key, so some of the reads miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MixedAccessBenchmark {
+    private static final int KEY_COUNT = 10000;
+    private static final int VALUE_SIZE = 1024;
+    private static final int READ_PERCENT = 70;
+    private static final int WRITE_PERCENT = 20;
+    private static final int EXISTS_PERCENT = 8;
+
+    @Param({"PLAIN_FILE", "APPEND_LOG"})
+    public StorageEngine engine;
+
+    private DbStorage mStorage;
+    private BenchmarkStorage.Payload mValue;
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        private final Random mRandom = new Random(Thread.currentThread().getId());
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        mStorage = BenchmarkStorage.open(engine);
+        BenchmarkStorage.fill(mStorage, KEY_COUNT, VALUE_SIZE);
+        mValue = BenchmarkStorage.payload(KEY_COUNT, VALUE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkStorage.close(mStorage);
+    }
+
+    private Object mixed(ThreadRandom threadRandom) {
+        final Random random = threadRandom.mRandom;
+        final String key = BenchmarkStorage.key(random.nextInt(KEY_COUNT));
+        final int operation = random.nextInt(100);
+        if (operation < READ_PERCENT) {
+            return mStorage.select(key);
+        } else if (operation < READ_PERCENT + WRITE_PERCENT) {
+            mStorage.insert(key, mValue);
+            return null;
+        } else if (operation < READ_PERCENT + WRITE_PERCENT + EXISTS_PERCENT) {
+            return mStorage.exists(key);
+        }
+        mStorage.deleteIfExists(key);
+        return null;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object threads01(ThreadRandom random) {
+        return mixed(random);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object threads04(ThreadRandom random) {
+        return mixed(random);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object threads16(ThreadRandom random) {
+        return mixed(random);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object threads64(ThreadRandom random) {
+        return mixed(random);
+    }
+}
@@ -0,0 +1,61 @@
+package io.paperdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and reads of a single value from 100 B to 50 MB in a book of 10 keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValueSizeBenchmark {
+    private static final int KEY_COUNT = 10;
+
+    @Param({"PLAIN_FILE", "APPEND_LOG"})
+    public StorageEngine engine;
+
+    @Param({"100", "10240", "1048576", "52428800"})
+    public int valueSize;
+
+    private DbStorage mStorage;
+    private BenchmarkStorage.Payload mValue;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        mStorage = BenchmarkStorage.open(engine);
+        BenchmarkStorage.fill(mStorage, KEY_COUNT, valueSize);
+        mValue = BenchmarkStorage.payload(KEY_COUNT, valueSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkStorage.close(mStorage);
+    }
+
+    private String nextKey() {
+        mNext = (mNext + 1) % KEY_COUNT;
+        return BenchmarkStorage.key(mNext);
+    }
+
+    @Benchmark
+    public void insert() {
+        mStorage.insert(nextKey(), mValue);
+    }
+
+    @Benchmark
+    public Object select() {
+        return mStorage.select(nextKey());
+    }
+}
@@ -0,0 +1,113 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Serializes values of a batch write in parallel, see {@link PaperExecutors#compute()}.
+ */
+final class BatchSerializer {
+    // Smaller batches aren't worth handing over to other threads
+    private static final int MIN_VALUES_PER_THREAD = 8;
+
+    /**
+     * Writes a single value to the output, defines the format of the stored value
+     */
+    interface ValueWriter {
+        void write(Kryo kryo, Output output, Object value);
+    }
+
+    /**
+     * Value wrapped into {@link PaperTable}, the format of the append log records
+     */
+    static final ValueWriter PAPER_TABLE = new ValueWriter() {
+        @Override
+        public void write(Kryo kryo, Output output, Object value) {
+            kryo.writeObject(output, new PaperTable<>(value));
+        }
+    };
+
+    private BatchSerializer() {
+    }
+
+    /**
+     * @param keys   keys of the values, used for error reporting
+     * @param values values to serialize
+     * @param kryo   Kryo pool of the storage
+     * @param writer format of the serialized values
+     * @return outputs with serialized values, in the order of values
+     */
+    static Output[] serialize(final List<String> keys, final List<?> values,
+                              final KryoPool kryo, final ValueWriter writer) {
+        final Output[] outputs = new Output[values.size()];
+        final int tasks = Math.min(PaperExecutors.computeParallelism(),
+                values.size() / MIN_VALUES_PER_THREAD);
+        if (tasks <= 1) {
+            serializeRange(keys, values, kryo, writer, outputs, 0, 1);
+            return outputs;
+        }
+
+        // Interleave values between the tasks, so large values are spread evenly
+        final List<Future<?>> futures = new ArrayList<>(tasks - 1);
+        for (int t = 1; t < tasks; t++) {
+            final int first = t;
+            futures.add(PaperExecutors.compute().submit(new Runnable() {
+                @Override
+                public void run() {
+                    serializeRange(keys, values, kryo, writer, outputs, first, tasks);
+                }
+            }));
+        }
+        RuntimeException failure = null;
+        try {
+            serializeRange(keys, values, kryo, writer, outputs, 0, tasks);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new PaperDbException("Couldn't serialize batch", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new PaperDbException("Interrupted while serializing batch", e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return outputs;
+    }
+
+    private static void serializeRange(List<String> keys, List<?> values, KryoPool kryo,
+                                       ValueWriter writer, Output[] outputs,
+                                       int first, int step) {
+        final Kryo instance = kryo.borrow();
+        try {
+            for (int i = first; i < values.size(); i += step) {
+                final Output output = new Output(4096, -1);
+                try {
+                    writer.write(instance, output, values.get(i));
+                } catch (KryoException e) {
+                    throw new PaperDbException("Couldn't save table: " + keys.get(i), e);
+                }
+                outputs[i] = output;
+            }
+        } finally {
+            kryo.release(instance);
+        }
+    }
+}
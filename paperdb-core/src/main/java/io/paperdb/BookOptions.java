@@ -0,0 +1,388 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Per-book settings. Options take effect when the book instance is created, i.e. on the first
+ * {@code Paper.book(String, BookOptions)} or {@code Paper.bookOn(String, String, BookOptions)}
+ * call for the given name. Subsequent calls with equal options, or without options, return the
+ * already opened book, calls with different options throw {@link IllegalStateException}.
+ */
+@SuppressWarnings({"WeakerAccess", "UnusedReturnValue"})
+public class BookOptions implements Cloneable {
+
+    static final int DEFAULT_IO_THREADS = 2;
+    static final int DEFAULT_IO_QUEUE_CAPACITY = 128;
+    static final int DEFAULT_MAX_WAIT_WINDOWS = 10;
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    StorageEngine mStorageEngine = StorageEngine.PLAIN_FILE;
+    long mCacheMaxBytes;
+    CachePolicy mCachePolicy = CachePolicy.DEFENSIVE_COPY;
+    int mIoThreads = DEFAULT_IO_THREADS;
+    int mIoQueueCapacity = DEFAULT_IO_QUEUE_CAPACITY;
+    boolean mCoalesceWrites;
+    long mDebounceMillis;
+    long mMaxWaitMillis;
+    boolean mKeyIndex;
+    int mCompressionMinSize;
+    boolean mSchemaDictionary;
+    int mWarmUpKeys;
+    PaperMetrics mMetrics;
+    Durability mDurability = Durability.SYNC_ALWAYS;
+    long mSyncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+    boolean mSyncDirectory;
+    boolean mWriteBehind;
+    long mWriteBehindDelayMillis;
+    boolean mShardedLayout;
+
+    /**
+     * Sets the storage engine for the book. Data written by one engine is not visible to
+     * another, so the engine must not be changed for the existing book.
+     *
+     * @param engine storage engine, {@link StorageEngine#PLAIN_FILE} by default
+     * @return this options instance
+     */
+    public @NonNull BookOptions storageEngine(@NonNull StorageEngine engine) {
+        mStorageEngine = engine;
+        return this;
+    }
+
+    /**
+     * Enables in-memory read-through cache for the book. The cache is bounded by the estimated
+     * serialized size of the cached values, not by the number of entries, and keeps the most
+     * frequently read keys (W-TinyLFU eviction).
+     *
+     * @param maxBytes maximum total serialized size of the cached values, 0 disables the cache
+     * @param policy   defines whether cached instances are copied before being handed out
+     * @return this options instance
+     */
+    public @NonNull BookOptions cache(long maxBytes, @NonNull CachePolicy policy) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size couldn't be negative");
+        }
+        mCacheMaxBytes = maxBytes;
+        mCachePolicy = policy;
+        return this;
+    }
+
+    /**
+     * Configures the executor running asynchronous operations of the book, like
+     * {@link PaperStore#writeAsync(String, Object)}. Operations on the same key always run in
+     * the order of submission, so more threads only help with many different keys.
+     *
+     * @param threads       number of I/O threads, {@value #DEFAULT_IO_THREADS} by default
+     * @param queueCapacity number of pending operations per thread, the caller waits when
+     *                      the queue is full. {@value #DEFAULT_IO_QUEUE_CAPACITY} by default
+     * @return this options instance
+     */
+    public @NonNull BookOptions ioExecutor(int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Thread count and queue capacity must be positive");
+        }
+        mIoThreads = threads;
+        mIoQueueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Enables write coalescing for the book, see {@link #coalesceWrites(long, long)}. A key
+     * which keeps changing is saved at least every {@value #DEFAULT_MAX_WAIT_WINDOWS} debounce
+     * windows.
+     *
+     * @param debounceMillis how long the key must stay unchanged before it's saved,
+     *                       0 saves the change as soon as possible
+     * @return this options instance
+     */
+    public @NonNull BookOptions coalesceWrites(long debounceMillis) {
+        return coalesceWrites(debounceMillis, debounceMillis < 0
+                || debounceMillis > Long.MAX_VALUE / DEFAULT_MAX_WAIT_WINDOWS
+                ? debounceMillis : debounceMillis * DEFAULT_MAX_WAIT_WINDOWS);
+    }
+
+    /**
+     * Enables write coalescing for the book. Write and delete return right after the change
+     * is recorded in memory, the change is saved in background once the key hasn't changed
+     * for the debounce window, so a burst of changes settles first. A key which keeps
+     * changing is saved the max wait after its first unsaved change. Changes of the key in
+     * the meantime are collapsed, so only the latest value is written. Reads always return
+     * the latest value.
+     * <p>
+     * Changes which are not saved yet are lost if the process is killed. Call
+     * {@link PaperStore#flush()} to save them right away, e.g. when the app goes to background.
+     *
+     * @param debounceMillis how long the key must stay unchanged before it's saved,
+     *                       0 saves the change as soon as possible
+     * @param maxWaitMillis  longest time the first unsaved change of the key may wait,
+     *                       at least debounceMillis
+     * @return this options instance
+     */
+    public @NonNull BookOptions coalesceWrites(long debounceMillis, long maxWaitMillis) {
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("Debounce window couldn't be negative");
+        }
+        if (maxWaitMillis < debounceMillis) {
+            throw new IllegalArgumentException("Max wait couldn't be shorter than debounce window");
+        }
+        mCoalesceWrites = true;
+        mDebounceMillis = debounceMillis;
+        mMaxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    /**
+     * Keeps the keys of the book in memory along with size and modification time of their
+     * values, so {@link PaperStore#contains(String)}, {@link PaperStore#getAllKeys()} and
+     * {@link PaperStore#lastModified(String)} don't touch the file system and don't wait for
+     * concurrent writes. The index is saved to the book folder in background and loaded on the
+     * next start instead of listing the folder.
+     * <p>
+     * Files must not be added to or removed from the book folder bypassing Paper, such changes
+     * are not visible to the index. Has no effect for {@link StorageEngine#APPEND_LOG}, which
+     * always keeps its keys in memory.
+     *
+     * @param enabled true to keep the key index, false by default
+     * @return this options instance
+     */
+    public @NonNull BookOptions keyIndex(boolean enabled) {
+        mKeyIndex = enabled;
+        return this;
+    }
+
+    /**
+     * Compresses table files of the book with Deflater. Pays off for large text-heavy values
+     * on slow storage, where the saved I/O costs more than the compression.
+     * <p>
+     * Values serialized to less than minSize bytes are stored as is, as well as values which
+     * turn out not to compress well, e.g. already compressed images. Each file records whether
+     * it's compressed, so the option may be changed for the existing book, files written
+     * before keep their format until rewritten. Has no effect for
+     * {@link StorageEngine#APPEND_LOG}.
+     *
+     * @param minSize minimum serialized size of the value to be compressed, in bytes,
+     *                0 disables compression, which is the default
+     * @return this options instance
+     */
+    public @NonNull BookOptions compression(int minSize) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Minimum size couldn't be negative");
+        }
+        mCompressionMinSize = minSize;
+        return this;
+    }
+
+    /**
+     * Writes class names and field names into the dictionary of the book instead of every
+     * table file. Files get smaller, especially for small objects, and are read faster, as the
+     * names are matched to classes and fields once and not for every read.
+     * <p>
+     * Adding and removing fields is handled as without the dictionary. Files written with the
+     * dictionary can't be read without the dictionary file of the book, so a single table file
+     * can't be copied to another book, the whole book folder must be copied instead. The
+     * option may be changed for the existing book, files written before keep their format
+     * until rewritten. Has no effect for {@link StorageEngine#APPEND_LOG}.
+     *
+     * @param enabled true to use the dictionary, false by default
+     * @return this options instance
+     */
+    public @NonNull BookOptions schemaDictionary(boolean enabled) {
+        mSchemaDictionary = enabled;
+        return this;
+    }
+
+    /**
+     * Counts reads of the keys and saves the most read ones to the access history file of the
+     * book. When the book is opened the given number of the most read keys of the previous
+     * sessions are read into memory on the low priority background thread, so first reads
+     * after the start don't wait for the disk. See also {@link PaperStore#prefetch(Collection)}.
+     *
+     * @param topKeys number of keys to preload, 0 disables warm-up, which is the default
+     * @return this options instance
+     */
+    public @NonNull BookOptions warmUp(int topKeys) {
+        if (topKeys < 0) {
+            throw new IllegalArgumentException("Number of keys couldn't be negative");
+        }
+        mWarmUpKeys = topKeys;
+        return this;
+    }
+
+    /**
+     * Reports the duration of each operation of the book to the listener, broken down by
+     * phase: lock wait, serialization, file writes, fsync, renames, file reads and
+     * deserialization. Use {@link HistogramMetrics} to aggregate them. Without the listener
+     * operations aren't timed at all. Only {@link StorageEngine#PLAIN_FILE} books are measured.
+     *
+     * @param metrics listener receiving the operations, null disables metrics
+     * @return this options instance
+     */
+    public @NonNull BookOptions metrics(@Nullable PaperMetrics metrics) {
+        mMetrics = metrics;
+        return this;
+    }
+
+    /**
+     * Sets when written values are synced to the storage device. A sync costs milliseconds
+     * on slow flash, so books of cache-like data may skip it. Call {@link PaperStore#sync()}
+     * to sync all values written so far regardless of the mode.
+     * <p>
+     * After a power loss values written since the last sync may be lost, including a part of
+     * the values of {@link PaperStore#writeAll(java.util.Map)}. A file written just before
+     * the power loss may also be left torn, then its read throws {@link PaperDbException}
+     * until the key is written again. Has no effect for {@link StorageEngine#APPEND_LOG},
+     * which syncs each write.
+     *
+     * @param durability sync mode, {@link Durability#SYNC_ALWAYS} by default. Syncs of
+     *                   {@link Durability#SYNC_PERIODIC} happen every
+     *                   {@value #DEFAULT_SYNC_INTERVAL_MILLIS} ms
+     * @return this options instance
+     */
+    public @NonNull BookOptions durability(@NonNull Durability durability) {
+        mDurability = durability;
+        return this;
+    }
+
+    /**
+     * Sets {@link Durability#SYNC_PERIODIC} mode with the given sync interval, see
+     * {@link #durability(Durability)}.
+     *
+     * @param intervalMillis maximum time between a write and the sync of its value
+     * @return this options instance
+     */
+    public @NonNull BookOptions periodicSync(long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Sync interval couldn't be negative");
+        }
+        mDurability = Durability.SYNC_PERIODIC;
+        mSyncIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Syncs the book folder after each write of {@link Durability#SYNC_ALWAYS} mode. Each
+     * write replaces the table file by renaming the new file over it, the rename itself is
+     * durable only once the folder is synced. Without it a write may be rolled back to the
+     * previous value, or a new key may be lost, on power loss. Costs another sync per write.
+     * In other modes the folder is synced along with the files, see {@link PaperStore#sync()}.
+     *
+     * @param enabled true to sync the folder after each write, false by default
+     * @return this options instance
+     */
+    public @NonNull BookOptions syncDirectory(boolean enabled) {
+        mSyncDirectory = enabled;
+        return this;
+    }
+
+    /**
+     * Enables write-behind mode for the book. Write, delete and their batch versions append
+     * the change to the sequential journal in the book folder and return without waiting for
+     * the table files. Reads see the change right away. Changes are applied to the table files
+     * in background as batches, at most the flush delay after the first change, and the
+     * journal is deleted after that. Changes left in the journal after a crash are applied
+     * when the book is opened, so a returned write is not lost if the app is killed.
+     * <p>
+     * The journal isn't synced, changes are durable on power loss once they are applied.
+     * Call {@link PaperStore#flush()} or {@link PaperStore#sync()} to apply them right away.
+     * Replaces {@link #coalesceWrites(long)}, which is ignored along with it.
+     *
+     * @param flushDelayMillis how long to collect changes before applying them, 0 applies
+     *                         them as soon as possible
+     * @return this options instance
+     */
+    public @NonNull BookOptions writeBehind(long flushDelayMillis) {
+        if (flushDelayMillis < 0) {
+            throw new IllegalArgumentException("Flush delay couldn't be negative");
+        }
+        mWriteBehind = true;
+        mWriteBehindDelayMillis = flushDelayMillis;
+        return this;
+    }
+
+    /**
+     * Spreads table files of the book over two levels of 64 subfolders chosen by the hash of
+     * the key, instead of keeping them all in the book folder. Pays off for books with
+     * hundreds of thousands of keys, where file lookups and listing of a single huge folder
+     * get slow on some file systems. Small books are faster in a single folder, and
+     * {@link PaperStore#getAllKeys()} has to list all the subfolders.
+     * <p>
+     * The option may be changed for the existing book, its table files are moved to the new
+     * layout when the book is opened. Moving is resumed on the next open if interrupted.
+     * Has no effect for {@link StorageEngine#APPEND_LOG}.
+     *
+     * @param enabled true to use the sharded layout, false by default
+     * @return this options instance
+     */
+    public @NonNull BookOptions shardedLayout(boolean enabled) {
+        mShardedLayout = enabled;
+        return this;
+    }
+
+    /**
+     * @return snapshot of the options, later changes of this instance don't affect it
+     */
+    BookOptions copy() {
+        try {
+            return (BookOptions) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BookOptions)) {
+            return false;
+        }
+        BookOptions that = (BookOptions) o;
+        return mStorageEngine == that.mStorageEngine
+                && mCacheMaxBytes == that.mCacheMaxBytes
+                && mCachePolicy == that.mCachePolicy
+                && mIoThreads == that.mIoThreads
+                && mIoQueueCapacity == that.mIoQueueCapacity
+                && mCoalesceWrites == that.mCoalesceWrites
+                && mDebounceMillis == that.mDebounceMillis
+                && mMaxWaitMillis == that.mMaxWaitMillis
+                && mKeyIndex == that.mKeyIndex
+                && mCompressionMinSize == that.mCompressionMinSize
+                && mSchemaDictionary == that.mSchemaDictionary
+                && mWarmUpKeys == that.mWarmUpKeys
+                && (mMetrics == null ? that.mMetrics == null : mMetrics.equals(that.mMetrics))
+                && mDurability == that.mDurability
+                && mSyncIntervalMillis == that.mSyncIntervalMillis
+                && mSyncDirectory == that.mSyncDirectory
+                && mWriteBehind == that.mWriteBehind
+                && mWriteBehindDelayMillis == that.mWriteBehindDelayMillis
+                && mShardedLayout == that.mShardedLayout;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mStorageEngine.hashCode();
+        result = 31 * result + hash(mCacheMaxBytes);
+        result = 31 * result + mCachePolicy.hashCode();
+        result = 31 * result + mIoThreads;
+        result = 31 * result + mIoQueueCapacity;
+        result = 31 * result + (mCoalesceWrites ? 1 : 0);
+        result = 31 * result + hash(mDebounceMillis);
+        result = 31 * result + hash(mMaxWaitMillis);
+        result = 31 * result + (mKeyIndex ? 1 : 0);
+        result = 31 * result + mCompressionMinSize;
+        result = 31 * result + (mSchemaDictionary ? 1 : 0);
+        result = 31 * result + mWarmUpKeys;
+        result = 31 * result + (mMetrics != null ? mMetrics.hashCode() : 0);
+        result = 31 * result + mDurability.hashCode();
+        result = 31 * result + hash(mSyncIntervalMillis);
+        result = 31 * result + (mSyncDirectory ? 1 : 0);
+        result = 31 * result + (mWriteBehind ? 1 : 0);
+        result = 31 * result + hash(mWriteBehindDelayMillis);
+        result = 31 * result + (mShardedLayout ? 1 : 0);
+        return result;
+    }
+
+    private static int hash(long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+}
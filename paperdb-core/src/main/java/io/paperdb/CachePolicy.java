@@ -0,0 +1,19 @@
+package io.paperdb;
+
+/**
+ * Defines how the book's value cache shares objects with the callers.
+ * See {@link BookOptions#cache(long, CachePolicy)}.
+ */
+public enum CachePolicy {
+    /**
+     * Every read returns a deep copy of the cached instance, the written instance is copied
+     * before being cached. Callers are free to modify the objects they get.
+     */
+    DEFENSIVE_COPY,
+
+    /**
+     * Cached instances are shared with the callers as is. The fastest option, but written and
+     * read objects must never be modified, otherwise the changes leak to other readers.
+     */
+    IMMUTABLE
+}
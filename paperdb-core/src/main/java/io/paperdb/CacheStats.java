@@ -0,0 +1,73 @@
+package io.paperdb;
+
+/**
+ * Snapshot of the book's value cache counters.
+ * See {@link PaperStore#getCacheStats()}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CacheStats {
+    private final long mHitCount;
+    private final long mMissCount;
+    private final long mEvictionCount;
+    private final long mWeightedSize;
+    private final long mMaxWeight;
+
+    CacheStats(long hitCount, long missCount, long evictionCount,
+               long weightedSize, long maxWeight) {
+        mHitCount = hitCount;
+        mMissCount = missCount;
+        mEvictionCount = evictionCount;
+        mWeightedSize = weightedSize;
+        mMaxWeight = maxWeight;
+    }
+
+    /**
+     * @return number of reads served from the cache
+     */
+    public long hitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of reads which had to go to the storage
+     */
+    public long missCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return number of values evicted to keep the cache within its size limit
+     */
+    public long evictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return estimated serialized size of all cached values in bytes
+     */
+    public long weightedSize() {
+        return mWeightedSize;
+    }
+
+    /**
+     * @return cache size limit in bytes, 0 if the cache is disabled
+     */
+    public long maxWeight() {
+        return mMaxWeight;
+    }
+
+    /**
+     * @return ratio of hits to all reads, 1.0 if there were no reads yet
+     */
+    public double hitRate() {
+        long total = mHitCount + mMissCount;
+        return total == 0 ? 1.0 : (double) mHitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + mHitCount + ", misses=" + mMissCount
+                + ", evictions=" + mEvictionCount + ", size=" + mWeightedSize
+                + "/" + mMaxWeight + "}";
+    }
+}
@@ -0,0 +1,433 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage decorator collapsing frequent writes of the same key.
+ * <p>
+ * Writes and deletes are kept in memory as pending changes and reach the underlying storage
+ * in background once the key hasn't changed for the debounce window, or the max wait after
+ * the first change of the key if it keeps changing. All changes made in the meantime are
+ * collapsed, so only the latest value is written. Reads see pending changes, so the latest
+ * value is always visible.
+ * <p>
+ * Pending changes are flushed one at a time under a per key stripe lock, so a flush never
+ * overwrites a later delete, batch write or destroy.
+ */
+class CoalescingStorage implements DbStorage {
+    private static final int LOCK_STRIPES = 64;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final DbStorage mStorage;
+    private final long mDebounceMillis;
+    private final long mMaxWaitMillis;
+    private final KryoPool.Holder mKryo;
+    private final ConcurrentHashMap<String, Pending> mPending = new ConcurrentHashMap<>();
+    private final Object[] mLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * Latest not yet written change of the key
+     */
+    private static class Pending {
+        final Object value; // null for delete
+        final long timestamp;
+        // Monotonic times of this change and of the first change not written yet
+        final long changedNanos;
+        final long firstChangeNanos;
+
+        Pending(Object value, Pending previous) {
+            this.value = value;
+            this.timestamp = System.currentTimeMillis();
+            this.changedNanos = System.nanoTime();
+            this.firstChangeNanos = previous != null ? previous.firstChangeNanos : changedNanos;
+        }
+    }
+
+    CoalescingStorage(DbStorage storage, long debounceMillis, long maxWaitMillis,
+                      HashMap<Class, Serializer> serializers) {
+        mStorage = storage;
+        mDebounceMillis = debounceMillis;
+        mMaxWaitMillis = maxWaitMillis;
+        mKryo = new KryoPool.Holder(serializers);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        final List<Integer> stripes = new ArrayList<>(LOCK_STRIPES);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stripes.add(i);
+        }
+        runLocked(stripes.iterator(), new Runnable() {
+            @Override
+            public void run() {
+                mPending.clear();
+                mStorage.destroy();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        flush();
+        mStorage.close();
+    }
+
+    @Override
+    public <E> void insert(String key, E value) {
+        checkKey(key);
+        // Copy now, the caller may change the instance before it is written
+        addPending(key, mKryo.get().copy(value));
+    }
+
+    @Override
+    public void insertAll(final Map<String, ?> values) {
+        runLocked(stripesOf(values.keySet()).iterator(), new Runnable() {
+            @Override
+            public void run() {
+                // Batch supersedes pending changes of its keys once it's written
+                final Map<String, Pending> superseded = pendingOf(values.keySet());
+                mStorage.insertAll(values);
+                removePending(superseded);
+            }
+        });
+    }
+
+    @Override
+    public <E> E select(String key) {
+        checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            //noinspection unchecked
+            return pending.value == null ? null : (E) mKryo.get().copy(pending.value);
+        }
+        // Pending change is removed only after it is written, so the storage is up to date
+        return mStorage.select(key);
+    }
+
+    @Override
+    public <E> PaperIterator<E> selectIterator(String key) {
+        checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            // Pending value is in memory anyway
+            return PaperIterators.of(key,
+                    pending.value == null ? null : mKryo.get().copy(pending.value));
+        }
+        return mStorage.selectIterator(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            return pending.value != null;
+        }
+        return mStorage.exists(key);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            return pending.value != null ? pending.timestamp : -1;
+        }
+        return mStorage.lastModified(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        // Snapshot pending changes first, they are removed only after being written
+        final Map<String, Pending> pending = new HashMap<>(mPending);
+        final Set<String> keys = new HashSet<>(mStorage.getAllKeys());
+        for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+            if (entry.getValue().value != null) {
+                keys.add(entry.getKey());
+            } else {
+                keys.remove(entry.getKey());
+            }
+        }
+        return new ArrayList<>(keys);
+    }
+
+    @Override
+    public Iterator<String> keys(String fromInclusive, String toExclusive) {
+        // Snapshot pending changes in range, there are only a few of them
+        final SortedMap<String, Boolean> pending = new TreeMap<>();
+        for (Map.Entry<String, Pending> entry : mPending.entrySet()) {
+            if (KeyRanges.inRange(entry.getKey(), fromInclusive, toExclusive)) {
+                pending.put(entry.getKey(), entry.getValue().value != null);
+            }
+        }
+        if (pending.isEmpty()) {
+            return mStorage.keys(fromInclusive, toExclusive);
+        }
+        return new MergingIterator(mStorage.keys(fromInclusive, toExclusive), pending);
+    }
+
+    @Override
+    public void deleteIfExists(String key) {
+        checkKey(key);
+        addPending(key, null);
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        runLocked(stripesOf(keys).iterator(), new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, Pending> superseded = pendingOf(keys);
+                mStorage.deleteAll(keys);
+                removePending(superseded);
+            }
+        });
+    }
+
+    /**
+     * Pending changes are saved first, so they are synced too
+     */
+    @Override
+    public void sync() {
+        flush();
+        mStorage.sync();
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return mStorage.getCacheStats();
+    }
+
+    @Override
+    public void setLogLevel(int level) {
+        mStorage.setLogLevel(level);
+    }
+
+    @Override
+    public String getOriginalFilePath(String key) {
+        return mStorage.getOriginalFilePath(key);
+    }
+
+    @Override
+    public String getRootFolderPath() {
+        return mStorage.getRootFolderPath();
+    }
+
+    /**
+     * Writes all pending changes on the calling thread
+     */
+    void flush() {
+        for (String key : new ArrayList<>(mPending.keySet())) {
+            flushKey(key);
+        }
+    }
+
+    private void addPending(String key, Object value) {
+        Pending previous;
+        do {
+            previous = mPending.get(key);
+        } while (previous == null
+                ? mPending.putIfAbsent(key, new Pending(value, null)) != null
+                : !mPending.replace(key, previous, new Pending(value, previous)));
+        if (previous == null) {
+            scheduleFlush(key, mDebounceMillis);
+        }
+        // Otherwise the flush is already scheduled, it checks the latest change when it runs
+    }
+
+    private void scheduleFlush(final String key, long delayMillis) {
+        PaperExecutors.background().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Pending pending = mPending.get(key);
+                    if (pending == null) {
+                        return; // Already flushed
+                    }
+                    final long delay = remainingDelayMillis(pending);
+                    if (delay > 0) {
+                        // Changed again within the debounce window
+                        scheduleFlush(key, delay);
+                        return;
+                    }
+                    flushKey(key);
+                } catch (RuntimeException e) {
+                    // Keep the change pending and try again later
+                    Platform.error("Couldn't write pending change of key " + key, e);
+                    scheduleFlush(key, Math.max(mDebounceMillis, RETRY_DELAY_MILLIS));
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return time left until the change is due, the key has to settle for the debounce
+     * window but waits no longer than the max wait since its first change
+     */
+    private long remainingDelayMillis(Pending pending) {
+        final long now = System.nanoTime();
+        final long settled = TimeUnit.MILLISECONDS.toNanos(mDebounceMillis)
+                - (now - pending.changedNanos);
+        final long maxWait = TimeUnit.MILLISECONDS.toNanos(mMaxWaitMillis)
+                - (now - pending.firstChangeNanos);
+        return TimeUnit.NANOSECONDS.toMillis(Math.min(settled, maxWait));
+    }
+
+    private void flushKey(String key) {
+        synchronized (mLocks[stripe(key)]) {
+            final Pending pending = mPending.get(key);
+            if (pending == null) {
+                return; // Already flushed
+            }
+            if (pending.value != null) {
+                mStorage.insert(key, pending.value);
+            } else {
+                mStorage.deleteIfExists(key);
+            }
+            if (!mPending.remove(key, pending)) {
+                // Changed while being written, the latest change needs another flush
+                scheduleFlush(key, mDebounceMillis);
+            }
+        }
+    }
+
+    private Map<String, Pending> pendingOf(Collection<String> keys) {
+        final Map<String, Pending> pending = new HashMap<>();
+        for (String key : keys) {
+            final Pending change = mPending.get(key);
+            if (change != null) {
+                pending.put(key, change);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Removes the changes unless they were changed again in the meantime, the newer change
+     * stays pending and is flushed as usual
+     */
+    private void removePending(Map<String, Pending> pending) {
+        for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+            mPending.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Runs the action holding the stripe locks, taken in ascending order to avoid deadlocks
+     */
+    private void runLocked(Iterator<Integer> stripes, Runnable action) {
+        if (!stripes.hasNext()) {
+            action.run();
+            return;
+        }
+        synchronized (mLocks[stripes.next()]) {
+            runLocked(stripes, action);
+        }
+    }
+
+    private static Set<Integer> stripesOf(Collection<String> keys) {
+        final Set<Integer> stripes = new TreeSet<>();
+        for (String key : keys) {
+            checkKey(key);
+            stripes.add(stripe(key));
+        }
+        return stripes;
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+    }
+
+    /**
+     * Merges sorted stored keys with pending changes, which take precedence over the storage
+     */
+    static class MergingIterator implements Iterator<String> {
+        private final Iterator<String> mStored;
+        private final SortedMap<String, Boolean> mPending; // true for written, false for deleted
+        private final Iterator<Map.Entry<String, Boolean>> mPendingIterator;
+        private String mNextStored;
+        private String mNextWritten;
+
+        MergingIterator(Iterator<String> stored, SortedMap<String, Boolean> pending) {
+            mStored = stored;
+            mPending = pending;
+            mPendingIterator = pending.entrySet().iterator();
+            advanceStored();
+            advanceWritten();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNextStored != null || mNextWritten != null;
+        }
+
+        @Override
+        public String next() {
+            final String next;
+            if (mNextWritten == null
+                    || (mNextStored != null && mNextStored.compareTo(mNextWritten) < 0)) {
+                next = mNextStored;
+                advanceStored();
+            } else {
+                next = mNextWritten;
+                advanceWritten();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advanceStored() {
+            mNextStored = null;
+            while (mStored.hasNext()) {
+                final String key = mStored.next();
+                // Keys with pending changes are taken from the pending side
+                if (!mPending.containsKey(key)) {
+                    mNextStored = key;
+                    return;
+                }
+            }
+        }
+
+        private void advanceWritten() {
+            mNextWritten = null;
+            while (mPendingIterator.hasNext()) {
+                final Map.Entry<String, Boolean> entry = mPendingIterator.next();
+                if (entry.getValue()) {
+                    mNextWritten = entry.getKey();
+                    return;
+                }
+            }
+        }
+    }
+
+    static void checkKey(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key couldn't be null");
+        }
+    }
+}
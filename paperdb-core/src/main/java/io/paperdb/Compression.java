@@ -0,0 +1,110 @@
+package io.paperdb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of the table files, see {@link BookOptions#compression(int)}.
+ * The codec is recorded in the file header, see {@link TableFile}.
+ */
+final class Compression {
+    // Values which would save less than 1/8 of their size are stored as is
+    private static final int MIN_SAVING_DIVISOR = 8;
+    // Already compressed data, like images, is close to 8 bits per byte
+    private static final double MAX_ENTROPY_BITS = 7.5;
+    private static final int ENTROPY_SAMPLE_SIZE = 4 * 1024;
+    // Large values are compressed with the fastest level to keep the write latency down
+    private static final int FAST_LEVEL_MIN_SIZE = 1024 * 1024;
+
+    // Deflater keeps a few hundred KB of native memory, keep only a couple of idle instances
+    private static final ArrayBlockingQueue<Deflater> sIdleDeflaters =
+            new ArrayBlockingQueue<>(2);
+    private static final ArrayBlockingQueue<Inflater> sIdleInflaters =
+            new ArrayBlockingQueue<>(4);
+
+    private Compression() {
+    }
+
+    /**
+     * Compresses the payload into the target buffer.
+     *
+     * @param source       serialized payload
+     * @param sourceOffset start of the payload
+     * @param length       number of bytes of the payload
+     * @param target       buffer with at least length bytes after the target offset
+     * @param targetOffset where to write the compressed payload
+     * @return number of bytes written to the target or -1 if the payload doesn't compress well
+     * enough and should be stored as is
+     */
+    static int compress(byte[] source, int sourceOffset, int length,
+                        byte[] target, int targetOffset) {
+        if (entropy(source, sourceOffset, Math.min(length, ENTROPY_SAMPLE_SIZE))
+                > MAX_ENTROPY_BITS) {
+            return -1;
+        }
+        final int limit = targetOffset + length - length / MIN_SAVING_DIVISOR;
+        final Deflater deflater = obtainDeflater();
+        try {
+            deflater.setLevel(length >= FAST_LEVEL_MIN_SIZE
+                    ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION);
+            deflater.setInput(source, sourceOffset, length);
+            deflater.finish();
+            int position = targetOffset;
+            while (!deflater.finished()) {
+                if (position >= limit) {
+                    return -1;
+                }
+                position += deflater.deflate(target, position, limit - position);
+            }
+            return position - targetOffset;
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    static Inflater obtainInflater() {
+        final Inflater inflater = sIdleInflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (!sIdleInflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static Deflater obtainDeflater() {
+        final Deflater deflater = sIdleDeflaters.poll();
+        return deflater != null ? deflater : new Deflater();
+    }
+
+    private static void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!sIdleDeflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Shannon entropy of the bytes in bits per byte
+     */
+    static double entropy(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        final int[] counts = new int[256];
+        for (int i = offset; i < offset + length; i++) {
+            counts[bytes[i] & 0xFF]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                final double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+}
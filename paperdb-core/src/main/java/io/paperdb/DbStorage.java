@@ -0,0 +1,74 @@
+package io.paperdb;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage engine behind {@link PaperStore}. All methods are thread-safe.
+ *
+ * @see StorageEngine
+ */
+interface DbStorage {
+
+    void destroy();
+
+    /**
+     * Writes the changes kept in memory and releases the files of the book, so it can be opened
+     * by another instance. The storage must not be used after that.
+     */
+    void close();
+
+    <E> void insert(String key, E value);
+
+    /**
+     * Writes all values at once. After a crash either all of them are visible or none.
+     */
+    void insertAll(Map<String, ?> values);
+
+    <E> E select(String key);
+
+    /**
+     * Iterates the elements of the stored collection. The iterator reads the value as it was
+     * when the method was called, later changes of the key don't affect it.
+     *
+     * @return iterator over the elements, empty if there is no value for the key
+     * @throws PaperDbException if the value is not a collection
+     */
+    <E> PaperIterator<E> selectIterator(String key);
+
+    boolean exists(String key);
+
+    long lastModified(String key);
+
+    List<String> getAllKeys();
+
+    /**
+     * Iterates keys in range in ascending order. The iterator is weakly consistent: it never
+     * fails on concurrent changes, but may or may not see them.
+     *
+     * @param toExclusive upper bound, null for no bound
+     */
+    Iterator<String> keys(String fromInclusive, String toExclusive);
+
+    void deleteIfExists(String key);
+
+    /**
+     * Deletes all keys at once. After a crash either all of them are deleted or none.
+     */
+    void deleteAll(Collection<String> keys);
+
+    /**
+     * Syncs all values written so far to the storage device
+     */
+    void sync();
+
+    CacheStats getCacheStats();
+
+    void setLogLevel(int level);
+
+    String getOriginalFilePath(String key);
+
+    String getRootFolderPath();
+}
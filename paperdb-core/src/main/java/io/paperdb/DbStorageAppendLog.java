@@ -0,0 +1,1303 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured storage engine similar to Bitcask.
+ * <p>
+ * Every write or delete appends a record to the active segment file. The in-memory keydir maps
+ * each key to the location of its latest record, so a read is a single positional read.
+ * Once the active segment grows over {@link #MAX_SEGMENT_SIZE} it becomes immutable and a hint
+ * file listing its records is written next to it, so the keydir could be rebuilt at startup
+ * without reading the values. Live records of the immutable segments are rewritten into new
+ * segments in background when dead records take too much space.
+ * <p>
+ * Record layout: crc32 | seq | timestamp | key length | value length | key | value.
+ * The value is a serialized {@link PaperTable}, a delete is a record with the value length
+ * of -1. Every record gets a sequence number, so the latest record for the key wins at
+ * startup regardless of the segment it is located in.
+ * <p>
+ * Records of a batch write are preceded by the batch marker: a record with the value length
+ * of -2 keeping the total size of the batch records in place of the key. The batch is applied
+ * at startup only if all of its records are intact.
+ */
+class DbStorageAppendLog implements DbStorage {
+    static final String SEGMENT_EXTENSION = ".log";
+    private static final String HINT_EXTENSION = ".hint";
+    private static final String TEMP_EXTENSION = ".tmp";
+    static final String COMPACTION_MANIFEST = "compaction.manifest";
+
+    static final long MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    // Compaction starts when dead records take more than this part of the immutable segments
+    private static final int COMPACTION_DEAD_PERCENT = 50;
+    // ...or when there are too many small segments left by previous sessions
+    private static final int COMPACTION_SMALL_SEGMENTS = 8;
+
+    // crc32 + seq + timestamp + key length + value length
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 4 + 4;
+    private static final int TOMBSTONE = -1;
+    private static final int BATCH = -2;
+    private static final int BATCH_MARKER_SIZE = HEADER_SIZE + 8;
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+    private static final int HINT_MAGIC = 0x50484e54;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mDbPath;
+    private final KryoPool.Holder mKryo;
+    private final ValueCache mCache; // null if caching is disabled
+    private final CachePolicy mCachePolicy;
+
+    // Sorted for key range queries
+    private final ConcurrentSkipListMap<String, Entry> mKeydir = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> mSegments = new ConcurrentSkipListMap<>();
+    // Read lock for any access to segment files, write lock to remove segments
+    private final ReentrantReadWriteLock mSegmentsLock = new ReentrantReadWriteLock();
+    // Guards appending to the active segment and keydir updates made by writes
+    private final Object mWriteLock = new Object();
+    private final Object mCompactionLock = new Object();
+    private final AtomicBoolean mCompactionScheduled = new AtomicBoolean();
+    private Segment mActive; // guarded by mWriteLock
+    private long mNextSeq; // guarded by mWriteLock
+    private long mNextSegmentId; // guarded by mWriteLock
+    private volatile boolean mLoaded;
+    private volatile boolean mClosed;
+
+    /**
+     * Location of the latest record for the key
+     */
+    private static class Entry {
+        final long segmentId;
+        final long offset;
+        final int recordSize;
+        final int valueLength;
+        final long seq;
+        final long timestamp;
+
+        Entry(long segmentId, long offset, int recordSize, int valueLength,
+              long seq, long timestamp) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.recordSize = recordSize;
+            this.valueLength = valueLength;
+            this.seq = seq;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class Segment {
+        final long id;
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final AtomicLong deadBytes = new AtomicLong();
+        volatile long size;
+
+        Segment(long id, File file, String mode) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, mode);
+            this.channel = raf.getChannel();
+            this.size = raf.length();
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                Platform.warn("Couldn't close segment " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Callback for segment scanning, see {@link #scanSegment(Segment, RecordVisitor)}
+     */
+    private interface RecordVisitor {
+        void visit(String key, Entry entry, ByteBuffer record) throws IOException;
+    }
+
+    DbStorageAppendLog(String dbFilesDir, String dbName,
+                       HashMap<Class, Serializer> serializers, BookOptions options) {
+        mKryo = new KryoPool.Holder(serializers);
+        mDbPath = dbFilesDir + File.separator + dbName;
+        mCache = options.mCacheMaxBytes > 0 ? new ValueCache(options.mCacheMaxBytes) : null;
+        mCachePolicy = options.mCachePolicy;
+    }
+
+    @Override
+    public void destroy() {
+        // Wait for running compaction, it must not write into the deleted folder
+        synchronized (mCompactionLock) {
+            destroyInternal();
+        }
+    }
+
+    private void destroyInternal() {
+        mSegmentsLock.writeLock().lock();
+        try {
+            synchronized (mWriteLock) {
+                closeSegments();
+                if (!deleteDirectory(new File(mDbPath))) {
+                    Platform.error("Couldn't delete Paper dir " + mDbPath);
+                }
+            }
+        } finally {
+            mSegmentsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records are written straight to the segment files, so closing them is enough.
+     * Compaction scheduled before is skipped, it would load the book again.
+     */
+    @Override
+    public void close() {
+        // Wait for running compaction, it must not use the closed segments
+        synchronized (mCompactionLock) {
+            mClosed = true;
+            mSegmentsLock.writeLock().lock();
+            try {
+                synchronized (mWriteLock) {
+                    closeSegments();
+                }
+            } finally {
+                mSegmentsLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : mSegments.values()) {
+            segment.close();
+        }
+        mSegments.clear();
+        mKeydir.clear();
+        mActive = null;
+        if (mCache != null) {
+            mCache.clear();
+        }
+        mLoaded = false;
+    }
+
+    @Override
+    public <E> void insert(String key, E value) {
+        final byte[] keyBytes = keyBytes(key);
+        // Presize the buffer from the previous record of the key
+        final Entry previous = mKeydir.get(key);
+        final WriteBuffer buffer = WriteBuffer.obtain(previous != null ? previous.recordSize : 0);
+        try {
+            insert(key, keyBytes, value, buffer);
+        } finally {
+            buffer.recycle();
+        }
+    }
+
+    private <E> void insert(String key, byte[] keyBytes, E value, WriteBuffer buffer) {
+        // Serialize outside of the locks, right after the space reserved for the record header
+        final Output output = buffer.output();
+        output.setPosition(HEADER_SIZE + keyBytes.length);
+        final KryoPool pool = mKryo.get();
+        final Kryo kryo = pool.borrow();
+        try {
+            buffer.writeTable(kryo, value);
+        } catch (KryoException e) {
+            throw new PaperDbException("Couldn't save table: " + key, e);
+        } finally {
+            pool.release(kryo);
+        }
+        final int valueLength = output.position() - HEADER_SIZE - keyBytes.length;
+
+        boolean compact;
+        mSegmentsLock.readLock().lock();
+        try {
+            assertInit();
+            synchronized (mWriteLock) {
+                Entry entry = append(key, keyBytes, output.getBuffer(), valueLength);
+                markDead(mKeydir.put(key, entry));
+                if (mCache != null) {
+                    // Update the cache in the same order as the keydir
+                    mCache.put(key, mCachePolicy == CachePolicy.IMMUTABLE ? value : copy(value),
+                            valueLength);
+                }
+                compact = needsCompaction();
+            }
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+    }
+
+    @Override
+    public <E> E select(String key) {
+        if (mCache != null) {
+            //noinspection unchecked
+            E cached = (E) mCache.get(key);
+            if (cached != null) {
+                return mCachePolicy == CachePolicy.IMMUTABLE ? cached : copy(cached);
+            }
+        }
+
+        final Entry entry;
+        final ByteBuffer record;
+        mSegmentsLock.readLock().lock();
+        try {
+            assertInit();
+            entry = mKeydir.get(key);
+            if (entry == null) {
+                return null;
+            }
+            record = readRecord(key, entry);
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+
+        E value = readValue(key, record, entry.valueLength);
+        if (mCache != null) {
+            synchronized (mWriteLock) {
+                // Don't cache the value if it has been overwritten in the meantime
+                if (mKeydir.get(key) == entry) {
+                    mCache.put(key, value, entry.valueLength);
+                }
+            }
+            return mCachePolicy == CachePolicy.IMMUTABLE ? value : copy(value);
+        }
+        return value;
+    }
+
+    @Override
+    public <E> PaperIterator<E> selectIterator(String key) {
+        // Records are read into memory as a whole anyway
+        return PaperIterators.of(key, select(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        assertInit();
+        return mKeydir.containsKey(key);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        assertInit();
+        Entry entry = mKeydir.get(key);
+        return entry != null ? entry.timestamp : -1;
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        assertInit();
+        return new ArrayList<>(mKeydir.keySet());
+    }
+
+    @Override
+    public Iterator<String> keys(String fromInclusive, String toExclusive) {
+        assertInit();
+        return KeyRanges.iterate(mKeydir, fromInclusive, toExclusive);
+    }
+
+    @Override
+    public void deleteIfExists(String key) {
+        final byte[] keyBytes = keyBytes(key);
+        boolean compact;
+        mSegmentsLock.readLock().lock();
+        try {
+            assertInit();
+            synchronized (mWriteLock) {
+                if (!mKeydir.containsKey(key)) {
+                    return;
+                }
+                byte[] buffer = new byte[HEADER_SIZE + keyBytes.length];
+                Entry tombstone = append(key, keyBytes, buffer, TOMBSTONE);
+                markDead(mKeydir.remove(key));
+                // Tombstone is only needed until the older records are compacted
+                markDead(tombstone);
+                if (mCache != null) {
+                    mCache.remove(key);
+                }
+                compact = needsCompaction();
+            }
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+    }
+
+    @Override
+    public void insertAll(Map<String, ?> values) {
+        writeBatch(values, new ArrayList<String>());
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        writeBatch(new HashMap<String, Object>(), keys);
+    }
+
+    /**
+     * Appends records of all writes and deletes as a single region preceded by the batch
+     * marker and makes them durable with a single fsync.
+     */
+    private void writeBatch(Map<String, ?> values, Collection<String> deletes) {
+        final List<String> keys = new ArrayList<>(values.size());
+        final List<Object> objects = new ArrayList<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            keys.add(entry.getKey());
+            objects.add(entry.getValue());
+        }
+        final Set<String> deletedKeys = new LinkedHashSet<>(deletes);
+        deletedKeys.removeAll(values.keySet());
+        final List<byte[]> keyBytes = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            keyBytes.add(keyBytes(key));
+        }
+        for (String key : deletedKeys) {
+            keyBytes(key);
+        }
+        // Serialize outside of the locks
+        final Output[] outputs = BatchSerializer.serialize(keys, objects, mKryo.get(),
+                BatchSerializer.PAPER_TABLE);
+
+        boolean compact;
+        mSegmentsLock.readLock().lock();
+        try {
+            assertInit();
+            synchronized (mWriteLock) {
+                final List<String> tombstoneKeys = new ArrayList<>();
+                for (String key : deletedKeys) {
+                    if (mKeydir.containsKey(key)) {
+                        tombstoneKeys.add(key);
+                    }
+                }
+                final int count = keys.size() + tombstoneKeys.size();
+                if (count == 0) {
+                    return;
+                }
+
+                long payload = 0;
+                for (int i = 0; i < keys.size(); i++) {
+                    payload += HEADER_SIZE + keyBytes.get(i).length + outputs[i].position();
+                }
+                for (String key : tombstoneKeys) {
+                    payload += HEADER_SIZE + keyBytes(key).length;
+                }
+                // Single record is atomic on its own
+                final int markerSize = count > 1 ? BATCH_MARKER_SIZE : 0;
+                if (markerSize + payload > Integer.MAX_VALUE) {
+                    throw new PaperDbException("Batch is too large: " + payload + " bytes");
+                }
+                final byte[] buffer = new byte[(int) (markerSize + payload)];
+                final Segment segment = activeSegment(buffer.length);
+                final long base = segment.size;
+                final long timestamp = System.currentTimeMillis();
+
+                Entry marker = null;
+                int position = 0;
+                if (markerSize > 0) {
+                    final byte[] payloadBytes = ByteBuffer.allocate(8).putLong(payload).array();
+                    final long seq = mNextSeq++;
+                    position += encodeRecord(buffer, 0, payloadBytes, BATCH, seq, timestamp);
+                    marker = new Entry(segment.id, base, markerSize, BATCH, seq, timestamp);
+                }
+                final Entry[] written = new Entry[keys.size()];
+                for (int i = 0; i < keys.size(); i++) {
+                    final byte[] key = keyBytes.get(i);
+                    final int valueLength = outputs[i].position();
+                    System.arraycopy(outputs[i].getBuffer(), 0, buffer,
+                            position + HEADER_SIZE + key.length, valueLength);
+                    final long seq = mNextSeq++;
+                    final int size = encodeRecord(buffer, position, key, valueLength,
+                            seq, timestamp);
+                    written[i] = new Entry(segment.id, base + position, size, valueLength,
+                            seq, timestamp);
+                    position += size;
+                }
+                final Entry[] tombstones = new Entry[tombstoneKeys.size()];
+                for (int i = 0; i < tombstoneKeys.size(); i++) {
+                    final long seq = mNextSeq++;
+                    final int size = encodeRecord(buffer, position,
+                            keyBytes(tombstoneKeys.get(i)), TOMBSTONE, seq, timestamp);
+                    tombstones[i] = new Entry(segment.id, base + position, size, TOMBSTONE,
+                            seq, timestamp);
+                    position += size;
+                }
+
+                try {
+                    writeFully(segment.channel, ByteBuffer.wrap(buffer), base);
+                    segment.channel.force(false);
+                } catch (IOException e) {
+                    // Incomplete batch is overwritten by the next append or dropped at startup
+                    throw new PaperDbException("Couldn't append batch of " + count
+                            + " records to " + segment.file, e);
+                }
+                segment.size = base + buffer.length;
+
+                markDead(marker);
+                for (int i = 0; i < keys.size(); i++) {
+                    markDead(mKeydir.put(keys.get(i), written[i]));
+                    if (mCache != null) {
+                        Object value = objects.get(i);
+                        mCache.put(keys.get(i), mCachePolicy == CachePolicy.IMMUTABLE
+                                ? value : copy(value), written[i].valueLength);
+                    }
+                }
+                for (int i = 0; i < tombstoneKeys.size(); i++) {
+                    markDead(mKeydir.remove(tombstoneKeys.get(i)));
+                    markDead(tombstones[i]);
+                    if (mCache != null) {
+                        mCache.remove(tombstoneKeys.get(i));
+                    }
+                }
+                compact = needsCompaction();
+            }
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+        if (compact) {
+            scheduleCompaction();
+        }
+    }
+
+    /**
+     * Nothing to do, each write is synced before it returns
+     */
+    @Override
+    public void sync() {
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return mCache != null ? mCache.stats() : new CacheStats(0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void setLogLevel(int level) {
+        com.esotericsoftware.minlog.Log.set(level);
+    }
+
+    /**
+     * There is no separate file per key, returns the path of the segment file keeping
+     * the latest value for the key, or the active segment path if the key doesn't exist.
+     */
+    @Override
+    public String getOriginalFilePath(String key) {
+        assertInit();
+        Entry entry = mKeydir.get(key);
+        if (entry != null) {
+            return segmentFile(entry.segmentId).getPath();
+        }
+        synchronized (mWriteLock) {
+            return segmentFile(mActive != null ? mActive.id : mNextSegmentId).getPath();
+        }
+    }
+
+    @Override
+    public String getRootFolderPath() {
+        return mDbPath;
+    }
+
+    /**
+     * Rewrites live records of all immutable segments into new segments and removes
+     * the old ones. Runs in background when dead records take too much space.
+     */
+    void compact() {
+        synchronized (mCompactionLock) {
+            if (mClosed) {
+                return;
+            }
+            try {
+                compactInternal();
+            } catch (IOException e) {
+                Platform.error("Couldn't compact " + mDbPath, e);
+            }
+        }
+    }
+
+    private void compactInternal() throws IOException {
+        final List<Segment> inputs = new ArrayList<>();
+        mSegmentsLock.readLock().lock();
+        try {
+            assertInit();
+            synchronized (mWriteLock) {
+                for (Segment segment : mSegments.values()) {
+                    if (segment != mActive) {
+                        inputs.add(segment);
+                    }
+                }
+            }
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+        if (inputs.isEmpty()) {
+            return;
+        }
+
+        // Copy live records into new segments. Readers and writers are not blocked,
+        // the keydir is switched to the new locations only if the record is still live.
+        final List<Segment> outputs = new ArrayList<>();
+        final List<String> movedKeys = new ArrayList<>();
+        final List<Entry> oldEntries = new ArrayList<>();
+        final List<Entry> newEntries = new ArrayList<>();
+        final Segment[] output = new Segment[1];
+        final ByteArrayOutputStream[] hint = new ByteArrayOutputStream[1];
+        mSegmentsLock.readLock().lock();
+        try {
+            for (final Segment input : inputs) {
+                scanSegment(input, new RecordVisitor() {
+                    @Override
+                    public void visit(String key, Entry entry, ByteBuffer record)
+                            throws IOException {
+                        Entry current = mKeydir.get(key);
+                        if (current == null || current.segmentId != entry.segmentId
+                                || current.offset != entry.offset) {
+                            // Dead record or tombstone, all older records are dropped as well
+                            return;
+                        }
+                        if (output[0] == null || output[0].size >= MAX_SEGMENT_SIZE) {
+                            finishCompactionOutput(output[0], hint[0]);
+                            output[0] = newCompactionOutput();
+                            hint[0] = new ByteArrayOutputStream();
+                            outputs.add(output[0]);
+                        }
+                        Segment out = output[0];
+                        long offset = out.size;
+                        writeFully(out.channel, record, offset);
+                        out.size += entry.recordSize;
+                        Entry moved = new Entry(out.id, offset, entry.recordSize,
+                                entry.valueLength, entry.seq, entry.timestamp);
+                        writeHintEntry(new DataOutputStream(hint[0]), key, moved);
+                        movedKeys.add(key);
+                        // Keydir is switched with compare-and-set by identity
+                        oldEntries.add(current);
+                        newEntries.add(moved);
+                    }
+                });
+            }
+            finishCompactionOutput(output[0], hint[0]);
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+
+        // New segments are durable, they must be visible under their final names before the
+        // manifest allows deleting the old ones. Until then both copies are loaded on open,
+        // records with the same seq are interchangeable.
+        for (Segment segment : outputs) {
+            File finalFile = segmentFile(segment.id);
+            if (!segment.file.renameTo(finalFile)) {
+                throw new IOException("Couldn't rename " + segment.file + " to " + finalFile);
+            }
+        }
+        FileSync.syncDirectory(new File(mDbPath));
+        writeCompactionManifest(inputs);
+
+        mSegmentsLock.writeLock().lock();
+        try {
+            for (Segment segment : outputs) {
+                mSegments.put(segment.id, new Segment(segment.id, segmentFile(segment.id), "r"));
+                segment.close();
+            }
+            for (int i = 0; i < movedKeys.size(); i++) {
+                if (!mKeydir.replace(movedKeys.get(i), oldEntries.get(i), newEntries.get(i))) {
+                    // Key has been overwritten or deleted during compaction
+                    markDead(newEntries.get(i));
+                }
+            }
+            for (Segment input : inputs) {
+                mSegments.remove(input.id);
+                input.close();
+            }
+        } finally {
+            mSegmentsLock.writeLock().unlock();
+        }
+        deleteSegmentFiles(inputs);
+    }
+
+    private Segment newCompactionOutput() throws IOException {
+        long id;
+        synchronized (mWriteLock) {
+            id = mNextSegmentId++;
+        }
+        File tempFile = new File(segmentFile(id).getPath() + TEMP_EXTENSION);
+        return new Segment(id, tempFile, "rw");
+    }
+
+    private void finishCompactionOutput(Segment output, ByteArrayOutputStream hint)
+            throws IOException {
+        if (output != null) {
+            output.channel.force(false);
+            writeHintFile(output.id, hint.toByteArray());
+        }
+    }
+
+    private void writeCompactionManifest(List<Segment> inputs) throws IOException {
+        File manifest = new File(mDbPath, COMPACTION_MANIFEST);
+        File tempFile = new File(mDbPath, COMPACTION_MANIFEST + TEMP_EXTENSION);
+        FileOutputStream stream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(inputs.size());
+            for (Segment input : inputs) {
+                out.writeLong(input.id);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!tempFile.renameTo(manifest)) {
+            throw new IOException("Couldn't rename " + tempFile + " to " + manifest);
+        }
+        FileSync.syncDirectory(new File(mDbPath));
+    }
+
+    /**
+     * Deletes the compacted segments, then the manifest once the deletion is durable
+     */
+    private void deleteSegmentFiles(List<Segment> segments) {
+        for (Segment segment : segments) {
+            //noinspection ResultOfMethodCallIgnored
+            hintFile(segment.id).delete();
+            //noinspection ResultOfMethodCallIgnored
+            segmentFile(segment.id).delete();
+        }
+        FileSync.syncDirectory(new File(mDbPath));
+        //noinspection ResultOfMethodCallIgnored
+        new File(mDbPath, COMPACTION_MANIFEST).delete();
+    }
+
+    /**
+     * Must be called with mWriteLock held
+     */
+    private boolean needsCompaction() {
+        long total = 0;
+        long dead = 0;
+        int smallSegments = 0;
+        for (Segment segment : mSegments.values()) {
+            if (segment != mActive) {
+                total += segment.size;
+                dead += segment.deadBytes.get();
+                if (segment.size < MAX_SEGMENT_SIZE / 2) {
+                    smallSegments++;
+                }
+            }
+        }
+        return (total > 0 && dead * 100 >= total * COMPACTION_DEAD_PERCENT)
+                || smallSegments >= COMPACTION_SMALL_SEGMENTS;
+    }
+
+    private void scheduleCompaction() {
+        if (mCompactionScheduled.compareAndSet(false, true)) {
+            PaperExecutors.compaction().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCompactionScheduled.set(false);
+                    compact();
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends the record to the active segment. Must be called with mWriteLock held.
+     *
+     * @param buffer record buffer with the key and the header space left empty,
+     *               followed by the value
+     */
+    private Entry append(String key, byte[] keyBytes, byte[] buffer, int valueLength) {
+        final Segment segment = activeSegment(0);
+        final long seq = mNextSeq++;
+        final long timestamp = System.currentTimeMillis();
+        final int recordSize = encodeRecord(buffer, 0, keyBytes, valueLength, seq, timestamp);
+
+        final long offset = segment.size;
+        try {
+            writeFully(segment.channel, ByteBuffer.wrap(buffer, 0, recordSize), offset);
+            segment.channel.force(false);
+        } catch (IOException e) {
+            // Partially written record is overwritten by the next append or dropped at startup
+            throw new PaperDbException("Couldn't append record for key " + key
+                    + " to " + segment.file, e);
+        }
+        segment.size = offset + recordSize;
+        return new Entry(segment.id, offset, recordSize, valueLength, seq, timestamp);
+    }
+
+    /**
+     * Fills the header and the key of the record, the value must be already in the buffer.
+     *
+     * @return record size
+     */
+    private static int encodeRecord(byte[] buffer, int offset, byte[] keyBytes, int valueLength,
+                                    long seq, long timestamp) {
+        final int recordSize = HEADER_SIZE + keyBytes.length + Math.max(valueLength, 0);
+        ByteBuffer record = ByteBuffer.wrap(buffer, offset, recordSize).slice();
+        record.putLong(4, seq);
+        record.putLong(12, timestamp);
+        record.putInt(20, keyBytes.length);
+        record.putInt(24, valueLength);
+        System.arraycopy(keyBytes, 0, buffer, offset + HEADER_SIZE, keyBytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer, offset + 4, recordSize - 4);
+        record.putInt(0, (int) crc.getValue());
+        return recordSize;
+    }
+
+    /**
+     * Returns segment to append to, creates a new one if the current is full.
+     * Must be called with mWriteLock held.
+     *
+     * @param reserve bytes which must fit into the segment, unless the segment is empty
+     */
+    private Segment activeSegment(long reserve) {
+        if (mActive == null || mActive.size >= MAX_SEGMENT_SIZE
+                || (mActive.size > 0 && mActive.size + reserve > MAX_SEGMENT_SIZE)) {
+            final Segment closed = mActive;
+            long id = mNextSegmentId++;
+            try {
+                mActive = new Segment(id, segmentFile(id), "rw");
+            } catch (IOException e) {
+                throw new PaperDbException("Couldn't create segment " + segmentFile(id), e);
+            }
+            mSegments.put(id, mActive);
+            if (closed != null) {
+                PaperExecutors.compaction().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeHint(closed);
+                    }
+                });
+            }
+        }
+        return mActive;
+    }
+
+    private void writeHint(Segment segment) {
+        mSegmentsLock.readLock().lock();
+        try {
+            if (mSegments.get(segment.id) != segment) {
+                return; // Already compacted or destroyed
+            }
+            final ByteArrayOutputStream hint = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(hint);
+            scanSegment(segment, new RecordVisitor() {
+                @Override
+                public void visit(String key, Entry entry, ByteBuffer record) throws IOException {
+                    writeHintEntry(out, key, entry);
+                }
+            });
+            writeHintFile(segment.id, hint.toByteArray());
+        } catch (IOException e) {
+            // Not critical, the segment will be scanned on the next startup
+            Platform.warn("Couldn't write hint file for " + segment.file, e);
+        } finally {
+            mSegmentsLock.readLock().unlock();
+        }
+    }
+
+    private static void writeHintEntry(DataOutputStream out, String key, Entry entry)
+            throws IOException {
+        out.writeUTF(key);
+        out.writeLong(entry.offset);
+        out.writeInt(entry.recordSize);
+        out.writeInt(entry.valueLength);
+        out.writeLong(entry.seq);
+        out.writeLong(entry.timestamp);
+    }
+
+    private void writeHintFile(long segmentId, byte[] entries) throws IOException {
+        File hintFile = hintFile(segmentId);
+        File tempFile = new File(hintFile.getPath() + TEMP_EXTENSION);
+        CRC32 crc = new CRC32();
+        crc.update(entries);
+        FileOutputStream stream = new FileOutputStream(tempFile);
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(HINT_MAGIC);
+            out.writeInt(entries.length);
+            out.writeInt((int) crc.getValue());
+            out.write(entries);
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!tempFile.renameTo(hintFile)) {
+            throw new IOException("Couldn't rename " + tempFile + " to " + hintFile);
+        }
+    }
+
+    /**
+     * @return false if the hint file doesn't exist or is corrupted
+     */
+    private boolean loadHint(Segment segment, Map<String, Long> deleted) {
+        File hintFile = hintFile(segment.id);
+        if (!hintFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(hintFile)));
+            byte[] entries;
+            try {
+                if (in.readInt() != HINT_MAGIC) {
+                    return false;
+                }
+                entries = new byte[in.readInt()];
+                int expectedCrc = in.readInt();
+                in.readFully(entries);
+                CRC32 crc = new CRC32();
+                crc.update(entries);
+                if ((int) crc.getValue() != expectedCrc) {
+                    return false;
+                }
+            } finally {
+                in.close();
+            }
+            List<String> keys = new ArrayList<>();
+            List<Entry> loaded = new ArrayList<>();
+            DataInputStream entriesIn = new DataInputStream(
+                    new ByteArrayInputStream(entries));
+            while (entriesIn.available() > 0) {
+                keys.add(entriesIn.readUTF());
+                loaded.add(new Entry(segment.id, entriesIn.readLong(), entriesIn.readInt(),
+                        entriesIn.readInt(), entriesIn.readLong(), entriesIn.readLong()));
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                applyLoaded(keys.get(i), loaded.get(i), deleted);
+            }
+            return true;
+        } catch (IOException e) {
+            Platform.warn("Couldn't read hint file " + hintFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Builds the keydir on first access
+     */
+    private void assertInit() {
+        if (!mLoaded) {
+            synchronized (this) {
+                if (!mLoaded) {
+                    loadInternal();
+                }
+            }
+        }
+    }
+
+    private void loadInternal() {
+        File dir = new File(mDbPath);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Couldn't create Paper dir: " + mDbPath);
+        }
+        try {
+            load(dir);
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't load append log " + mDbPath, e);
+        }
+        mLoaded = true;
+    }
+
+    private void load(File dir) throws IOException {
+        finishInterruptedCompaction();
+
+        String[] names = dir.list();
+        List<Long> ids = new ArrayList<>();
+        List<String> hints = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(HINT_EXTENSION)) {
+                    hints.add(name);
+                } else if (name.endsWith(TEMP_EXTENSION)) {
+                    // Leftovers of interrupted compaction or hint writing
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(dir, name).delete();
+                } else if (name.endsWith(SEGMENT_EXTENSION)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0,
+                                name.length() - SEGMENT_EXTENSION.length())));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (String hint : hints) {
+            String segmentName = hint.substring(0, hint.length() - HINT_EXTENSION.length())
+                    + SEGMENT_EXTENSION;
+            if (!new File(dir, segmentName).exists()) {
+                // Hint of the compacted segment which hasn't been renamed before a crash
+                //noinspection ResultOfMethodCallIgnored
+                new File(dir, hint).delete();
+            }
+        }
+
+        final Map<String, Long> deleted = new HashMap<>();
+        long maxSeq = -1;
+        long maxId = 0;
+        for (long id : ids) {
+            final Segment segment = new Segment(id, segmentFile(id), "r");
+            mSegments.put(id, segment);
+            maxId = Math.max(maxId, id);
+            if (!loadHint(segment, deleted)) {
+                scanSegment(segment, new RecordVisitor() {
+                    @Override
+                    public void visit(String key, Entry entry, ByteBuffer record) {
+                        applyLoaded(key, entry, deleted);
+                    }
+                });
+            }
+        }
+        for (Entry entry : mKeydir.values()) {
+            maxSeq = Math.max(maxSeq, entry.seq);
+        }
+        for (long seq : deleted.values()) {
+            maxSeq = Math.max(maxSeq, seq);
+        }
+        synchronized (mWriteLock) {
+            mNextSeq = maxSeq + 1;
+            mNextSegmentId = maxId + 1;
+            // Always start a new segment for writes, older ones may end with a torn record
+            mActive = null;
+        }
+    }
+
+    /**
+     * Applies the record found at startup, the record with the highest seq wins
+     */
+    private void applyLoaded(String key, Entry entry, Map<String, Long> deleted) {
+        Long deletedSeq = deleted.get(key);
+        Entry current = mKeydir.get(key);
+        if ((current != null && current.seq > entry.seq)
+                || (deletedSeq != null && deletedSeq > entry.seq)) {
+            markDead(entry);
+            return;
+        }
+        if (entry.valueLength == TOMBSTONE) {
+            deleted.put(key, entry.seq);
+            markDead(entry);
+            markDead(mKeydir.remove(key));
+        } else {
+            markDead(mKeydir.put(key, entry));
+        }
+    }
+
+    /**
+     * Deletes the segments listed in the manifest left by a crash. New segments have been
+     * synced before the manifest was created, so they hold every live record of the old ones.
+     */
+    private void finishInterruptedCompaction() throws IOException {
+        File manifest = new File(mDbPath, COMPACTION_MANIFEST);
+        if (!manifest.exists()) {
+            return;
+        }
+        promoteCompactionOutputs();
+        DataInputStream in = new DataInputStream(new FileInputStream(manifest));
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long id = in.readLong();
+                //noinspection ResultOfMethodCallIgnored
+                hintFile(id).delete();
+                //noinspection ResultOfMethodCallIgnored
+                segmentFile(id).delete();
+            }
+        } catch (EOFException e) {
+            Platform.warn("Corrupted compaction manifest " + manifest, e);
+        } finally {
+            in.close();
+        }
+        FileSync.syncDirectory(new File(mDbPath));
+        //noinspection ResultOfMethodCallIgnored
+        manifest.delete();
+    }
+
+    /**
+     * Renames the new segments which are still temp files to their final names. Compaction
+     * renames them before writing the manifest, but without the directory sync (before
+     * Lollipop) the renames may not reach the disk before the manifest does.
+     */
+    private void promoteCompactionOutputs() throws IOException {
+        String[] names = new File(mDbPath).list();
+        if (names == null) {
+            return;
+        }
+        boolean renamed = false;
+        for (String name : names) {
+            if (name.endsWith(SEGMENT_EXTENSION + TEMP_EXTENSION)) {
+                File tempFile = new File(mDbPath, name);
+                File finalFile = new File(mDbPath,
+                        name.substring(0, name.length() - TEMP_EXTENSION.length()));
+                if (!tempFile.renameTo(finalFile)) {
+                    throw new IOException("Couldn't rename " + tempFile + " to " + finalFile);
+                }
+                renamed = true;
+            }
+        }
+        if (renamed) {
+            FileSync.syncDirectory(new File(mDbPath));
+        }
+    }
+
+    /**
+     * Reads all valid records of the segment. Stops at the first torn or corrupted record
+     * or incomplete batch.
+     */
+    private void scanSegment(Segment segment, RecordVisitor visitor) throws IOException {
+        final long size = segment.channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long offset = 0;
+        while (offset < size) {
+            final ByteBuffer record = readValidRecord(segment.channel, offset, size, buffer);
+            if (record == null) {
+                Platform.warn("Torn or corrupted record at " + offset + " in " + segment.file
+                        + ", rest of the segment is ignored");
+                break;
+            }
+            buffer = record;
+            final int recordSize = record.limit();
+            final int keyLength = record.getInt(20);
+            final int valueLength = record.getInt(24);
+            if (valueLength == BATCH) {
+                if (keyLength != 8 || !isBatchComplete(segment.channel, offset,
+                        record.getLong(HEADER_SIZE), size)) {
+                    Platform.warn("Incomplete batch at " + offset + " in " + segment.file
+                            + ", rest of the segment is ignored");
+                    break;
+                }
+                offset += recordSize;
+                continue;
+            }
+
+            String key = new String(record.array(), HEADER_SIZE, keyLength, UTF_8);
+            Entry entry = new Entry(segment.id, offset, recordSize, valueLength,
+                    record.getLong(4), record.getLong(12));
+            visitor.visit(key, entry, record);
+            offset += recordSize;
+        }
+        segment.size = Math.max(segment.size, offset);
+    }
+
+    /**
+     * @return true if all records of the batch starting at the offset are intact
+     */
+    private static boolean isBatchComplete(FileChannel channel, long offset, long payload,
+                                           long size) throws IOException {
+        final long end = offset + BATCH_MARKER_SIZE + payload;
+        if (payload < 0 || end > size) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = offset + BATCH_MARKER_SIZE;
+        while (position < end) {
+            final ByteBuffer record = readValidRecord(channel, position, end, buffer);
+            if (record == null) {
+                return false;
+            }
+            buffer = record;
+            position += record.limit();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the record at the offset and checks its crc.
+     *
+     * @param buffer buffer to read into, a larger one is allocated if it is too small
+     * @return buffer with the record from position 0 to the limit or null if the record
+     * is torn, corrupted or doesn't fit before the limit
+     */
+    private static ByteBuffer readValidRecord(FileChannel channel, long offset, long limit,
+                                              ByteBuffer buffer) throws IOException {
+        if (offset + HEADER_SIZE > limit) {
+            return null;
+        }
+        buffer.clear();
+        buffer.limit(HEADER_SIZE);
+        if (!readFully(channel, buffer, offset)) {
+            return null;
+        }
+        final int keyLength = buffer.getInt(20);
+        final int valueLength = buffer.getInt(24);
+        if (keyLength < 0 || keyLength > MAX_KEY_LENGTH || valueLength < BATCH) {
+            return null;
+        }
+        final long recordSize = (long) HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+        if (offset + recordSize > limit) {
+            return null;
+        }
+
+        if (buffer.capacity() < recordSize) {
+            buffer = ByteBuffer.allocate((int) recordSize);
+        }
+        buffer.clear();
+        buffer.limit((int) recordSize);
+        if (!readFully(channel, buffer, offset)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, (int) recordSize - 4);
+        if ((int) crc.getValue() != buffer.getInt(0)) {
+            return null;
+        }
+        return buffer;
+    }
+
+    private ByteBuffer readRecord(String key, Entry entry) {
+        Segment segment = mSegments.get(entry.segmentId);
+        if (segment == null) {
+            throw new PaperDbException("Segment " + entry.segmentId + " for key " + key
+                    + " doesn't exist");
+        }
+        ByteBuffer record = ByteBuffer.allocate(entry.recordSize);
+        try {
+            if (!readFully(segment.channel, record, entry.offset)) {
+                throw new PaperDbException("Unexpected end of segment " + segment.file
+                        + " for key " + key);
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't read segment " + segment.file
+                    + " for key " + key, e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, entry.recordSize - 4);
+        if ((int) crc.getValue() != record.getInt(0)) {
+            throw new PaperDbException("Corrupted record for key " + key + " in " + segment.file);
+        }
+        return record;
+    }
+
+    private <E> E readValue(String key, ByteBuffer record, int valueLength) {
+        int valueOffset = record.capacity() - valueLength;
+        try {
+            return readContent(record.array(), valueOffset, valueLength, mKryo.get());
+        } catch (KryoException | ClassCastException e) {
+            throw new PaperDbException("Couldn't deserialize value for key " + key
+                    + " in " + mDbPath, e);
+        }
+    }
+
+    private static <E> E readContent(byte[] buffer, int offset, int length, KryoPool pool) {
+        final Kryo kryo = pool.borrow();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            //noinspection unchecked
+            final PaperTable<E> paperTable = kryo.readObject(new Input(buffer, offset, length),
+                    PaperTable.class);
+            return paperTable.mContent;
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    private <E> E copy(E value) {
+        return mKryo.get().copy(value);
+    }
+
+    private void markDead(Entry entry) {
+        if (entry != null) {
+            Segment segment = mSegments.get(entry.segmentId);
+            if (segment != null) {
+                segment.deadBytes.addAndGet(entry.recordSize);
+            }
+        }
+    }
+
+    private File segmentFile(long id) {
+        return new File(mDbPath, String.format(Locale.US, "%08d", id)
+                + SEGMENT_EXTENSION);
+    }
+
+    private File hintFile(long id) {
+        return new File(mDbPath, String.format(Locale.US, "%08d", id)
+                + HINT_EXTENSION);
+    }
+
+    private static byte[] keyBytes(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key couldn't be null");
+        }
+        byte[] bytes = key.getBytes(UTF_8);
+        if (bytes.length > MAX_KEY_LENGTH) {
+            throw new PaperDbException("Key is too long: " + key);
+        }
+        return bytes;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * @return false if the end of file is reached before the buffer is filled
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static boolean deleteDirectory(File directory) {
+        if (directory.exists()) {
+            File[] files = directory.listFiles();
+            if (null != files) {
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        deleteDirectory(file);
+                    } else {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+            }
+        }
+        return directory.delete();
+    }
+}
@@ -0,0 +1,1311 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+import io.paperdb.PaperMetrics.Operation;
+import io.paperdb.PaperMetrics.Phase;
+
+class DbStoragePlainFile implements DbStorage {
+    // Left by failed writes of older versions
+    private static final String BACKUP_EXTENSION = ".bak";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String BATCH_PREFIX = "batch-";
+    private static final String COMMIT_EXTENSION = ".commit";
+    private static final int COMMIT_MAGIC = 0x50424154;
+    // Limits the number of files kept open during the batched fsync
+    private static final int MAX_OPEN_BATCH_FILES = 64;
+    // Larger files are memory mapped instead of being read into the pooled buffer
+    private static final int MMAP_THRESHOLD = ReadBuffer.MAX_RETAINED_SIZE;
+    private static final int MIN_READ_BUFFER_SIZE = 4 * 1024;
+    // Collects the changes made in a row into one key index snapshot
+    private static final long INDEX_SAVE_DELAY_MILLIS = 1000;
+
+    private final String mDbPath;
+    private final KryoPool.Holder mKryo;
+    private final ValueCache mCache; // null if caching is disabled
+    private final CachePolicy mCachePolicy;
+    private final KeyIndex mIndex; // null if the key index is disabled
+    private final int mCompressionMinSize; // 0 if compression is disabled
+    // Needed to read files written with the dictionary even if it's disabled now
+    private final SchemaDictionary mDictionary;
+    private final BatchSerializer.ValueWriter mWriter;
+    private final int mTableVersion;
+    private final PaperMetrics mMetrics; // null if metrics are disabled
+    private final Durability mDurability;
+    private final long mSyncIntervalMillis;
+    private final boolean mSyncDirectory;
+    private final TableLayout mLayout;
+    // Paths of the table files written without sync since the last sync()
+    private final Set<String> mUnsyncedFiles =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean mSyncScheduled = new AtomicBoolean();
+    private final AtomicBoolean mIndexSaveScheduled = new AtomicBoolean();
+    private volatile boolean mPaperDirIsCreated;
+    private volatile boolean mClosed;
+    private KeyLocker keyLocker = new KeyLocker(); // To sync key-dependent operations by key
+    private final AtomicLong mBatchId = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Content of the batch commit file. The batch is committed once the commit file is durable,
+     * new values are written to temp files before that and renamed to the table files after.
+     */
+    private static class BatchCommit {
+        final List<String> writtenKeys = new ArrayList<>();
+        final List<Integer> lengths = new ArrayList<>();
+        final List<Integer> checksums = new ArrayList<>();
+        final List<String> deletedKeys = new ArrayList<>();
+    }
+
+    DbStoragePlainFile(String dbFilesDir, String dbName,
+                       HashMap<Class, Serializer> serializers, BookOptions options) {
+        mKryo = new KryoPool.Holder(serializers);
+        mDbPath = dbFilesDir + File.separator + dbName;
+        mCache = options.mCacheMaxBytes > 0 ? new ValueCache(options.mCacheMaxBytes) : null;
+        mCachePolicy = options.mCachePolicy;
+        mIndex = options.mKeyIndex ? new KeyIndex(new File(mDbPath)) : null;
+        mCompressionMinSize = options.mCompressionMinSize;
+        mDictionary = SchemaDictionary.forBook(mDbPath);
+        mWriter = TableFile.writer(options.mSchemaDictionary ? mDictionary : null);
+        mTableVersion = options.mSchemaDictionary
+                ? TableFile.VERSION_DICTIONARY : TableFile.VERSION;
+        mMetrics = options.mMetrics;
+        mDurability = options.mDurability;
+        mSyncIntervalMillis = options.mSyncIntervalMillis;
+        mSyncDirectory = options.mSyncDirectory;
+        mLayout = new TableLayout(mDbPath, options.mShardedLayout);
+    }
+
+    @Override
+    public void destroy() {
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.DESTROY, null);
+        // Acquire global lock to make sure per-key operations (read, write etc) completed
+        // and block future per-key operations until destroy is completed
+        try {
+            acquireGlobal(probe);
+
+            if (mCache != null) {
+                mCache.clear();
+            }
+            if (mIndex != null) {
+                mIndex.beginChange();
+                mIndex.clear();
+            }
+            probe.begin(Phase.WRITE);
+            if (!deleteDirectory(mDbPath)) {
+                Platform.error("Couldn't delete Paper dir " + mDbPath);
+            }
+            probe.end(Phase.WRITE);
+            mDictionary.onBookDestroyed();
+            mLayout.onDestroyed();
+            mUnsyncedFiles.clear();
+            mPaperDirIsCreated = false;
+        } finally {
+            releaseGlobal(probe);
+            probe.finish();
+        }
+    }
+
+    /**
+     * Table files aren't kept open, so only the key index is saved and the written files synced.
+     * The scheduled index save is skipped afterwards, so it can't overwrite the index saved by
+     * the next instance.
+     */
+    @Override
+    public void close() {
+        final KeyIndex.Snapshot snapshot;
+        try {
+            keyLocker.acquireGlobal();
+            mClosed = true;
+            snapshot = mIndex != null && mPaperDirIsCreated ? mIndex.snapshot() : null;
+        } finally {
+            keyLocker.releaseGlobal();
+        }
+        if (snapshot != null) {
+            mIndex.save(snapshot);
+        }
+        if (!mUnsyncedFiles.isEmpty()) {
+            sync();
+        }
+    }
+
+    @Override
+    public <E> void insert(String key, E value) {
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.WRITE, key);
+        // Serialize before taking the key lock, nothing is changed on disk if it fails
+        final WriteBuffer buffer = WriteBuffer.obtain(lastKnownSize(key));
+        try {
+            probe.begin(Phase.SERIALIZE);
+            final KryoPool pool = mKryo.get();
+            final Kryo kryo = pool.borrow();
+            try {
+                mWriter.write(kryo, buffer.output(), value);
+            } catch (KryoException e) {
+                throw new PaperDbException("Couldn't save table: " + key, e);
+            } finally {
+                pool.release(kryo);
+            }
+            TableFile.finish(buffer, mCompressionMinSize, mTableVersion);
+            probe.end(Phase.SERIALIZE);
+            insertSerialized(key, value, buffer, probe);
+        } finally {
+            buffer.recycle();
+            probe.finish();
+        }
+    }
+
+    private <E> void insertSerialized(String key, E value, WriteBuffer buffer,
+                                      OperationProbe probe) {
+        try {
+            acquire(key, probe);
+            assertInit();
+            // Classes seen for the first time must be saved before the file referring to them
+            mDictionary.flush();
+
+            if (mIndex != null) {
+                mIndex.beginChange();
+            }
+
+            final File originalFile = getOriginalFile(key);
+            long size = writeTableFile(key, buffer, originalFile, probe);
+            if (mIndex != null) {
+                mIndex.put(key, size, originalFile.lastModified());
+                scheduleIndexSave();
+            }
+            if (mCache != null) {
+                // Update the cache while holding the key lock, so concurrent writes
+                // of the same key are cached in the same order as they hit the disk
+                mCache.put(key, mCachePolicy == CachePolicy.IMMUTABLE ? value : copy(value), size);
+            }
+        } finally {
+            keyLocker.release(key);
+        }
+    }
+
+    @Override
+    public <E> E select(String key) {
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.READ, key);
+        try {
+            return select(key, probe);
+        } finally {
+            probe.finish();
+        }
+    }
+
+    private <E> E select(String key, OperationProbe probe) {
+        if (mCache != null) {
+            // Cached values are updated under the key lock, so a hit is safe without locking
+            //noinspection unchecked
+            E cached = (E) mCache.get(key);
+            if (cached != null) {
+                return mCachePolicy == CachePolicy.IMMUTABLE ? cached : copy(cached);
+            }
+        }
+        try {
+            acquire(key, probe);
+            assertInit();
+
+            if (mCache != null) {
+                // Value could be cached by a concurrent read or write while waiting for the lock
+                //noinspection unchecked
+                E cached = (E) mCache.peek(key);
+                if (cached != null) {
+                    return mCachePolicy == CachePolicy.IMMUTABLE ? cached : copy(cached);
+                }
+            }
+
+            final File originalFile = getOriginalFile(key);
+            if (!existsInternal(key)) {
+                return null;
+            }
+
+            E value = readTableFile(key, originalFile, probe);
+            if (mCache != null && value != null) {
+                mCache.put(key, value, originalFile.length());
+                return mCachePolicy == CachePolicy.IMMUTABLE ? value : copy(value);
+            }
+            return value;
+        } finally {
+            keyLocker.release(key);
+        }
+    }
+
+    @Override
+    public <E> PaperIterator<E> selectIterator(String key) {
+        if (mCache != null) {
+            final Object cached = mCache.get(key);
+            if (cached != null) {
+                return PaperIterators.of(key,
+                        mCachePolicy == CachePolicy.IMMUTABLE ? cached : copy(cached));
+            }
+        }
+        final File originalFile = getOriginalFile(key);
+        final ByteBuffer content;
+        // Elements are deserialized later by the caller, so only reading the file is measured
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.READ, key);
+        try {
+            acquire(key, probe);
+            assertInit();
+            if (!existsInternal(key)) {
+                return PaperIterators.of(key, null);
+            }
+            // The mapping stays valid after the file is replaced by the next write,
+            // so the elements are read without holding the lock
+            probe.begin(Phase.READ);
+            content = mapFile(originalFile);
+            probe.end(Phase.READ);
+            probe.read(content.remaining());
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't read/deserialize file "
+                    + originalFile + " for table " + key, e);
+        } finally {
+            keyLocker.release(key);
+            probe.finish();
+        }
+
+        if (TableFile.type(content) != TableFile.TYPE_TABLE) {
+            // Files written by older versions are read as a whole, they get the new format
+            // on the next write
+            return PaperIterators.of(key, select(key));
+        }
+        final byte[] chunk = new byte[MIN_READ_BUFFER_SIZE];
+        final Input input;
+        Inflater inflater = null;
+        try {
+            final int codec = TableFile.checkHeader(content, chunk);
+            content.position(TableFile.HEADER_SIZE);
+            final ByteBuffer payload = content.slice();
+            if (codec == TableFile.CODEC_DEFLATE) {
+                inflater = Compression.obtainInflater();
+                input = new InflatingInput(inflater, new byte[MIN_READ_BUFFER_SIZE], payload,
+                        chunk);
+            } else {
+                input = new ReadOnlyByteBufferInput(payload);
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't read/deserialize file "
+                    + originalFile + " for table " + key, e);
+        }
+        return PaperIterators.stream(key, mKryo.get(), input, inflater,
+                TableFile.version(content) == TableFile.VERSION_DICTIONARY ? mDictionary : null);
+    }
+
+    private static ByteBuffer mapFile(File file) throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            final FileChannel channel = stream.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.EXISTS, key);
+        if (mIndex != null) {
+            try {
+                // Index is updated under the key lock, no need to wait for writers
+                assertInit();
+                return mIndex.contains(key);
+            } finally {
+                probe.finish();
+            }
+        }
+        try {
+            acquire(key, probe);
+            return existsInternal(key);
+        } finally {
+            keyLocker.release(key);
+            probe.finish();
+        }
+    }
+
+    private boolean existsInternal(String key) {
+        if (mCache != null && mCache.peek(key) != null) {
+            return true;
+        }
+
+        assertInit();
+
+        if (mIndex != null) {
+            return mIndex.contains(key);
+        }
+        final File originalFile = getOriginalFile(key);
+        return originalFile.exists();
+    }
+
+    @Override
+    public long lastModified(String key) {
+        if (mIndex != null) {
+            assertInit();
+            final KeyIndex.Entry entry = mIndex.get(key);
+            return entry != null ? entry.lastModified : -1;
+        }
+        try {
+            keyLocker.acquire(key);
+            assertInit();
+
+            final File originalFile = getOriginalFile(key);
+            return originalFile.exists() ? originalFile.lastModified() : -1;
+        } finally {
+            keyLocker.release(key);
+        }
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.GET_ALL_KEYS,
+                null);
+        if (mIndex != null) {
+            try {
+                assertInit();
+                return mIndex.keys();
+            } finally {
+                probe.finish();
+            }
+        }
+        try {
+            // Acquire global lock to make sure per-key operations (delete etc) completed
+            // and block future per-key operations until reading for all keys is completed
+            acquireGlobal(probe);
+            assertInit();
+
+            probe.begin(Phase.READ);
+            String[] names = mLayout.listTableFiles();
+            probe.end(Phase.READ);
+            if (names != null) {
+                //remove extensions
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = TableLayout.keyOf(names[i]);
+                }
+                return Arrays.asList(names);
+            } else {
+                return new ArrayList<>();
+            }
+        } finally {
+            releaseGlobal(probe);
+            probe.finish();
+        }
+    }
+
+    @Override
+    public Iterator<String> keys(String fromInclusive, String toExclusive) {
+        if (mIndex != null) {
+            assertInit();
+            return mIndex.keys(fromInclusive, toExclusive);
+        }
+        // Without the index all keys have to be listed anyway
+        return KeyRanges.filter(getAllKeys(), fromInclusive, toExclusive);
+    }
+
+    @Override
+    public void deleteIfExists(String key) {
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.DELETE, key);
+        try {
+            acquire(key, probe);
+            assertInit();
+
+            if (mCache != null) {
+                mCache.remove(key);
+            }
+
+            final File originalFile = getOriginalFile(key);
+            if (!originalFile.exists()) {
+                return;
+            }
+
+            if (mIndex != null) {
+                mIndex.beginChange();
+            }
+            probe.begin(Phase.WRITE);
+            boolean deleted = originalFile.delete();
+            if (!deleted) {
+                throw new PaperDbException("Couldn't delete file " + originalFile
+                        + " for table " + key);
+            }
+            probe.end(Phase.WRITE);
+            if (mDurability != Durability.SYNC_ALWAYS) {
+                // Folder of the deleted file is synced by sync()
+                markUnsynced(originalFile);
+            }
+            if (mIndex != null) {
+                mIndex.remove(key);
+                scheduleIndexSave();
+            }
+        } finally {
+            keyLocker.release(key);
+            probe.finish();
+        }
+    }
+
+    @Override
+    public void insertAll(Map<String, ?> values) {
+        commitBatch(values, new ArrayList<String>());
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        commitBatch(new HashMap<String, Object>(), keys);
+    }
+
+    /**
+     * Writes and deletes all the keys atomically with respect to crashes: after restart either
+     * all changes are visible or none of them.
+     */
+    private void commitBatch(Map<String, ?> values, Collection<String> deletes) {
+        final List<String> keys = new ArrayList<>(values.size());
+        final List<Object> objects = new ArrayList<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            keys.add(entry.getKey());
+            objects.add(entry.getValue());
+        }
+        final Set<String> deletedKeys = new LinkedHashSet<>(deletes);
+        deletedKeys.removeAll(values.keySet());
+        if (keys.isEmpty() && deletedKeys.isEmpty()) {
+            return;
+        }
+        final OperationProbe probe = OperationProbe.start(mMetrics, Operation.BATCH, null);
+        final Output[] outputs;
+        try {
+            // Serialize in parallel before locking the keys
+            probe.begin(Phase.SERIALIZE);
+            outputs = BatchSerializer.serialize(keys, objects, mKryo.get(), mWriter);
+            for (int i = 0; i < outputs.length; i++) {
+                outputs[i] = TableFile.finish(outputs[i], mCompressionMinSize, mTableVersion);
+            }
+            probe.end(Phase.SERIALIZE);
+        } catch (RuntimeException | Error e) {
+            probe.finish();
+            throw e;
+        }
+
+        final Set<String> lockedKeys = new HashSet<>(keys);
+        lockedKeys.addAll(deletedKeys);
+        try {
+            probe.begin(Phase.LOCK_WAIT);
+            keyLocker.acquireAll(lockedKeys);
+            probe.end(Phase.LOCK_WAIT);
+            assertInit();
+            mDictionary.flush();
+
+            if (mIndex != null) {
+                mIndex.beginChange();
+            }
+            writeBatch(keys, outputs, deletedKeys, probe);
+            if (mIndex != null) {
+                for (int i = 0; i < keys.size(); i++) {
+                    mIndex.put(keys.get(i), outputs[i].position(),
+                            getOriginalFile(keys.get(i)).lastModified());
+                }
+                for (String key : deletedKeys) {
+                    mIndex.remove(key);
+                }
+                scheduleIndexSave();
+            }
+            if (mCache != null) {
+                for (int i = 0; i < keys.size(); i++) {
+                    Object value = objects.get(i);
+                    mCache.put(keys.get(i), mCachePolicy == CachePolicy.IMMUTABLE
+                            ? value : copy(value), outputs[i].position());
+                }
+                for (String key : deletedKeys) {
+                    mCache.remove(key);
+                }
+            }
+        } finally {
+            keyLocker.releaseAll(lockedKeys);
+            probe.finish();
+        }
+    }
+
+    private void writeBatch(List<String> keys, Output[] outputs, Collection<String> deletedKeys,
+                            OperationProbe probe) {
+        final File dir = new File(mDbPath);
+        final File commitFile = new File(dir, BATCH_PREFIX + mBatchId.incrementAndGet()
+                + COMMIT_EXTENSION);
+        final BatchCommit commit = new BatchCommit();
+        commit.deletedKeys.addAll(deletedKeys);
+        boolean committed = false;
+        try {
+            // Without syncs the batch is still all or nothing if the app crashes
+            final boolean durable = mDurability == Durability.SYNC_ALWAYS;
+            writeBatchTempFiles(keys, outputs, commit, durable, probe);
+            writeCommitFile(commitFile, commit, durable, probe);
+            if (durable) {
+                // Single directory sync makes all temp files and the commit file durable
+                probe.begin(Phase.FSYNC);
+                FileSync.syncDirectory(dir);
+                probe.end(Phase.FSYNC);
+            }
+            committed = true;
+
+            probe.begin(Phase.RENAME);
+            applyBatch(commit);
+            probe.end(Phase.RENAME);
+            if (durable) {
+                // Renames must be durable before the commit file is gone
+                probe.begin(Phase.FSYNC);
+                for (File tableDir : tableDirs(keys, deletedKeys)) {
+                    FileSync.syncDirectory(tableDir);
+                }
+                probe.end(Phase.FSYNC);
+            } else {
+                for (String key : keys) {
+                    markUnsynced(getOriginalFile(key));
+                }
+                for (String key : deletedKeys) {
+                    markUnsynced(getOriginalFile(key));
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            commitFile.delete();
+        } catch (IOException e) {
+            if (!committed) {
+                //noinspection ResultOfMethodCallIgnored
+                commitFile.delete();
+                for (String key : keys) {
+                    //noinspection ResultOfMethodCallIgnored
+                    makeTempFile(key).delete();
+                }
+                throw new PaperDbException("Couldn't save batch of " + keys.size()
+                        + " tables in " + mDbPath, e);
+            }
+            // The batch will be completed from the commit file on the next start
+            throw new PaperDbException("Couldn't apply committed batch in " + mDbPath
+                    + ", it will be applied on the next start", e);
+        }
+    }
+
+    /**
+     * @return folders holding the table files of the keys, the book folder in flat layout
+     */
+    private Set<File> tableDirs(Collection<String> writtenKeys, Collection<String> deletedKeys) {
+        final Set<File> dirs = new HashSet<>();
+        dirs.add(new File(mDbPath));
+        if (mLayout.isSharded()) {
+            for (String key : writtenKeys) {
+                dirs.add(getOriginalFile(key).getParentFile());
+            }
+            for (String key : deletedKeys) {
+                dirs.add(getOriginalFile(key).getParentFile());
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Writes new values to the temp files in the book folder, then syncs them all in one
+     * pass, so the file system can flush them together.
+     */
+    private void writeBatchTempFiles(List<String> keys, Output[] outputs, BatchCommit commit,
+                                     boolean durable, OperationProbe probe) throws IOException {
+        for (int start = 0; start < keys.size(); start += MAX_OPEN_BATCH_FILES) {
+            final int end = Math.min(keys.size(), start + MAX_OPEN_BATCH_FILES);
+            final List<FileOutputStream> streams = new ArrayList<>(end - start);
+            try {
+                probe.begin(Phase.WRITE);
+                for (int i = start; i < end; i++) {
+                    final String key = keys.get(i);
+                    final Output output = outputs[i];
+                    final FileOutputStream stream =
+                            new FileOutputStream(makeTempFile(key));
+                    streams.add(stream);
+                    stream.write(output.getBuffer(), 0, output.position());
+                    probe.written(output.position());
+
+                    CRC32 crc = new CRC32();
+                    crc.update(output.getBuffer(), 0, output.position());
+                    commit.writtenKeys.add(key);
+                    commit.lengths.add(output.position());
+                    commit.checksums.add((int) crc.getValue());
+                }
+                probe.end(Phase.WRITE);
+                for (int i = 0; durable && i < streams.size(); i++) {
+                    probe.begin(Phase.FSYNC);
+                    streams.get(i).getChannel().force(false);
+                    probe.end(Phase.FSYNC);
+                }
+            } finally {
+                for (FileOutputStream stream : streams) {
+                    closeQuietly(stream);
+                }
+            }
+        }
+    }
+
+    private void writeCommitFile(File commitFile, BatchCommit commit, boolean durable,
+                                 OperationProbe probe) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(COMMIT_MAGIC);
+        out.writeInt(commit.writtenKeys.size());
+        for (int i = 0; i < commit.writtenKeys.size(); i++) {
+            out.writeUTF(commit.writtenKeys.get(i));
+            out.writeInt(commit.lengths.get(i));
+            out.writeInt(commit.checksums.get(i));
+        }
+        out.writeInt(commit.deletedKeys.size());
+        for (String key : commit.deletedKeys) {
+            out.writeUTF(key);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        probe.begin(Phase.WRITE);
+        final FileOutputStream stream = new FileOutputStream(commitFile);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            bytes.writeTo(stream);
+            probe.end(Phase.WRITE);
+            probe.written(bytes.size());
+            if (durable) {
+                probe.begin(Phase.FSYNC);
+                stream.getChannel().force(false);
+                probe.end(Phase.FSYNC);
+            }
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    /**
+     * @return commit or null if the commit file is torn, i.e. the batch hasn't been committed
+     */
+    private static BatchCommit readCommitFile(File commitFile) {
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(commitFile)));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                final byte[] bytes = new byte[(int) commitFile.length() - 4];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (in.readInt() != (int) crc.getValue()) {
+                    return null;
+                }
+                final DataInputStream content = new DataInputStream(
+                        new ByteArrayInputStream(bytes));
+                if (content.readInt() != COMMIT_MAGIC) {
+                    return null;
+                }
+                final BatchCommit commit = new BatchCommit();
+                final int written = content.readInt();
+                for (int i = 0; i < written; i++) {
+                    commit.writtenKeys.add(content.readUTF());
+                    commit.lengths.add(content.readInt());
+                    commit.checksums.add(content.readInt());
+                }
+                final int deleted = content.readInt();
+                for (int i = 0; i < deleted; i++) {
+                    commit.deletedKeys.add(content.readUTF());
+                }
+                return commit;
+            } finally {
+                in.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Platform.warn("Couldn't read batch commit file " + commitFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Moves written temp files in place of the table files and deletes the deleted tables.
+     * Can be repeated after a crash, already moved files are skipped.
+     */
+    private void applyBatch(BatchCommit commit) throws IOException {
+        for (String key : commit.writtenKeys) {
+            final File originalFile = getOriginalFile(key);
+            final File tempFile = makeTempFile(key);
+            if (tempFile.exists()) {
+                mLayout.ensureShard(originalFile);
+                if (!tempFile.renameTo(originalFile)) {
+                    throw new IOException("Couldn't rename file " + tempFile
+                            + " to " + originalFile);
+                }
+            }
+        }
+        for (String key : commit.deletedKeys) {
+            final File originalFile = getOriginalFile(key);
+            if (originalFile.exists() && !originalFile.delete()) {
+                throw new IOException("Couldn't delete file " + originalFile);
+            }
+        }
+    }
+
+    /**
+     * @return true if every written value is either in the temp file or already moved in place
+     */
+    private boolean isBatchComplete(BatchCommit commit) {
+        for (int i = 0; i < commit.writtenKeys.size(); i++) {
+            final String key = commit.writtenKeys.get(i);
+            final int length = commit.lengths.get(i);
+            final int checksum = commit.checksums.get(i);
+            if (!matches(makeTempFile(key), length, checksum)
+                    && !matches(getOriginalFile(key), length, checksum)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(File file, int length, int checksum) {
+        if (!file.exists() || file.length() != length) {
+            return false;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                final byte[] content = new byte[length];
+                in.readFully(content);
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                return (int) crc.getValue() == checksum;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Brings the book folder to a consistent state once on open: restores backups left by
+     * failed writes of older versions, completes batches committed before a crash, drops
+     * the uncommitted ones and deletes temp files of failed writes.
+     *
+     * @param dir   book folder
+     * @param names names of the files in the book folder
+     * @return true if any table file could be changed
+     */
+    private boolean recoverWrites(File dir, String[] names) {
+        final List<File> files = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(TEMP_EXTENSION) || name.endsWith(BACKUP_EXTENSION)
+                    || (name.startsWith(BATCH_PREFIX) && name.endsWith(COMMIT_EXTENSION))) {
+                files.add(new File(dir, name));
+            }
+        }
+        if (files.isEmpty()) {
+            return false;
+        }
+        // Backups go first, batches committed later may overwrite the same keys
+        final List<File> commitFiles = new ArrayList<>();
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(BACKUP_EXTENSION)) {
+                final String originalName =
+                        name.substring(0, name.length() - BACKUP_EXTENSION.length());
+                final File originalFile = originalName.endsWith(TableLayout.EXTENSION)
+                        ? getOriginalFile(TableLayout.keyOf(originalName))
+                        : new File(dir, originalName);
+                //noinspection ResultOfMethodCallIgnored
+                originalFile.delete();
+                try {
+                    mLayout.ensureShard(originalFile);
+                    if (!file.renameTo(originalFile)) {
+                        Platform.warn("Couldn't restore backup file " + file);
+                    }
+                } catch (IOException e) {
+                    Platform.warn("Couldn't restore backup file " + file, e);
+                }
+            } else if (name.endsWith(COMMIT_EXTENSION)) {
+                commitFiles.add(file);
+            }
+        }
+        // Apply in commit order, later batches may overwrite the same keys
+        Collections.sort(commitFiles);
+        for (File commitFile : commitFiles) {
+            final BatchCommit commit = readCommitFile(commitFile);
+            // Incomplete batch has crashed before the directory sync, nothing is applied yet
+            if (commit != null && isBatchComplete(commit)) {
+                try {
+                    applyBatch(commit);
+                    for (File tableDir : tableDirs(commit.writtenKeys, commit.deletedKeys)) {
+                        FileSync.syncDirectory(tableDir);
+                    }
+                } catch (IOException e) {
+                    throw new PaperDbException("Couldn't apply committed batch "
+                            + commitFile, e);
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            commitFile.delete();
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_EXTENSION)) {
+                // Already moved in place if it belonged to a committed batch
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lists the book folder once and saves the result, so the next start can skip it
+     */
+    private void rebuildIndex() {
+        mIndex.clear();
+        final String[] names = mLayout.listTableFiles();
+        if (names != null) {
+            for (String name : names) {
+                final String key = TableLayout.keyOf(name);
+                final File file = mLayout.newFile(key);
+                mIndex.put(key, file.length(), file.lastModified());
+            }
+        }
+        scheduleIndexSave();
+    }
+
+    private void scheduleIndexSave() {
+        if (!mIndexSaveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        PaperExecutors.background().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mIndexSaveScheduled.set(false);
+                saveIndex();
+            }
+        }, INDEX_SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the key index snapshot on the calling thread
+     */
+    void saveIndex() {
+        final KeyIndex.Snapshot snapshot;
+        try {
+            // Wait for the changes in progress, so the snapshot is consistent with the files
+            keyLocker.acquireGlobal();
+            if (!mPaperDirIsCreated || mClosed) {
+                return; // Destroyed or saved on close
+            }
+            snapshot = mIndex.snapshot();
+        } finally {
+            keyLocker.releaseGlobal();
+        }
+        // Writers aren't blocked while the snapshot is saved
+        mIndex.save(snapshot);
+    }
+
+    /**
+     * Syncs the table files written without sync, then their folders for the created,
+     * renamed and deleted files
+     */
+    @Override
+    public void sync() {
+        final Set<File> dirs = new HashSet<>();
+        dirs.add(new File(mDbPath));
+        final Iterator<String> paths = mUnsyncedFiles.iterator();
+        while (paths.hasNext()) {
+            final String path = paths.next();
+            // Written again after this point is added back and synced by the next sync()
+            paths.remove();
+            final File file = new File(path);
+            try {
+                syncFile(file);
+            } catch (IOException e) {
+                mUnsyncedFiles.add(path);
+                throw new PaperDbException("Couldn't sync file " + path, e);
+            }
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            if (dir.exists()) {
+                FileSync.syncDirectory(dir);
+            }
+        }
+    }
+
+    private static void syncFile(File file) throws IOException {
+        final FileInputStream stream;
+        try {
+            stream = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return; // Deleted in the meantime
+        }
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            // Contents written through another descriptor are synced too
+            stream.getChannel().force(false);
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    /**
+     * @return number of table files waiting for sync
+     */
+    int unsyncedFileCount() {
+        return mUnsyncedFiles.size();
+    }
+
+    private void markUnsynced(File file) {
+        mUnsyncedFiles.add(file.getPath());
+        if (mDurability != Durability.SYNC_PERIODIC || !mSyncScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        PaperExecutors.background().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mSyncScheduled.set(false);
+                try {
+                    sync();
+                } catch (RuntimeException e) {
+                    // Failed files are synced with the next write or sync() call
+                    Platform.error("Couldn't sync book " + mDbPath, e);
+                }
+            }
+        }, mSyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return mCache != null ? mCache.stats() : new CacheStats(0, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void setLogLevel(int level) {
+        com.esotericsoftware.minlog.Log.set(level);
+    }
+
+    @Override
+    public String getOriginalFilePath(String key) {
+        return getOriginalFile(key).getPath();
+    }
+
+    @Override
+    public String getRootFolderPath() {
+        return mDbPath;
+    }
+
+    private File getOriginalFile(String key) {
+        return mLayout.file(key);
+    }
+
+    private void acquire(String key, OperationProbe probe) {
+        probe.begin(Phase.LOCK_WAIT);
+        keyLocker.acquire(key);
+        probe.end(Phase.LOCK_WAIT);
+    }
+
+    private void acquireGlobal(OperationProbe probe) {
+        probe.begin(Phase.LOCK_WAIT);
+        keyLocker.acquireGlobal();
+        probe.end(Phase.LOCK_WAIT);
+        probe.globalLockAcquired();
+    }
+
+    private void releaseGlobal(OperationProbe probe) {
+        probe.globalLockReleased();
+        keyLocker.releaseGlobal();
+    }
+
+    /**
+     * Writes the value to the temp file in the book folder and renames it over the table
+     * file, so the table file always has either the previous or the new value. Temp file is
+     * synced before the rename, otherwise the renamed file might turn out empty after a power
+     * loss. Temp files of failed writes are deleted when the book is opened.
+     *
+     * @param key          table key
+     * @param buffer       serialized table
+     * @param originalFile file to write new data
+     * @param probe        probe of the write operation
+     * @return number of bytes written
+     */
+    private long writeTableFile(String key, WriteBuffer buffer, File originalFile,
+                                OperationProbe probe) {
+        final File tempFile = makeTempFile(key);
+        FileOutputStream fileStream = null;
+        try {
+            probe.begin(Phase.WRITE);
+            fileStream = new FileOutputStream(tempFile);
+            final FileChannel channel = fileStream.getChannel();
+            final ByteBuffer bytes = buffer.byteBuffer();
+            final long size = bytes.remaining();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            probe.end(Phase.WRITE);
+            probe.written(size);
+            if (mDurability == Durability.SYNC_ALWAYS) {
+                probe.begin(Phase.FSYNC);
+                channel.force(false);
+                probe.end(Phase.FSYNC);
+            }
+            fileStream.close();
+            fileStream = null;
+
+            probe.begin(Phase.RENAME);
+            mLayout.ensureShard(originalFile);
+            if (!tempFile.renameTo(originalFile)) {
+                throw new IOException("Couldn't rename file " + tempFile + " to " + originalFile);
+            }
+            probe.end(Phase.RENAME);
+            if (mDurability != Durability.SYNC_ALWAYS) {
+                markUnsynced(originalFile);
+            } else if (mSyncDirectory) {
+                probe.begin(Phase.FSYNC);
+                FileSync.syncDirectory(originalFile.getParentFile());
+                probe.end(Phase.FSYNC);
+            }
+            return size;
+        } catch (IOException e) {
+            if (fileStream != null) {
+                closeQuietly(fileStream);
+                fileStream = null;
+            }
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new PaperDbException("Couldn't save table: " + key + ". " +
+                    "Previous value is kept", e);
+        } finally {
+            if (fileStream != null) {
+                closeQuietly(fileStream);
+            }
+        }
+    }
+
+    /**
+     * @return size of the current value of the key if it's in memory, 0 otherwise. Only a hint
+     * for the buffer size, so it's read without the key lock and never stats the file.
+     */
+    private int lastKnownSize(String key) {
+        long size = 0;
+        if (mIndex != null) {
+            final KeyIndex.Entry entry = mIndex.get(key);
+            size = entry != null ? entry.size : 0;
+        } else if (mCache != null) {
+            size = mCache.weight(key);
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private <E> E readTableFile(String key, File originalFile, OperationProbe probe) {
+        try {
+            return readContent(originalFile, probe);
+        } catch (IOException | KryoException | ClassCastException e) {
+            String errorMessage = "Couldn't read/deserialize file "
+                    + originalFile + " for table " + key;
+            throw new PaperDbException(errorMessage, e);
+        }
+    }
+
+    private <E> E copy(E value) {
+        return mKryo.get().copy(value);
+    }
+
+    /**
+     * Small files are read with a single read call into the pooled buffer, large ones are
+     * memory mapped and deserialized right from the mapping to avoid copying them to the heap.
+     * Compressed files are decompressed while deserializing. The decoder is chosen by the file
+     * format, see {@link TableFile}.
+     */
+    private <E> E readContent(File originalFile, OperationProbe probe)
+            throws IOException, KryoException {
+        probe.begin(Phase.READ);
+        final FileInputStream stream = new FileInputStream(originalFile);
+        // Deserialized value doesn't refer to the buffer, it's returned to the pool right after
+        final ReadBuffer readBuffer = ReadBuffer.obtain();
+        try {
+            final FileChannel channel = stream.getChannel();
+            final long size = channel.size();
+            final ByteBuffer content;
+            if (size > MMAP_THRESHOLD) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                final byte[] buffer = readBuffer.bytes((int) size);
+                final ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) size);
+                while (target.hasRemaining()) {
+                    if (channel.read(target, target.position()) < 0) {
+                        break; // Truncated file, let the decoder report it
+                    }
+                }
+                content = ByteBuffer.wrap(buffer, 0, target.position());
+            }
+            probe.end(Phase.READ);
+            probe.read(content.remaining());
+
+            // Mapped files are actually read while deserializing
+            probe.begin(Phase.DESERIALIZE);
+            final E value;
+            if (TableFile.type(content) == TableFile.TYPE_TABLE) {
+                value = readTable(content, readBuffer);
+            } else {
+                value = readPaperTableCompat(content, probe);
+            }
+            probe.end(Phase.DESERIALIZE);
+            return value;
+        } finally {
+            readBuffer.recycle();
+            closeQuietly(stream);
+        }
+    }
+
+    private <E> E readPaperTableCompat(ByteBuffer content, OperationProbe probe) {
+        try {
+            return readPaperTable(content, mKryo.get());
+        } catch (KryoException e) {
+            // Give one more chance, read data in paper 1.x compatibility mode
+            probe.compatFallback();
+            content.rewind();
+            return readPaperTable(content, mKryo.compatible());
+        }
+    }
+
+    private <E> E readTable(ByteBuffer content, ReadBuffer readBuffer)
+            throws IOException, KryoException {
+        // Mapped content doesn't use the read buffer, so it holds the chunks of the mapping
+        final byte[] chunk = content.hasArray() ? null : readBuffer.bytes(MIN_READ_BUFFER_SIZE);
+        final int codec = TableFile.checkHeader(content, chunk);
+        content.position(TableFile.HEADER_SIZE);
+        final ByteBuffer payload = content.slice();
+
+        final KryoPool pool = mKryo.get();
+        final Kryo kryo = pool.borrow();
+        Inflater inflater = null;
+        try {
+            if (TableFile.version(content) == TableFile.VERSION_DICTIONARY) {
+                SchemaClassResolver.use(kryo, mDictionary);
+            }
+            final Input input;
+            if (codec == TableFile.CODEC_DEFLATE) {
+                inflater = Compression.obtainInflater();
+                input = new InflatingInput(inflater, readBuffer.inflateBytes(), payload, chunk);
+            } else {
+                input = toInput(payload);
+            }
+            //noinspection unchecked
+            return (E) kryo.readClassAndObject(input);
+        } finally {
+            if (inflater != null) {
+                Compression.releaseInflater(inflater);
+            }
+            SchemaClassResolver.use(kryo, null);
+            pool.release(kryo);
+        }
+    }
+
+    private static <E> E readPaperTable(ByteBuffer content, KryoPool pool) throws KryoException {
+        final Kryo kryo = pool.borrow();
+        try {
+            //noinspection unchecked
+            final PaperTable<E> paperTable = kryo.readObject(toInput(content), PaperTable.class);
+            return paperTable.mContent;
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    private static Input toInput(ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            return new Input(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                    bytes.remaining());
+        }
+        return new ReadOnlyByteBufferInput(bytes);
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        //noinspection EmptyCatchBlock
+        try {
+            stream.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Must be synchronized to avoid race conditions on creating dir from different threads
+     */
+    private synchronized void assertInit() {
+        if (!mPaperDirIsCreated) {
+            final File dir = new File(mDbPath);
+            if (!dir.exists()) {
+                boolean isReady = dir.mkdirs();
+                if (!isReady) {
+                    throw new RuntimeException("Couldn't create Paper dir: " + mDbPath);
+                }
+                if (mIndex != null) {
+                    mIndex.clear();
+                }
+            } else {
+                // Single listing of the book folder serves both steps
+                final String[] names = dir.list();
+                if (names != null) {
+                    // Moved files keep their modification time, the index stays valid
+                    mLayout.migrate(names);
+                }
+                final boolean recovered = names != null && recoverWrites(dir, names);
+                // Snapshot can't be trusted if the recovery changed the files
+                if (mIndex != null && (recovered || !mIndex.load())) {
+                    rebuildIndex();
+                }
+            }
+            mPaperDirIsCreated = true;
+        }
+    }
+
+    private static boolean deleteDirectory(String dirPath) {
+        File directory = new File(dirPath);
+        if (directory.exists()) {
+            File[] files = directory.listFiles();
+            if (null != files) {
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        deleteDirectory(file.toString());
+                    } else {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+            }
+        }
+        return directory.delete();
+    }
+
+    private File makeTempFile(String key) {
+        return mLayout.tempFile(key, TEMP_EXTENSION);
+    }
+
+}
+
@@ -0,0 +1,26 @@
+package io.paperdb;
+
+/**
+ * Defines when written values are synced to the storage device, i.e. survive a power loss
+ * or a kernel panic. Values survive the crash of the app itself in all modes.
+ * See {@link BookOptions#durability(Durability)}.
+ */
+public enum Durability {
+    /**
+     * Each write returns once the value is synced. Default mode.
+     */
+    SYNC_ALWAYS,
+
+    /**
+     * Values are synced in background at most the sync interval after being written, see
+     * {@link BookOptions#periodicSync(long)}. Writes don't wait for the device, values written
+     * since the last sync may be lost on power loss.
+     */
+    SYNC_PERIODIC,
+
+    /**
+     * Values are synced only by {@link PaperStore#sync()} and whenever the system decides to.
+     * The fastest mode, for cache-like data which is fine to lose.
+     */
+    SYNC_NONE
+}
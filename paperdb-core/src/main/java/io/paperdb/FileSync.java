@@ -0,0 +1,20 @@
+package io.paperdb;
+
+import java.io.File;
+
+/**
+ * Durability helpers which are not covered by java.io.
+ */
+final class FileSync {
+
+    private FileSync() {
+    }
+
+    /**
+     * Makes created, renamed and deleted directory entries durable. File contents must be
+     * synced separately.
+     */
+    static void syncDirectory(File directory) {
+        Platform.get().syncDirectory(directory);
+    }
+}
@@ -0,0 +1,88 @@
+package io.paperdb;
+
+/**
+ * Probabilistic access frequency counter (count-min sketch with 4-bit counters) used
+ * by {@link ValueCache} to decide which of two keys is worth keeping.
+ * <p>
+ * Counters are halved after every sample period, so old popularity fades away and
+ * recently hot keys may win over keys which were popular long time ago.
+ * <p>
+ * Not thread safe, guarded by the owning cache.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] mTable;
+    private final int mTableMask;
+    private final int mSampleSize;
+    private int mSize;
+
+    FrequencySketch(int expectedEntries) {
+        int length = ceilingPowerOfTwo(Math.max(16, expectedEntries));
+        mTable = new long[length];
+        mTableMask = length - 1;
+        mSampleSize = 10 * length;
+    }
+
+    /**
+     * @return estimated number of times the element was seen, capped at 15
+     */
+    int frequency(Object element) {
+        int hash = spread(element.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object element) {
+        int hash = spread(element.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++mSize == mSampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((mTable[i] & mask) != mask) {
+            mTable[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < mTable.length; i++) {
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mSize = mSize / 2;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return ((int) hash) & mTableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return x >= (1 << 30) ? (1 << 30) : Integer.highestOneBit(x - 1) << 1;
+    }
+}
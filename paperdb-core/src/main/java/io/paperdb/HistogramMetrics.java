@@ -0,0 +1,115 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Built-in {@link PaperMetrics} aggregating the operations into {@link LatencyHistogram}s:
+ * the duration of each kind of operation, the time per phase, the time the lock of the whole
+ * book was held, and the totals of read and written bytes and of compatibility fallbacks.
+ * May be shared by several books to get their combined numbers.
+ * <pre>
+ * HistogramMetrics metrics = new HistogramMetrics();
+ * Book book = Paper.book("contacts", new BookOptions().metrics(metrics));
+ * ...
+ * long p99 = metrics.latency(PaperMetrics.Operation.READ).valueAtPercentile(99);
+ * long lockWait = metrics.phase(PaperMetrics.Phase.LOCK_WAIT).max();
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public class HistogramMetrics implements PaperMetrics {
+    private final LatencyHistogram[] mLatency =
+            new LatencyHistogram[PaperMetrics.Operation.values().length];
+    private final LatencyHistogram[] mPhases =
+            new LatencyHistogram[PaperMetrics.Phase.values().length];
+    private final LatencyHistogram mGlobalLockHold = new LatencyHistogram();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private final AtomicLong mCompatFallbacks = new AtomicLong();
+
+    public HistogramMetrics() {
+        for (int i = 0; i < mLatency.length; i++) {
+            mLatency[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < mPhases.length; i++) {
+            mPhases[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onOperation(@NonNull OperationMetrics metrics) {
+        mLatency[metrics.operation().ordinal()].record(metrics.durationNanos());
+        for (PaperMetrics.Phase phase : PaperMetrics.Phase.values()) {
+            if (metrics.phaseCount(phase) > 0) {
+                mPhases[phase.ordinal()].record(metrics.phaseNanos(phase));
+            }
+        }
+        if (metrics.globalLockHoldNanos() > 0) {
+            mGlobalLockHold.record(metrics.globalLockHoldNanos());
+        }
+        if (metrics.bytesRead() > 0) {
+            mBytesRead.addAndGet(metrics.bytesRead());
+        }
+        if (metrics.bytesWritten() > 0) {
+            mBytesWritten.addAndGet(metrics.bytesWritten());
+        }
+        if (metrics.compatFallback()) {
+            mCompatFallbacks.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return durations of the operations of the given kind in nanoseconds
+     */
+    public @NonNull LatencyHistogram latency(@NonNull PaperMetrics.Operation operation) {
+        return mLatency[operation.ordinal()];
+    }
+
+    /**
+     * @return time the operations spent in the phase in nanoseconds, one value per operation
+     * which went through the phase. E.g. {@link PaperMetrics.Phase#FSYNC} is the total time of
+     * the fsync calls of an operation.
+     */
+    public @NonNull LatencyHistogram phase(@NonNull PaperMetrics.Phase phase) {
+        return mPhases[phase.ordinal()];
+    }
+
+    /**
+     * @return time the lock of the whole book was held in nanoseconds
+     */
+    public @NonNull LatencyHistogram globalLockHold() {
+        return mGlobalLockHold;
+    }
+
+    public long bytesRead() {
+        return mBytesRead.get();
+    }
+
+    public long bytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    /**
+     * @return number of files read in the compatibility mode of Paper 1.x
+     */
+    public long compatFallbacks() {
+        return mCompatFallbacks.get();
+    }
+
+    /**
+     * Forgets everything recorded so far, e.g. to measure the next time window
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : mLatency) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : mPhases) {
+            histogram.reset();
+        }
+        mGlobalLockHold.reset();
+        mBytesRead.set(0);
+        mBytesWritten.set(0);
+        mCompatFallbacks.set(0);
+    }
+}
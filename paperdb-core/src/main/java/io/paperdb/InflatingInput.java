@@ -0,0 +1,66 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Kryo input decompressing the table while it's being read, so the uncompressed table is never
+ * kept in memory as a whole.
+ */
+class InflatingInput extends Input {
+    private final Inflater mInflater;
+    private final ByteBuffer mSource;
+    private final byte[] mChunk;
+
+    /**
+     * @param inflater inflater to use
+     * @param buffer   buffer for decompressed bytes
+     * @param source   compressed bytes from the position to the limit
+     * @param chunk    buffer for passing the source to the inflater if it's not in the heap,
+     *                 e.g. memory mapped file
+     */
+    InflatingInput(Inflater inflater, byte[] buffer, ByteBuffer source, byte[] chunk) {
+        super(buffer, 0, 0);
+        mInflater = inflater;
+        mSource = source;
+        mChunk = chunk;
+    }
+
+    @Override
+    protected int fill(byte[] buffer, int offset, int count) throws KryoException {
+        if (count == 0) {
+            return 0;
+        }
+        try {
+            while (true) {
+                final int inflated = mInflater.inflate(buffer, offset, count);
+                if (inflated > 0) {
+                    return inflated;
+                }
+                if (mInflater.finished() || mInflater.needsDictionary()) {
+                    return -1;
+                }
+                if (mInflater.needsInput()) {
+                    if (!mSource.hasRemaining()) {
+                        return -1; // Truncated payload, let Kryo report the underflow
+                    }
+                    if (mSource.hasArray()) {
+                        mInflater.setInput(mSource.array(),
+                                mSource.arrayOffset() + mSource.position(), mSource.remaining());
+                        mSource.position(mSource.limit());
+                    } else {
+                        final int length = Math.min(mChunk.length, mSource.remaining());
+                        mSource.get(mChunk, 0, length);
+                        mInflater.setInput(mChunk, 0, length);
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new KryoException(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.paperdb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes asynchronous operations of a single book.
+ * <p>
+ * Keys are spread over single-threaded lanes by hash, so operations on the same key are
+ * executed in the order of submission. Every lane has a bounded queue, when it is full the
+ * submitting thread waits for a free slot instead of piling up tasks in memory. A task
+ * submitted from the thread of the full lane itself, e.g. from a callback, is rejected with
+ * {@link RejectedExecutionException} since that wait would never end. Idle threads are stopped.
+ */
+class IoExecutor {
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    // Makes the submitting thread wait while the lane queue is full
+    private static final RejectedExecutionHandler WAIT_FOR_SLOT = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            // Nothing would take a task from the queue while the lane thread itself waits
+            if (((Lane) executor).mThread == Thread.currentThread()) {
+                throw new RejectedExecutionException("Queue is full, the lane can't wait for "
+                        + "its own slot");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+            }
+        }
+    };
+
+    private static class Lane extends ThreadPoolExecutor {
+        volatile Thread mThread; // thread running the current task
+
+        Lane(String name, int queueCapacity) {
+            super(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity),
+                    PaperExecutors.newThreadFactory(name, Thread.NORM_PRIORITY),
+                    WAIT_FOR_SLOT);
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable task) {
+            mThread = thread;
+        }
+
+        @Override
+        protected void afterExecute(Runnable task, Throwable error) {
+            mThread = null;
+        }
+    }
+
+    private final Lane[] mLanes;
+
+    IoExecutor(String name, int threads, int queueCapacity) {
+        mLanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            mLanes[i] = new Lane(name + "-" + i, queueCapacity);
+        }
+    }
+
+    /**
+     * Executes the task after all tasks previously submitted for the same key
+     */
+    void execute(String key, Runnable task) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key couldn't be null");
+        }
+        mLanes[(key.hashCode() & Integer.MAX_VALUE) % mLanes.length].execute(task);
+    }
+
+    /**
+     * Rejects new tasks and waits for the submitted ones. The lane of the calling thread
+     * isn't waited for, it can't finish before the caller returns.
+     */
+    void shutdown() {
+        boolean interrupted = false;
+        for (Lane lane : mLanes) {
+            lane.shutdown();
+        }
+        for (Lane lane : mLanes) {
+            if (lane.mThread == Thread.currentThread()) {
+                continue;
+            }
+            while (true) {
+                try {
+                    lane.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes the task after all previously submitted tasks for any key. Lanes are not
+     * blocked while waiting, the task runs on the lane which reaches it last.
+     */
+    void executeAfterAll(final Runnable task) {
+        final AtomicInteger remaining = new AtomicInteger(mLanes.length);
+        for (Lane lane : mLanes) {
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (remaining.decrementAndGet() == 0) {
+                        task.run();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.paperdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Platform of the storage engines outside of Android.
+ */
+final class JvmPlatform extends Platform {
+    private static final String TAG = "paperdb";
+
+    @Override
+    public void log(int priority, String message, Throwable error) {
+        System.err.println((priority == ERROR ? "E/" : "W/") + TAG + ": " + message);
+        if (error != null) {
+            error.printStackTrace();
+        }
+    }
+
+    /**
+     * Nothing is traced by default, JFR events of paperdb-jfr have to be installed
+     */
+    @Override
+    PaperTracer defaultTracer() {
+        return null;
+    }
+
+    /**
+     * Directories can be opened for reading and synced on Linux, same as on Android
+     */
+    @Override
+    void syncDirectory(File directory) {
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            warn("Couldn't sync directory " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package io.paperdb;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * In-memory index of the keys saved in the plain file book, with size and modification time
+ * of every table file.
+ * <p>
+ * The index is saved to the snapshot file, so it can be loaded on the next start instead of
+ * listing the book folder. The snapshot is deleted before the first change following the save
+ * and saved again later, so a snapshot found on start is never older than the table files.
+ */
+class KeyIndex {
+    static final String SNAPSHOT_FILE_NAME = "keys.idx";
+    private static final int SNAPSHOT_MAGIC = 0x504b4958;
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final File mDir;
+    private final File mSnapshotFile;
+    // Sorted for key range queries
+    private final ConcurrentSkipListMap<String, Entry> mEntries = new ConcurrentSkipListMap<>();
+    private final Object mSnapshotLock = new Object();
+    // Guarded by mSnapshotLock
+    private long mModCount;
+    private boolean mSnapshotSaved;
+
+    static class Entry {
+        final long size;
+        final long lastModified;
+
+        Entry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Copy of the index taken when no changes are in progress
+     */
+    static class Snapshot {
+        final Map<String, Entry> entries;
+        final long modCount;
+
+        Snapshot(Map<String, Entry> entries, long modCount) {
+            this.entries = entries;
+            this.modCount = modCount;
+        }
+    }
+
+    KeyIndex(File dir) {
+        mDir = dir;
+        mSnapshotFile = new File(dir, SNAPSHOT_FILE_NAME);
+    }
+
+    Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    List<String> keys() {
+        return new ArrayList<>(mEntries.keySet());
+    }
+
+    Iterator<String> keys(String fromInclusive, String toExclusive) {
+        return KeyRanges.iterate(mEntries, fromInclusive, toExclusive);
+    }
+
+    void put(String key, long size, long lastModified) {
+        mEntries.put(key, new Entry(size, lastModified));
+    }
+
+    void remove(String key) {
+        mEntries.remove(key);
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Must be called before any table file is changed. Invalidates the saved snapshot,
+     * so it's never loaded after a crash in the middle of the change.
+     */
+    void beginChange() {
+        synchronized (mSnapshotLock) {
+            mModCount++;
+            if (mSnapshotSaved) {
+                mSnapshotSaved = false;
+                if (mSnapshotFile.delete()) {
+                    // Deletion must be durable before the table files are changed
+                    FileSync.syncDirectory(mDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called while no changes are in progress, i.e. under the global lock
+     */
+    Snapshot snapshot() {
+        synchronized (mSnapshotLock) {
+            return new Snapshot(new HashMap<>(mEntries), mModCount);
+        }
+    }
+
+    /**
+     * Saves the snapshot unless the index has been changed since it was taken
+     */
+    void save(Snapshot snapshot) {
+        final File tempFile = new File(mSnapshotFile.getPath() + TEMP_EXTENSION);
+        try {
+            writeSnapshot(tempFile, snapshot.entries);
+        } catch (IOException e) {
+            Platform.warn("Couldn't save key index " + mSnapshotFile, e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+        synchronized (mSnapshotLock) {
+            if (snapshot.modCount == mModCount && !mSnapshotSaved
+                    && tempFile.renameTo(mSnapshotFile)) {
+                mSnapshotSaved = true;
+                return;
+            }
+        }
+        // Outdated snapshot
+        //noinspection ResultOfMethodCallIgnored
+        tempFile.delete();
+    }
+
+    /**
+     * @return true if the index is loaded from the snapshot, false if it has to be rebuilt
+     */
+    boolean load() {
+        mEntries.clear();
+        if (!mSnapshotFile.exists()) {
+            return false;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mSnapshotFile)));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                final byte[] bytes = new byte[(int) mSnapshotFile.length() - 4];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (in.readInt() != (int) crc.getValue()) {
+                    return false;
+                }
+                final DataInputStream content = new DataInputStream(
+                        new ByteArrayInputStream(bytes));
+                if (content.readInt() != SNAPSHOT_MAGIC) {
+                    return false;
+                }
+                final int count = content.readInt();
+                for (int i = 0; i < count; i++) {
+                    final String key = content.readUTF();
+                    final long size = content.readLong();
+                    final long lastModified = content.readLong();
+                    mEntries.put(key, new Entry(size, lastModified));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Platform.warn("Couldn't load key index " + mSnapshotFile, e);
+            mEntries.clear();
+            return false;
+        }
+        synchronized (mSnapshotLock) {
+            mSnapshotSaved = true;
+        }
+        return true;
+    }
+
+    private static void writeSnapshot(File file, Map<String, Entry> entries) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue().size);
+            out.writeLong(entry.getValue().lastModified);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+
+        final FileOutputStream stream = new FileOutputStream(file);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.paperdb;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class allows multiple threads to lock against a string key
+ * <p>
+ * Keys are mapped to a fixed table of locks by hash, so memory doesn't grow with the number
+ * of keys. Different keys may share the same lock, which only adds some contention.
+ * Locks are reentrant and must be released by the thread which acquired them.
+ * <p>
+ * Created by hiperion on 2017/3/15.
+ */
+class KeyLocker {
+    // Must be a power of two
+    static final int DEFAULT_STRIPES = 256;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    // Per-key operations hold the read lock, global operations involving _all_ keys
+    // like destroying the paper folder or getting all keys take the write lock
+    private final ReentrantReadWriteLock global = new ReentrantReadWriteLock();
+
+    KeyLocker() {
+        this(DEFAULT_STRIPES);
+    }
+
+    KeyLocker(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("Stripe count must be a power of two");
+        }
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = stripeCount - 1;
+    }
+
+    void acquire(String key) {
+        checkKey(key);
+        // If global lock is acquired, wait until global operation is done
+        global.readLock().lock();
+        stripes[stripe(key)].lock();
+    }
+
+    void release(String key) {
+        checkKey(key);
+        stripes[stripe(key)].unlock();
+        global.readLock().unlock();
+    }
+
+    /**
+     * Acquires all the keys at once. Locks are taken in ascending order,
+     * so batches can't deadlock with each other.
+     */
+    void acquireAll(Set<String> keys) {
+        final Set<Integer> indexes = stripesOf(keys);
+        global.readLock().lock();
+        for (int index : indexes) {
+            stripes[index].lock();
+        }
+    }
+
+    void releaseAll(Set<String> keys) {
+        final Set<Integer> indexes = stripesOf(keys);
+        for (int index : indexes) {
+            stripes[index].unlock();
+        }
+        global.readLock().unlock();
+    }
+
+    void acquireGlobal() {
+        // Waits for all per-key operations to complete and blocks new ones
+        global.writeLock().lock();
+    }
+
+    void releaseGlobal() {
+        global.writeLock().unlock();
+    }
+
+    private Set<Integer> stripesOf(Set<String> keys) {
+        final Set<Integer> indexes = new TreeSet<>();
+        for (String key : keys) {
+            checkKey(key);
+            indexes.add(stripe(key));
+        }
+        return indexes;
+    }
+
+    private int stripe(String key) {
+        int hash = key.hashCode();
+        // Spread higher bits, the table index uses only the lower ones
+        hash ^= hash >>> 16;
+        return hash & mask;
+    }
+
+    private static void checkKey(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key couldn't be null");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Page of keys returned by {@link PaperStore#keys(String, String, int)}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class KeyPage {
+    private final List<String> mKeys;
+    private final String mNextCursor;
+
+    KeyPage(List<String> keys, String nextCursor) {
+        mKeys = keys;
+        mNextCursor = nextCursor;
+    }
+
+    /**
+     * @return keys of the page in ascending order
+     */
+    public @NonNull List<String> keys() {
+        return mKeys;
+    }
+
+    /**
+     * @return cursor to pass for the next page, or null if this is the last page
+     */
+    public @Nullable String nextCursor() {
+        return mNextCursor;
+    }
+}
@@ -0,0 +1,76 @@
+package io.paperdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+
+/**
+ * Helpers for key range queries. Keys are ordered by {@link String#compareTo(String)},
+ * ranges include the lower bound and exclude the upper one, null upper bound means no bound.
+ */
+final class KeyRanges {
+
+    private KeyRanges() {
+    }
+
+    /**
+     * @return the smallest key greater than all keys starting with the prefix,
+     * or null if there is no such key
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    /**
+     * @return the smallest key greater than the given one
+     */
+    static String successor(String key) {
+        return key + '\u0000';
+    }
+
+    static boolean inRange(String key, String fromInclusive, String toExclusive) {
+        return key.compareTo(fromInclusive) >= 0
+                && (toExclusive == null || key.compareTo(toExclusive) < 0);
+    }
+
+    /**
+     * Iterates the keys of the sorted map in range, lazily and without copying them
+     */
+    static Iterator<String> iterate(NavigableMap<String, ?> map,
+                                    String fromInclusive, String toExclusive) {
+        if (toExclusive == null) {
+            return Collections.unmodifiableSet(map.tailMap(fromInclusive, true).keySet())
+                    .iterator();
+        }
+        if (fromInclusive.compareTo(toExclusive) >= 0) {
+            return Collections.<String>emptyList().iterator();
+        }
+        return Collections.unmodifiableSet(map.subMap(fromInclusive, toExclusive).keySet())
+                .iterator();
+    }
+
+    /**
+     * Filters and sorts the keys of the unsorted collection
+     */
+    static Iterator<String> filter(Collection<String> keys,
+                                   String fromInclusive, String toExclusive) {
+        final List<String> result = new ArrayList<>();
+        for (String key : keys) {
+            if (inRange(key, fromInclusive, toExclusive)) {
+                result.add(key);
+            }
+        }
+        Collections.sort(result);
+        return Collections.unmodifiableList(result).iterator();
+    }
+}
@@ -0,0 +1,86 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.UUID;
+
+import de.javakaffee.kryoserializers.ArraysAsListSerializer;
+import de.javakaffee.kryoserializers.SynchronizedCollectionsSerializer;
+import de.javakaffee.kryoserializers.UUIDSerializer;
+import de.javakaffee.kryoserializers.UnmodifiableCollectionsSerializer;
+import io.paperdb.serializer.NoArgCollectionSerializer;
+
+/**
+ * Creates Kryo instances configured the same way for all storage engines,
+ * so data written by any of them is readable by the others.
+ */
+final class KryoFactory {
+
+    private KryoFactory() {
+    }
+
+    static Kryo create(HashMap<Class, Serializer> customSerializers, boolean compatibilityMode) {
+        // Class names may be written as ids of the book's dictionary, see SchemaDictionary
+        Kryo kryo = new Kryo(new SchemaClassResolver(), new MapReferenceResolver());
+
+        if (compatibilityMode) {
+            kryo.getFieldSerializerConfig().setOptimizedGenerics(true);
+        }
+
+        kryo.register(PaperTable.class);
+        // Same format as CompatibleFieldSerializer without allocating chunk buffers per object,
+        // field names may be written as ids of the book's dictionary
+        kryo.setDefaultSerializer(SchemaFieldSerializer.FACTORY);
+        kryo.setReferences(false);
+
+        // Serialize Arrays$ArrayList
+        //noinspection ArraysAsListWithZeroOrOneArgument
+        kryo.register(Arrays.asList("").getClass(), new ArraysAsListSerializer());
+        UnmodifiableCollectionsSerializer.registerSerializers(kryo);
+        SynchronizedCollectionsSerializer.registerSerializers(kryo);
+        // Serialize inner AbstractList$SubAbstractListRandomAccess
+        kryo.addDefaultSerializer(new ArrayList<>().subList(0, 0).getClass(),
+                new NoArgCollectionSerializer());
+        // Serialize AbstractList$SubAbstractList
+        kryo.addDefaultSerializer(new LinkedList<>().subList(0, 0).getClass(),
+                new NoArgCollectionSerializer());
+        // To keep backward compatibility don't change the order of serializers above
+
+        // UUID support
+        kryo.register(UUID.class, new UUIDSerializer());
+
+        for (Class<?> clazz : customSerializers.keySet())
+            kryo.register(clazz, customSerializers.get(clazz));
+
+        kryo.setInstantiatorStrategy(
+                new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+
+        return kryo;
+    }
+
+    /**
+     * Makes a deep copy of the value, so cached instance is never exposed to callers.
+     */
+    static <E> E copy(Kryo kryo, E value) {
+        try {
+            return kryo.copy(value);
+        } catch (KryoException e) {
+            // Custom serializers may not support copying, make a copy via serialization
+            Output output = new Output(4096, -1);
+            kryo.writeClassAndObject(output, value);
+            //noinspection unchecked
+            return (E) kryo.readClassAndObject(new Input(output.getBuffer(), 0, output.position()));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of Kryo instances, shared by all books with the same custom serializers.
+ * <p>
+ * Kryo instances are heavy and not thread-safe. Instead of keeping one per thread and book,
+ * an instance is borrowed for a single operation and returned after it. At most
+ * {@link #MAX_IDLE} instances are kept per configuration, extra ones are left to the GC, so
+ * the memory use doesn't depend on the number of threads and short-lived threads don't leave
+ * their instances behind.
+ */
+final class KryoPool {
+    static final int MAX_IDLE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final ConcurrentHashMap<Config, KryoPool> sPools = new ConcurrentHashMap<>();
+
+    private final Config mConfig;
+    private final ArrayBlockingQueue<Kryo> mIdle = new ArrayBlockingQueue<>(MAX_IDLE);
+    private final AtomicLong mCreatedCount = new AtomicLong();
+
+    /**
+     * Custom serializers and the compatibility mode flag, see {@link KryoFactory#create}
+     */
+    private static class Config {
+        final HashMap<Class, Serializer> serializers;
+        final boolean compatibilityMode;
+
+        Config(HashMap<Class, Serializer> serializers, boolean compatibilityMode) {
+            this.serializers = serializers;
+            this.compatibilityMode = compatibilityMode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Config)) {
+                return false;
+            }
+            Config config = (Config) o;
+            return compatibilityMode == config.compatibilityMode
+                    && serializers.equals(config.serializers);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * serializers.hashCode() + (compatibilityMode ? 1 : 0);
+        }
+    }
+
+    private KryoPool(Config config) {
+        mConfig = config;
+    }
+
+    /**
+     * Returns the pool for the given configuration. Serializers are copied, so serializers
+     * added to the map later are picked up by another pool, see {@link #matches(Map)}.
+     */
+    static KryoPool of(Map<Class, Serializer> serializers, boolean compatibilityMode) {
+        final Config config = new Config(new HashMap<>(serializers), compatibilityMode);
+        KryoPool pool = sPools.get(config);
+        if (pool == null) {
+            pool = new KryoPool(config);
+            final KryoPool existing = sPools.putIfAbsent(config, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Serializers are only ever added to the map, so comparing the sizes is enough
+     * to check that the pool is still up to date.
+     */
+    boolean matches(Map<Class, Serializer> serializers) {
+        return mConfig.serializers.size() == serializers.size();
+    }
+
+    /**
+     * Takes an idle instance or creates a new one. Must be returned with {@link #release(Kryo)}
+     * once the operation is done.
+     */
+    Kryo borrow() {
+        final Kryo kryo = mIdle.poll();
+        if (kryo != null) {
+            return kryo;
+        }
+        mCreatedCount.incrementAndGet();
+        return KryoFactory.create(mConfig.serializers, mConfig.compatibilityMode);
+    }
+
+    void release(Kryo kryo) {
+        // Dropped if there are enough idle instances already
+        mIdle.offer(kryo);
+    }
+
+    /**
+     * Makes a deep copy of the value with a borrowed instance, see {@link KryoFactory#copy}
+     */
+    <E> E copy(E value) {
+        final Kryo kryo = borrow();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            return KryoFactory.copy(kryo, value);
+        } finally {
+            release(kryo);
+        }
+    }
+
+    /**
+     * @return true if the class is serialized by a custom serializer of the book
+     */
+    boolean hasCustomSerializer(Class type) {
+        return mConfig.serializers.containsKey(type);
+    }
+
+    /**
+     * @return number of instances created by the pool so far
+     */
+    long createdCount() {
+        return mCreatedCount.get();
+    }
+
+    /**
+     * Storage's reference to the pools of its serializers, switches to another pool once
+     * a serializer is added
+     */
+    static final class Holder {
+        private final Map<Class, Serializer> mSerializers;
+        private volatile KryoPool mPool;
+        private volatile KryoPool mCompatiblePool;
+
+        Holder(Map<Class, Serializer> serializers) {
+            mSerializers = serializers;
+        }
+
+        KryoPool get() {
+            KryoPool pool = mPool;
+            if (pool == null || !pool.matches(mSerializers)) {
+                pool = of(mSerializers, false);
+                mPool = pool;
+            }
+            return pool;
+        }
+
+        /**
+         * @return pool of instances reading data in paper 1.x compatibility mode
+         */
+        KryoPool compatible() {
+            KryoPool pool = mCompatiblePool;
+            if (pool == null || !pool.matches(mSerializers)) {
+                pool = of(mSerializers, true);
+                mCompatiblePool = pool;
+            }
+            return pool;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Timings and sizes of a single book operation, see {@link PaperMetrics}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OperationMetrics {
+    private final PaperMetrics.Operation mOperation;
+    private final String mKey;
+    private final long mDurationNanos;
+    private final long[] mPhaseNanos;
+    private final int[] mPhaseCounts;
+    private final long mBytesRead;
+    private final long mBytesWritten;
+    private final long mGlobalLockHoldNanos;
+    private final boolean mCompatFallback;
+
+    OperationMetrics(PaperMetrics.Operation operation, String key, long durationNanos,
+                     long[] phaseNanos, int[] phaseCounts, long bytesRead, long bytesWritten,
+                     long globalLockHoldNanos, boolean compatFallback) {
+        mOperation = operation;
+        mKey = key;
+        mDurationNanos = durationNanos;
+        mPhaseNanos = phaseNanos;
+        mPhaseCounts = phaseCounts;
+        mBytesRead = bytesRead;
+        mBytesWritten = bytesWritten;
+        mGlobalLockHoldNanos = globalLockHoldNanos;
+        mCompatFallback = compatFallback;
+    }
+
+    public @NonNull PaperMetrics.Operation operation() {
+        return mOperation;
+    }
+
+    /**
+     * @return key of the operation, null for batches and operations on the whole book
+     */
+    public @Nullable String key() {
+        return mKey;
+    }
+
+    /**
+     * @return wall time of the whole operation, including the time waiting for locks
+     */
+    public long durationNanos() {
+        return mDurationNanos;
+    }
+
+    /**
+     * @return total time spent in the phase, 0 if the operation didn't go through it
+     */
+    public long phaseNanos(@NonNull PaperMetrics.Phase phase) {
+        return mPhaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return number of times the operation went through the phase, e.g. number of fsync calls
+     * for {@link PaperMetrics.Phase#FSYNC}
+     */
+    public int phaseCount(@NonNull PaperMetrics.Phase phase) {
+        return mPhaseCounts[phase.ordinal()];
+    }
+
+    /**
+     * @return size of the read files, 0 for the values served from the cache
+     */
+    public long bytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * @return size of the written files
+     */
+    public long bytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * @return time the operation held the lock of the whole book, blocking all other operations
+     * of the book. Only {@link PaperMetrics.Operation#GET_ALL_KEYS} and
+     * {@link PaperMetrics.Operation#DESTROY} take it.
+     */
+    public long globalLockHoldNanos() {
+        return mGlobalLockHoldNanos;
+    }
+
+    /**
+     * @return true if the file couldn't be read as is and was read again in the compatibility
+     * mode of Paper 1.x
+     */
+    public boolean compatFallback() {
+        return mCompatFallback;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder()
+                .append(mOperation).append(' ').append(mKey)
+                .append(": ").append(mDurationNanos / 1000).append("us");
+        for (PaperMetrics.Phase phase : PaperMetrics.Phase.values()) {
+            if (mPhaseCounts[phase.ordinal()] > 0) {
+                builder.append(", ").append(phase).append(' ')
+                        .append(mPhaseNanos[phase.ordinal()] / 1000).append("us");
+            }
+        }
+        return builder.toString();
+    }
+}
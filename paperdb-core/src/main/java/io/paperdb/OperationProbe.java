@@ -0,0 +1,149 @@
+package io.paperdb;
+
+/**
+ * Measures the phases of a single storage operation for {@link PaperMetrics} and wraps them
+ * into sections of {@link PaperTracer}. The probe of books without metrics is a shared
+ * instance which does nothing while nothing is traced, so measuring costs only a few field
+ * reads then.
+ */
+final class OperationProbe {
+    private static final OperationProbe DISABLED =
+            new OperationProbe(null, null, null, null);
+    private static final int PHASE_COUNT = PaperMetrics.Phase.values().length;
+
+    private final PaperMetrics mMetrics; // null if disabled
+    private final PaperTracer mTracer; // null if not traced
+    private final PaperMetrics.Operation mOperation;
+    private final String mKey;
+    private final long mStartNanos;
+    private final long[] mPhaseStarts;
+    private final long[] mPhaseNanos;
+    private final int[] mPhaseCounts;
+    private long mBytesRead;
+    private long mBytesWritten;
+    private long mGlobalLockStart;
+    private long mGlobalLockHoldNanos;
+    private boolean mCompatFallback;
+    // Section of the phase is left open if the phase fails, it's ended by the next one
+    private PaperMetrics.Phase mTracedPhase;
+
+    private OperationProbe(PaperMetrics metrics, PaperTracer tracer,
+                           PaperMetrics.Operation operation, String key) {
+        mMetrics = metrics;
+        mTracer = tracer;
+        mOperation = operation;
+        mKey = key;
+        if (metrics != null) {
+            mStartNanos = System.nanoTime();
+            mPhaseStarts = new long[PHASE_COUNT];
+            mPhaseNanos = new long[PHASE_COUNT];
+            mPhaseCounts = new int[PHASE_COUNT];
+        } else {
+            mStartNanos = 0;
+            mPhaseStarts = null;
+            mPhaseNanos = null;
+            mPhaseCounts = null;
+        }
+        if (tracer != null) {
+            tracer.beginSection(operation, null, key);
+        }
+    }
+
+    /**
+     * @param metrics listener of the book, null if metrics are disabled
+     * @param key     key of the operation, null for operations on many keys
+     */
+    static OperationProbe start(PaperMetrics metrics, PaperMetrics.Operation operation,
+                                String key) {
+        PaperTracer tracer = Platform.tracer();
+        if (tracer != null && !tracer.isEnabled()) {
+            tracer = null;
+        }
+        if (metrics == null && tracer == null) {
+            return DISABLED;
+        }
+        return new OperationProbe(metrics, tracer, operation, key);
+    }
+
+    void begin(PaperMetrics.Phase phase) {
+        if (mTracer != null) {
+            endTracedPhase();
+            mTracer.beginSection(mOperation, phase, mKey);
+            mTracedPhase = phase;
+        }
+        if (mMetrics != null) {
+            mPhaseStarts[phase.ordinal()] = System.nanoTime();
+        }
+    }
+
+    void end(PaperMetrics.Phase phase) {
+        if (mMetrics != null) {
+            final int index = phase.ordinal();
+            mPhaseNanos[index] += System.nanoTime() - mPhaseStarts[index];
+            mPhaseCounts[index]++;
+        }
+        if (mTracer != null && mTracedPhase == phase) {
+            endTracedPhase();
+        }
+    }
+
+    private void endTracedPhase() {
+        if (mTracedPhase != null) {
+            mTracedPhase = null;
+            mTracer.endSection();
+        }
+    }
+
+    void read(long bytes) {
+        if (mMetrics != null) {
+            mBytesRead += bytes;
+        }
+    }
+
+    void written(long bytes) {
+        if (mMetrics != null) {
+            mBytesWritten += bytes;
+        }
+    }
+
+    void compatFallback() {
+        if (mMetrics != null) {
+            mCompatFallback = true;
+        }
+    }
+
+    void globalLockAcquired() {
+        if (mMetrics != null) {
+            mGlobalLockStart = System.nanoTime();
+        }
+    }
+
+    void globalLockReleased() {
+        if (mMetrics != null) {
+            mGlobalLockHoldNanos += System.nanoTime() - mGlobalLockStart;
+        }
+    }
+
+    /**
+     * Reports the operation and ends its trace sections, must be called once after the locks
+     * are released, also if the operation has failed
+     */
+    void finish() {
+        if (mTracer != null) {
+            endTracedPhase();
+            mTracer.endSection();
+        }
+        if (mMetrics == null) {
+            return;
+        }
+        final OperationMetrics metrics = new OperationMetrics(mOperation, mKey,
+                System.nanoTime() - mStartNanos, mPhaseNanos, mPhaseCounts, mBytesRead,
+                mBytesWritten, mGlobalLockHoldNanos, mCompatFallback);
+        try {
+            mMetrics.onOperation(metrics);
+        } catch (RuntimeException e) {
+            // Broken listener must not fail the operation which has already succeeded
+            Platform.warn("Metrics listener failed on " + metrics, e);
+        }
+    }
+}
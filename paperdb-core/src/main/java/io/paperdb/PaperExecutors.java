@@ -0,0 +1,123 @@
+package io.paperdb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared threads for Paper's housekeeping work which must not block the callers.
+ */
+final class PaperExecutors {
+
+    private static final int MAX_COMPUTE_THREADS = 4;
+    private static final int IDLE_KEEP_ALIVE_SECONDS = 30;
+
+    private static volatile ScheduledExecutorService sBackground;
+    private static volatile ExecutorService sCompute;
+    private static volatile ExecutorService sPreload;
+    private static volatile ExecutorService sCompaction;
+
+    private PaperExecutors() {
+    }
+
+    /**
+     * Returns single low priority daemon thread executor for background maintenance tasks
+     * like delayed flushes and index saves. Tasks must be short and must not wait for each
+     * other.
+     */
+    static ScheduledExecutorService background() {
+        if (sBackground == null) {
+            synchronized (PaperExecutors.class) {
+                if (sBackground == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                            newThreadFactory("paperdb-background", Thread.MIN_PRIORITY));
+                    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+                    sBackground = executor;
+                }
+            }
+        }
+        return sBackground;
+    }
+
+    /**
+     * Returns pool for CPU bound work of the callers, e.g. serialization of batches.
+     * Threads are stopped when idle. Tasks must not wait for other compute tasks.
+     */
+    static ExecutorService compute() {
+        if (sCompute == null) {
+            synchronized (PaperExecutors.class) {
+                if (sCompute == null) {
+                    sCompute = newIdleStoppingExecutor(computeParallelism(), "paperdb-compute",
+                            Thread.NORM_PRIORITY);
+                }
+            }
+        }
+        return sCompute;
+    }
+
+    /**
+     * Returns single thread executor reading values ahead of the reads. Tasks block on I/O,
+     * so they are kept off the background thread. The thread is stopped when idle.
+     */
+    static ExecutorService preload() {
+        if (sPreload == null) {
+            synchronized (PaperExecutors.class) {
+                if (sPreload == null) {
+                    sPreload = newIdleStoppingExecutor(1, "paperdb-preload",
+                            Thread.NORM_PRIORITY);
+                }
+            }
+        }
+        return sPreload;
+    }
+
+    /**
+     * Returns single low priority thread executor for the log compaction and the segment
+     * hints. Compaction rewrites whole segments, so it is kept off the background thread.
+     * The thread is stopped when idle.
+     */
+    static ExecutorService compaction() {
+        if (sCompaction == null) {
+            synchronized (PaperExecutors.class) {
+                if (sCompaction == null) {
+                    sCompaction = newIdleStoppingExecutor(1, "paperdb-compaction",
+                            Thread.MIN_PRIORITY);
+                }
+            }
+        }
+        return sCompaction;
+    }
+
+    static int computeParallelism() {
+        return Math.max(1, Math.min(MAX_COMPUTE_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static ExecutorService newIdleStoppingExecutor(int threads, String name,
+                                                           int priority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                newThreadFactory(name, priority));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static ThreadFactory newThreadFactory(final String name, final int priority) {
+        return new ThreadFactory() {
+            private int mCount;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + (++mCount));
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+}
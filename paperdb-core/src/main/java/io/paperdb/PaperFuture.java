@@ -0,0 +1,112 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Result of an asynchronous {@link PaperStore} operation. Besides the blocking {@link #get()}
+ * the result can be consumed with {@link #whenComplete(Callback)}.
+ * <p>
+ * Only operations which are still queued can be cancelled, a running operation always
+ * completes. See {@link #cancel(boolean)}.
+ *
+ * @param <T> result type, {@link Void} for operations without result
+ */
+public class PaperFuture<T> extends FutureTask<T> {
+
+    /**
+     * Receives the outcome of the operation. Exactly one of the arguments is meaningful:
+     * error is null if the operation succeeded.
+     */
+    public interface Callback<T> {
+        void onComplete(@Nullable T result, @Nullable Throwable error);
+    }
+
+    private final List<Callback<T>> mCallbacks = new ArrayList<>(1);
+    // Set once the operation is started or cancelled, whichever comes first
+    private final AtomicBoolean mClaimed = new AtomicBoolean();
+    private boolean mCompleted; // guarded by mCallbacks
+
+    PaperFuture(Callable<T> callable) {
+        super(callable);
+    }
+
+    /**
+     * Registers the callback invoked once the operation is completed, failed or cancelled.
+     * The callback runs on the Paper I/O thread, or right away on the calling thread if the
+     * operation is already completed, so it must be fast and must not block. An asynchronous
+     * operation submitted from the callback fails with RejectedExecutionException if the I/O
+     * queue is full, since the thread can't wait for itself.
+     *
+     * @param callback callback to invoke
+     * @return this future
+     */
+    public @NonNull PaperFuture<T> whenComplete(@NonNull Callback<T> callback) {
+        synchronized (mCallbacks) {
+            if (!mCompleted) {
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        notifyCallback(callback);
+        return this;
+    }
+
+    /**
+     * Cancels the operation if it hasn't started yet. The running operation is never
+     * interrupted, regardless of mayInterruptIfRunning: an interrupt closes the file channel
+     * the I/O thread is using, e.g. the active segment of the append-only log.
+     *
+     * @param mayInterruptIfRunning ignored
+     * @return false if the operation is already running or completed
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return mClaimed.compareAndSet(false, true) && super.cancel(false);
+    }
+
+    @Override
+    public void run() {
+        if (mClaimed.compareAndSet(false, true)) {
+            super.run();
+        }
+    }
+
+    @Override
+    protected void done() {
+        final List<Callback<T>> callbacks;
+        synchronized (mCallbacks) {
+            mCompleted = true;
+            callbacks = new ArrayList<>(mCallbacks);
+            mCallbacks.clear();
+        }
+        for (Callback<T> callback : callbacks) {
+            notifyCallback(callback);
+        }
+    }
+
+    private void notifyCallback(Callback<T> callback) {
+        T result = null;
+        Throwable error = null;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            error = e.getCause();
+        } catch (CancellationException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // Never happens, the future is already done
+            Thread.currentThread().interrupt();
+            error = e;
+        }
+        callback.onComplete(result, error);
+    }
+}
@@ -0,0 +1,21 @@
+package io.paperdb;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over the elements of a stored collection, see {@link PaperStore#readIterator(String)}.
+ * <p>
+ * Elements are read one at a time, the iterator keeps the underlying file open until all
+ * elements are read or it's closed. Close the iterator when it's not read to the end.
+ * The iterator is not thread-safe and doesn't support {@link #remove()}.
+ */
+public interface PaperIterator<E> extends Iterator<E>, Closeable {
+
+    /**
+     * Releases the underlying file, has no effect if the iterator is closed already.
+     * {@link #hasNext()} returns false after the iterator is closed.
+     */
+    @Override
+    void close();
+}
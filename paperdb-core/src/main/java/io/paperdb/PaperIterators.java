@@ -0,0 +1,175 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.Inflater;
+
+import io.paperdb.serializer.NoArgCollectionSerializer;
+
+/**
+ * Creates {@link PaperIterator} instances for values in memory and for values being read.
+ */
+final class PaperIterators {
+
+    private PaperIterators() {
+    }
+
+    /**
+     * @param value collection to iterate, null for no elements
+     */
+    static <E> PaperIterator<E> of(String key, Object value) {
+        if (value == null) {
+            return new MemoryIterator<>(Collections.<E>emptyList().iterator());
+        }
+        if (!(value instanceof Collection)) {
+            throw new PaperDbException("Value of " + key + " is not a collection but "
+                    + value.getClass().getName());
+        }
+        //noinspection unchecked
+        return new MemoryIterator<>(((Collection<E>) value).iterator());
+    }
+
+    /**
+     * Starts reading the value written with {@link Kryo#writeClassAndObject}. Collections
+     * written by {@link CollectionSerializer} are read element by element, other collections
+     * are read as a whole.
+     *
+     * @param inflater   inflater used by the input, released once the iterator is closed,
+     *                   may be null
+     * @param dictionary dictionary the value is written with, null if written without it
+     */
+    static <E> PaperIterator<E> stream(String key, KryoPool pool, Input input,
+                                       Inflater inflater, SchemaDictionary dictionary) {
+        final StreamIterator<E> iterator = new StreamIterator<>(key, pool, input, inflater);
+        boolean started = false;
+        try {
+            final Kryo kryo = iterator.mKryo;
+            SchemaClassResolver.use(kryo, dictionary);
+            // Field names and class names are written once per value, keep them
+            // between the element reads
+            kryo.setAutoReset(false);
+            final Registration registration = kryo.readClass(input);
+            if (registration == null) {
+                return of(key, null);
+            }
+            final Serializer serializer = registration.getSerializer();
+            if ((serializer.getClass() == CollectionSerializer.class
+                    || serializer.getClass() == NoArgCollectionSerializer.class)
+                    && !pool.hasCustomSerializer(registration.getType())) {
+                iterator.mRemaining = input.readVarInt(true);
+                started = true;
+                return iterator;
+            }
+            return of(key, kryo.readObject(input, registration.getType()));
+        } catch (KryoException e) {
+            throw new PaperDbException("Couldn't read/deserialize table " + key, e);
+        } finally {
+            if (!started) {
+                iterator.close();
+            }
+        }
+    }
+
+    private static class MemoryIterator<E> implements PaperIterator<E> {
+        private final Iterator<E> mIterator;
+        private boolean mClosed;
+
+        MemoryIterator(Iterator<E> iterator) {
+            mIterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mClosed && mIterator.hasNext();
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return mIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+
+    private static class StreamIterator<E> implements PaperIterator<E> {
+        private final String mKey;
+        private final KryoPool mPool;
+        private final Kryo mKryo;
+        private final Input mInput;
+        private final Inflater mInflater;
+        private int mRemaining;
+        private boolean mClosed;
+
+        StreamIterator(String key, KryoPool pool, Input input, Inflater inflater) {
+            mKey = key;
+            mPool = pool;
+            mKryo = pool.borrow();
+            mInput = input;
+            mInflater = inflater;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mClosed && mRemaining > 0;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                //noinspection unchecked
+                final E element = (E) mKryo.readClassAndObject(mInput);
+                if (--mRemaining == 0) {
+                    close();
+                }
+                return element;
+            } catch (KryoException e) {
+                close();
+                throw new PaperDbException("Couldn't read/deserialize element of table "
+                        + mKey, e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mKryo.reset();
+            mKryo.setAutoReset(true);
+            SchemaClassResolver.use(mKryo, null);
+            mPool.release(mKryo);
+            if (mInflater != null) {
+                Compression.releaseInflater(mInflater);
+            }
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * List stored as a sequence of segment files, each holding up to a fixed number of elements,
+ * see {@link PaperStore#list(String)}. Appending an element writes only to the last segment,
+ * reading an element reads only the segment holding it, so the cost of the operations
+ * doesn't depend on the size of the list.
+ * <p>
+ * Lists are kept in the book folder separately from the other values: {@link PaperStore#read},
+ * {@link PaperStore#contains} and {@link PaperStore#getAllKeys()} don't see them.
+ * <p>
+ * Segment file is a sequence of records: length | crc32 | element. Trimmed elements of the
+ * first segment are recorded in the manifest file, segments are deleted once all their
+ * elements are trimmed. All methods are thread-safe.
+ */
+public class PaperList<E> {
+    static final int DEFAULT_SEGMENT_SIZE = 1024;
+
+    private static final String DIR_EXTENSION = ".list";
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String MANIFEST = "list.manifest";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int MANIFEST_MAGIC = 0x504c4d46;
+    // length + crc32
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final String mKey;
+    private final File mDir;
+    private final int mSegmentSize;
+    private final KryoPool.Holder mKryo;
+
+    // Segment ids are contiguous from the first to the last, only the last one isn't full.
+    // Loaded from the folder on the first access.
+    private boolean mLoaded;
+    private long mFirstSegment;
+    private long mLastSegment;
+    private int mTrimmed; // number of trimmed elements in the first segment
+    private int mLastCount; // number of elements in the last segment
+    private long mLastLength; // valid bytes of the last segment
+
+    PaperList(String bookPath, String key, KryoPool.Holder kryo, int segmentSize) {
+        mKey = key;
+        mDir = new File(bookPath, key + DIR_EXTENSION);
+        mSegmentSize = segmentSize;
+        mKryo = kryo;
+    }
+
+    /**
+     * Appends the element to the end of the list.
+     *
+     * @param element element to append, can't be null
+     * @return this list
+     */
+    public @NonNull PaperList<E> append(@NonNull E element) {
+        return appendAll(Collections.singletonList(element));
+    }
+
+    /**
+     * Appends the elements to the end of the list with a single sync per touched segment.
+     * Elements are appended one by one: after a crash the list may end with a part of them.
+     *
+     * @param elements elements to append, can't contain nulls
+     * @return this list
+     */
+    public @NonNull PaperList<E> appendAll(@NonNull Collection<? extends E> elements) {
+        if (elements.isEmpty()) {
+            return this;
+        }
+        for (E element : elements) {
+            if (element == null) {
+                throw new PaperDbException("Paper doesn't support appending null elements");
+            }
+        }
+        // Serialize before locking, nothing is appended if any element fails
+        final List<byte[]> records = new ArrayList<>(elements.size());
+        final KryoPool pool = mKryo.get();
+        final Kryo kryo = pool.borrow();
+        final WriteBuffer buffer = WriteBuffer.obtain(0);
+        try {
+            final Output output = buffer.output();
+            for (E element : elements) {
+                output.setPosition(RECORD_HEADER_SIZE);
+                kryo.writeClassAndObject(output, element);
+                final int length = output.position() - RECORD_HEADER_SIZE;
+                final CRC32 crc = new CRC32();
+                crc.update(output.getBuffer(), RECORD_HEADER_SIZE, length);
+                final ByteBuffer header = ByteBuffer.wrap(output.getBuffer(), 0,
+                        RECORD_HEADER_SIZE);
+                header.putInt(length);
+                header.putInt((int) crc.getValue());
+                records.add(output.toBytes());
+            }
+        } catch (KryoException e) {
+            throw new PaperDbException("Couldn't append to list " + mKey, e);
+        } finally {
+            buffer.recycle();
+            pool.release(kryo);
+        }
+
+        synchronized (this) {
+            load();
+            int next = 0;
+            try {
+                while (next < records.size()) {
+                    if (mLastCount == mSegmentSize) {
+                        startSegment();
+                    }
+                    final int count = Math.min(records.size() - next, mSegmentSize - mLastCount);
+                    appendRecords(records.subList(next, next + count));
+                    next += count;
+                }
+            } catch (IOException e) {
+                // Torn record is cut off on the next load
+                mLoaded = false;
+                throw new PaperDbException("Couldn't append to list " + mKey, e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return number of elements in the list
+     */
+    public synchronized int size() {
+        load();
+        return (int) ((mLastSegment - mFirstSegment) * mSegmentSize + mLastCount - mTrimmed);
+    }
+
+    /**
+     * Reads the element at the index, only the segment holding it is read.
+     *
+     * @param index index of the element from the head of the list
+     * @return the element
+     * @throws IndexOutOfBoundsException if there is no element at the index
+     */
+    public @NonNull E get(int index) {
+        final List<E> elements = index >= 0 ? range(index, 1) : Collections.<E>emptyList();
+        if (elements.isEmpty()) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of list "
+                    + mKey + " bounds");
+        }
+        return elements.get(0);
+    }
+
+    /**
+     * Reads up to limit elements starting from the offset, only the segments holding them
+     * are read.
+     *
+     * @param offset index of the first element to read
+     * @param limit  maximum number of elements to read
+     * @return elements in the range, fewer than limit if the list ends before
+     */
+    public synchronized @NonNull List<E> range(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit couldn't be negative");
+        }
+        load();
+        final int count = Math.max(0, Math.min(limit, size() - offset));
+        final List<E> elements = new ArrayList<>(count);
+        long position = (long) mTrimmed + offset;
+        final KryoPool pool = mKryo.get();
+        final Kryo kryo = pool.borrow();
+        try {
+            while (elements.size() < count) {
+                final long segment = mFirstSegment + position / mSegmentSize;
+                final int first = (int) (position % mSegmentSize);
+                final int read = Math.min(count - elements.size(), mSegmentSize - first);
+                readSegment(kryo, segment, first, read, elements);
+                position += read;
+            }
+        } catch (IOException | KryoException e) {
+            throw new PaperDbException("Couldn't read list " + mKey, e);
+        } finally {
+            pool.release(kryo);
+        }
+        return elements;
+    }
+
+    /**
+     * Removes up to count elements from the head of the list. Segments are deleted once all
+     * their elements are removed, so the space is reclaimed in steps of the segment size.
+     *
+     * @param count number of elements to remove
+     * @return this list
+     */
+    public synchronized @NonNull PaperList<E> trim(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count couldn't be negative");
+        }
+        load();
+        final int removed = Math.min(count, size());
+        if (removed == 0) {
+            return this;
+        }
+        long trimmed = (long) mTrimmed + removed;
+        long first = mFirstSegment + trimmed / mSegmentSize;
+        if (first > mLastSegment) {
+            // Everything is trimmed, keep the last segment as the start of the list
+            first = mLastSegment;
+        }
+        trimmed -= (first - mFirstSegment) * mSegmentSize;
+        try {
+            writeManifest(first, (int) trimmed);
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't trim list " + mKey, e);
+        }
+        for (long id = mFirstSegment; id < first; id++) {
+            //noinspection ResultOfMethodCallIgnored
+            segmentFile(id).delete();
+        }
+        mFirstSegment = first;
+        mTrimmed = (int) trimmed;
+        return this;
+    }
+
+    /**
+     * Removes all elements and the files of the list
+     */
+    public synchronized void clear() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDir.delete();
+        mLoaded = false;
+    }
+
+    /**
+     * Forgets the loaded state, e.g. after the book is destroyed
+     */
+    synchronized void invalidate() {
+        mLoaded = false;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        try {
+            long first = -1;
+            int trimmed = 0;
+            final File manifest = new File(mDir, MANIFEST);
+            if (manifest.exists()) {
+                final DataInputStream in = new DataInputStream(new FileInputStream(manifest));
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    if (in.readInt() != MANIFEST_MAGIC) {
+                        throw new IOException("Corrupt list manifest " + manifest);
+                    }
+                    first = in.readLong();
+                    trimmed = in.readInt();
+                } finally {
+                    in.close();
+                }
+            }
+            final long[] ids = segmentIds();
+            long last = ids.length > 0 ? ids[ids.length - 1] : 0;
+            if (first < 0) {
+                first = ids.length > 0 ? ids[0] : 0;
+            }
+            // Segments left by a trim interrupted by a crash
+            for (long id : ids) {
+                if (id < first) {
+                    //noinspection ResultOfMethodCallIgnored
+                    segmentFile(id).delete();
+                }
+            }
+            last = Math.max(first, last);
+            mFirstSegment = first;
+            mLastSegment = last;
+            mTrimmed = trimmed;
+            scanLastSegment();
+            mLoaded = true;
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't load list " + mKey, e);
+        }
+    }
+
+    private long[] segmentIds() {
+        final String[] names = mDir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_EXTENSION);
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+        final long[] ids = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = Long.parseLong(
+                    names[i].substring(0, names[i].length() - SEGMENT_EXTENSION.length()));
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Counts the records of the last segment and cuts off a record torn by a crash
+     */
+    private void scanLastSegment() throws IOException {
+        final File file = segmentFile(mLastSegment);
+        mLastCount = 0;
+        mLastLength = 0;
+        if (!file.exists()) {
+            return;
+        }
+        final byte[] content = readFile(file);
+        final ByteBuffer bytes = ByteBuffer.wrap(content);
+        while (bytes.remaining() >= RECORD_HEADER_SIZE && mLastCount < mSegmentSize) {
+            final int length = bytes.getInt();
+            final int checksum = bytes.getInt();
+            if (length < 0 || length > bytes.remaining()) {
+                break;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(content, bytes.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            bytes.position(bytes.position() + length);
+            mLastCount++;
+            mLastLength = bytes.position();
+        }
+        if (mLastLength < content.length) {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                raf.setLength(mLastLength);
+                raf.getFD().sync();
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private void startSegment() {
+        mLastSegment++;
+        mLastCount = 0;
+        mLastLength = 0;
+    }
+
+    private void appendRecords(List<byte[]> records) throws IOException {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("Couldn't create list dir " + mDir);
+        }
+        final File file = segmentFile(mLastSegment);
+        final boolean created = !file.exists();
+        final FileOutputStream stream = new FileOutputStream(file, true);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            long length = mLastLength;
+            for (byte[] record : records) {
+                stream.write(record);
+                length += record.length;
+            }
+            stream.getFD().sync();
+            mLastLength = length;
+            mLastCount += records.size();
+        } finally {
+            stream.close();
+        }
+        if (created) {
+            FileSync.syncDirectory(mDir);
+        }
+    }
+
+    private void readSegment(Kryo kryo, long segment, int first, int count, List<E> target)
+            throws IOException {
+        final byte[] content = readFile(segmentFile(segment));
+        final ByteBuffer bytes = ByteBuffer.wrap(content);
+        for (int i = 0; i < first + count; i++) {
+            if (bytes.remaining() < RECORD_HEADER_SIZE) {
+                throw new IOException("Segment " + segment + " of list " + mKey
+                        + " is truncated");
+            }
+            final int length = bytes.getInt();
+            bytes.getInt(); // Checked on load of the last segment, full segments are synced
+            if (i >= first) {
+                //noinspection unchecked
+                target.add((E) kryo.readClassAndObject(
+                        new Input(content, bytes.position(), length)));
+            }
+            bytes.position(bytes.position() + length);
+        }
+    }
+
+    private void writeManifest(long firstSegment, int trimmed) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MANIFEST_MAGIC);
+        out.writeLong(firstSegment);
+        out.writeInt(trimmed);
+
+        final File manifest = new File(mDir, MANIFEST);
+        final File temp = new File(mDir, MANIFEST + TEMP_EXTENSION);
+        final FileOutputStream stream = new FileOutputStream(temp);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(manifest)) {
+            throw new IOException("Couldn't rename " + temp + " to " + manifest);
+        }
+        FileSync.syncDirectory(mDir);
+    }
+
+    private File segmentFile(long id) {
+        return new File(mDir, String.format(Locale.US, "%019d", id)
+                + SEGMENT_EXTENSION);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            final byte[] content = new byte[(int) file.length()];
+            in.readFully(content);
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+}
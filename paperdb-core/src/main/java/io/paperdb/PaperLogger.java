@@ -0,0 +1,27 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Receives warnings and errors which Paper recovers from, e.g. a failed save of the key index
+ * or a torn record skipped on load. Logs to android.util.Log on Android and to System.err
+ * elsewhere by default, see {@link PaperStore#setLogger(PaperLogger)}.
+ */
+public interface PaperLogger {
+    /**
+     * Same as android.util.Log.WARN
+     */
+    int WARN = 5;
+    /**
+     * Same as android.util.Log.ERROR
+     */
+    int ERROR = 6;
+
+    /**
+     * @param priority {@link #WARN} or {@link #ERROR}
+     * @param message  what happened
+     * @param error    cause, may be null
+     */
+    void log(int priority, @NonNull String message, @Nullable Throwable error);
+}
@@ -0,0 +1,85 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives timings of the book operations, see {@link BookOptions#metrics(PaperMetrics)}.
+ * {@link HistogramMetrics} aggregates them into latency histograms.
+ * <p>
+ * Called on the thread of the operation once it's completed or failed, after all locks are
+ * released. Must be fast and thread-safe, slow listeners slow down the book. Operations of
+ * {@link StorageEngine#PLAIN_FILE} books are reported.
+ */
+public interface PaperMetrics {
+
+    /**
+     * Kind of the reported operation
+     */
+    enum Operation {
+        /**
+         * {@link PaperStore#read(String)} and the other reads of the value of a key
+         */
+        READ,
+        /**
+         * {@link PaperStore#write(String, Object)}
+         */
+        WRITE,
+        /**
+         * {@link PaperStore#delete(String)}
+         */
+        DELETE,
+        /**
+         * {@link PaperStore#writeAll(java.util.Map)} and
+         * {@link PaperStore#deleteAll(java.util.Collection)}
+         */
+        BATCH,
+        /**
+         * {@link PaperStore#contains(String)}
+         */
+        EXISTS,
+        /**
+         * {@link PaperStore#getAllKeys()}
+         */
+        GET_ALL_KEYS,
+        /**
+         * {@link PaperStore#destroy()}
+         */
+        DESTROY
+    }
+
+    /**
+     * Part of an operation, see {@link OperationMetrics#phaseNanos(Phase)}
+     */
+    enum Phase {
+        /**
+         * Waiting for the key lock, or for the lock of the whole book
+         */
+        LOCK_WAIT,
+        /**
+         * Serializing, and compressing if enabled, the written values
+         */
+        SERIALIZE,
+        /**
+         * Writing the files and deleting the deleted ones
+         */
+        WRITE,
+        /**
+         * Syncing the written files and the book folder to disk
+         */
+        FSYNC,
+        /**
+         * Renaming the files to replace the previous values
+         */
+        RENAME,
+        /**
+         * Reading or mapping the files and listing the book folder
+         */
+        READ,
+        /**
+         * Deserializing, and decompressing if needed, the read value
+         */
+        DESERIALIZE
+    }
+
+    void onOperation(@NonNull OperationMetrics metrics);
+}
@@ -0,0 +1,567 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Book storage without Android dependencies, for use on a plain JVM. On Android use
+ * {@code Paper.book()}, which returns a {@code Book} extending this class.
+ */
+@SuppressWarnings({"WeakerAccess", "SameParameterValue"})
+public class PaperStore {
+
+    private final DbStorage mStorage;
+    private final WarmUpStorage mWarmUp;
+    private final KryoPool.Holder mListKryo;
+    private final ConcurrentHashMap<String, PaperList<?>> mLists = new ConcurrentHashMap<>();
+    private final int mIoThreads;
+    private final int mIoQueueCapacity;
+    private volatile IoExecutor mIoExecutor;
+
+    /**
+     * @param dbPath      folder to keep the book folder in
+     * @param dbName      name of the book folder
+     * @param serializers custom serializers of the classes, may be empty
+     */
+    public PaperStore(String dbPath, String dbName, HashMap<Class, Serializer> serializers) {
+        this(dbPath, dbName, serializers, new BookOptions());
+    }
+
+    public PaperStore(String dbPath, String dbName, HashMap<Class, Serializer> serializers,
+                      BookOptions options) {
+        DbStorage storage;
+        if (options.mStorageEngine == StorageEngine.APPEND_LOG) {
+            storage = new DbStorageAppendLog(dbPath, dbName, serializers, options);
+        } else {
+            storage = new DbStoragePlainFile(dbPath, dbName, serializers, options);
+        }
+        // Below write coalescing, so pending changes still take precedence over preloaded values
+        mWarmUp = new WarmUpStorage(storage, options.mWarmUpKeys);
+        storage = mWarmUp;
+        if (options.mWriteBehind) {
+            storage = new WriteBehindStorage(storage, options.mWriteBehindDelayMillis,
+                    serializers);
+        } else if (options.mCoalesceWrites) {
+            storage = new CoalescingStorage(storage, options.mDebounceMillis,
+                    options.mMaxWaitMillis, serializers);
+        }
+        mStorage = storage;
+        mListKryo = new KryoPool.Holder(serializers);
+        mIoThreads = options.mIoThreads;
+        mIoQueueCapacity = options.mIoQueueCapacity;
+    }
+
+    /**
+     * Destroys all data saved in Book.
+     */
+    public void destroy() {
+        mStorage.destroy();
+        for (PaperList<?> list : mLists.values()) {
+            list.invalidate();
+        }
+    }
+
+    /**
+     * Waits for the async operations, then saves the changes kept in memory and releases
+     * the files of the book, so it can be opened by another instance. The book must not be
+     * used after that.
+     */
+    void close() {
+        final IoExecutor ioExecutor = mIoExecutor;
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+        }
+        mStorage.close();
+    }
+
+    /**
+     * Saves any types of POJOs or collections in Book storage.
+     *
+     * @param key   object key is used as part of object's file name
+     * @param value object to save, must have no-arg constructor, can't be null.
+     * @param <T>   object type
+     * @return this instance
+     */
+    public @NonNull <T> PaperStore write(@NonNull String key, @NonNull T value) {
+        if (value == null) {
+            throw new PaperDbException("Paper doesn't support writing null root values");
+        } else {
+            mStorage.insert(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Saves all the given objects at once. Values are serialized in parallel and made durable
+     * together, which is much faster than writing them one by one. The batch is atomic with
+     * respect to crashes: after restart either all values are saved or none of them.
+     *
+     * @param values objects to save by their keys, values can't be null.
+     * @return this instance
+     */
+    public @NonNull PaperStore writeAll(@NonNull Map<String, ?> values) {
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new PaperDbException("Paper doesn't support writing null root values");
+            }
+        }
+        mStorage.insertAll(values);
+        return this;
+    }
+
+    /**
+     * Instantiates saved object using original object class (e.g. LinkedList). Support limited
+     * backward and forward compatibility: removed fields are ignored, new fields have their
+     * default values.
+     * <p/>
+     * All instantiated objects must have no-arg constructors.
+     *
+     * @param key object key to read
+     * @return the saved object instance or null
+     */
+    public @Nullable <T> T read(@NonNull String key) {
+        return read(key, null);
+    }
+
+    /**
+     * Instantiates saved object using original object class (e.g. LinkedList). Support limited
+     * backward and forward compatibility: removed fields are ignored, new fields have their
+     * default values.
+     * <p/>
+     * All instantiated objects must have no-arg constructors.
+     *
+     * @param key          object key to read
+     * @param defaultValue will be returned if key doesn't exist
+     * @return the saved object instance or null
+     */
+    public @Nullable <T> T read(@NonNull String key, @Nullable T defaultValue) {
+        T value = mStorage.select(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Reads the elements of the saved collection one at a time, e.g. to show the first page
+     * of a large list without reading all of it. Only the current element is kept in memory.
+     * The iterator sees the collection as it was when this method was called.
+     * <p/>
+     * Close the iterator if it's not read to the end, it keeps the file open. Collections
+     * written by older versions of Paper and collections with custom serializers are read
+     * as a whole.
+     *
+     * @param key object key to read
+     * @return iterator over the elements, empty if the key doesn't exist
+     * @throws PaperDbException if the saved object is not a collection
+     */
+    public @NonNull <T> PaperIterator<T> readIterator(@NonNull String key) {
+        return mStorage.selectIterator(key);
+    }
+
+    /**
+     * Reads up to n first elements of the saved collection, the rest of the collection
+     * is not read. See {@link #readIterator(String)}.
+     *
+     * @param key object key to read
+     * @param n   maximum number of elements to read
+     * @return first elements of the collection, empty if the key doesn't exist
+     * @throws PaperDbException if the saved object is not a collection
+     */
+    public @NonNull <T> List<T> readFirst(@NonNull String key, int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Number of elements couldn't be negative");
+        }
+        final List<T> elements = new ArrayList<>(Math.min(n, 256));
+        final PaperIterator<T> iterator = mStorage.selectIterator(key);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (elements.size() < n && iterator.hasNext()) {
+                elements.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+        return elements;
+    }
+
+    /**
+     * Returns the list stored in segment files under the key. Appending to the list and
+     * reading its elements by index only touch the segments involved, which suits large
+     * and growing lists like event logs. See {@link PaperList}.
+     * <p/>
+     * Lists are separate from the values saved by {@link #write(String, Object)}, the same key
+     * may be used for both.
+     *
+     * @param key list key, used as part of the list folder name
+     * @return the list, empty if nothing was appended yet
+     */
+    public @NonNull <T> PaperList<T> list(@NonNull String key) {
+        PaperList<?> list = mLists.get(key);
+        if (list == null) {
+            list = new PaperList<>(mStorage.getRootFolderPath(), key, mListKryo,
+                    PaperList.DEFAULT_SEGMENT_SIZE);
+            final PaperList<?> existing = mLists.putIfAbsent(key, list);
+            if (existing != null) {
+                list = existing;
+            }
+        }
+        //noinspection unchecked
+        return (PaperList<T>) list;
+    }
+
+    /**
+     * Appends the element to the list under the key, see {@link #list(String)}.
+     *
+     * @param key     list key
+     * @param element element to append, can't be null
+     * @return this instance
+     */
+    public @NonNull <T> PaperStore append(@NonNull String key, @NonNull T element) {
+        this.<T>list(key).append(element);
+        return this;
+    }
+
+    /**
+     * Checks if an object with the given key is saved in Book storage.
+     *
+     * @param key object key
+     * @return true if Book storage contains an object with given key, false otherwise
+     */
+    public boolean contains(@NonNull String key) {
+        return mStorage.exists(key);
+    }
+
+    /**
+     * Checks if an object with the given key is saved in Book storage.
+     *
+     * @param key object key
+     * @return true if object with given key exists in Book storage, false otherwise
+     * @deprecated As of release 2.6, replaced by {@link #contains(String)}}
+     */
+    public boolean exist(@NonNull String key) {
+        return mStorage.exists(key);
+    }
+
+    /**
+     * Returns lastModified timestamp of last write in ms.
+     * NOTE: only granularity in seconds is guaranteed. Some file systems keep
+     * file modification time only in seconds.
+     *
+     * @param key object key
+     * @return timestamp of last write for given key in ms if it exists, otherwise -1
+     */
+    public long lastModified(@NonNull String key) {
+        return mStorage.lastModified(key);
+    }
+
+    /**
+     * Delete saved object for given key if it is exist.
+     *
+     * @param key object key
+     */
+    public void delete(@NonNull String key) {
+        mStorage.deleteIfExists(key);
+    }
+
+    /**
+     * Deletes saved objects for all the given keys at once. The batch is atomic with respect
+     * to crashes: after restart either all objects are deleted or none of them.
+     *
+     * @param keys object keys, not existing keys are ignored
+     */
+    public void deleteAll(@NonNull Collection<String> keys) {
+        mStorage.deleteAll(keys);
+    }
+
+    /**
+     * Asynchronous version of {@link #write(String, Object)}. Writes of the same key are
+     * completed in the order of submission. Blocks while the I/O queue of the book is full,
+     * see {@link BookOptions#ioExecutor(int, int)}.
+     *
+     * @param key   object key is used as part of object's file name
+     * @param value object to save, must have no-arg constructor, can't be null.
+     * @param <T>   object type
+     * @return future completed once the object is saved
+     */
+    public @NonNull <T> PaperFuture<Void> writeAsync(@NonNull final String key,
+                                                     @NonNull final T value) {
+        if (value == null) {
+            throw new PaperDbException("Paper doesn't support writing null root values");
+        }
+        return submit(key, new Callable<Void>() {
+            @Override
+            public Void call() {
+                mStorage.insert(key, value);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #read(String)}. The read sees all writes of the same key
+     * submitted with {@link #writeAsync(String, Object)} before.
+     *
+     * @param key object key to read
+     * @return future with the saved object instance or null
+     */
+    public @NonNull <T> PaperFuture<T> readAsync(@NonNull String key) {
+        return readAsync(key, null);
+    }
+
+    /**
+     * Asynchronous version of {@link #read(String, Object)}. The read sees all writes of
+     * the same key submitted with {@link #writeAsync(String, Object)} before.
+     *
+     * @param key          object key to read
+     * @param defaultValue will be returned if key doesn't exist
+     * @return future with the saved object instance or the default value
+     */
+    public @NonNull <T> PaperFuture<T> readAsync(@NonNull final String key,
+                                                 @Nullable final T defaultValue) {
+        return submit(key, new Callable<T>() {
+            @Override
+            public T call() {
+                return read(key, defaultValue);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(String)}.
+     *
+     * @param key object key
+     * @return future completed once the object is deleted
+     */
+    public @NonNull PaperFuture<Void> deleteAsync(@NonNull final String key) {
+        return submit(key, new Callable<Void>() {
+            @Override
+            public Void call() {
+                mStorage.deleteIfExists(key);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #getAllKeys()}. The result reflects all asynchronous
+     * operations submitted before.
+     *
+     * @return future with all keys
+     */
+    public @NonNull PaperFuture<List<String>> getAllKeysAsync() {
+        final PaperFuture<List<String>> future = new PaperFuture<>(new Callable<List<String>>() {
+            @Override
+            public List<String> call() {
+                return mStorage.getAllKeys();
+            }
+        });
+        getIoExecutor().executeAfterAll(future);
+        return future;
+    }
+
+    private <T> PaperFuture<T> submit(String key, Callable<T> callable) {
+        final PaperFuture<T> future = new PaperFuture<>(callable);
+        getIoExecutor().execute(key, future);
+        return future;
+    }
+
+    private IoExecutor getIoExecutor() {
+        if (mIoExecutor == null) {
+            synchronized (this) {
+                if (mIoExecutor == null) {
+                    mIoExecutor = new IoExecutor("paperdb-io", mIoThreads, mIoQueueCapacity);
+                }
+            }
+        }
+        return mIoExecutor;
+    }
+
+    /**
+     * Starts reading the values of the keys into memory in background, e.g. when a screen
+     * which is about to read them is opened. The first read of each key gets the preloaded
+     * value, or waits for the preload if it's in progress instead of reading the file once
+     * more. Preloaded values which aren't read within a minute are dropped.
+     *
+     * @param keys keys to preload
+     * @return this instance
+     */
+    public @NonNull PaperStore prefetch(@NonNull Collection<String> keys) {
+        mWarmUp.prefetch(keys);
+        return this;
+    }
+
+    /**
+     * Saves all changes kept in memory by write coalescing or write-behind mode right away,
+     * see {@link BookOptions#coalesceWrites(long)} and {@link BookOptions#writeBehind(long)}.
+     * Does nothing if both are disabled.
+     */
+    public void flush() {
+        if (mStorage instanceof CoalescingStorage) {
+            ((CoalescingStorage) mStorage).flush();
+        } else if (mStorage instanceof WriteBehindStorage) {
+            ((WriteBehindStorage) mStorage).flush();
+        }
+    }
+
+    /**
+     * Syncs all values written to the book so far to the storage device, so they survive
+     * a power loss. Changes kept in memory by write coalescing or write-behind mode are saved
+     * first. Needed only for books with {@link Durability#SYNC_PERIODIC},
+     * {@link Durability#SYNC_NONE} or write-behind mode, see
+     * {@link BookOptions#durability(Durability)}.
+     */
+    public void sync() {
+        mStorage.sync();
+    }
+
+    /**
+     * Returns all keys for objects in book.
+     *
+     * @return all keys
+     */
+    public @NonNull List<String> getAllKeys() {
+        return mStorage.getAllKeys();
+    }
+
+    /**
+     * Returns keys starting with the given prefix, e.g. "user:123:", sorted in ascending
+     * {@link String#compareTo(String)} order. Keys are iterated lazily, so only the matching
+     * keys are visited if the book keeps its keys sorted in memory: always for
+     * {@link StorageEngine#APPEND_LOG}, and with {@link BookOptions#keyIndex(boolean)} for
+     * {@link StorageEngine#PLAIN_FILE}. Otherwise all keys are listed first.
+     * <p>
+     * Iteration never fails on concurrent changes, but may or may not reflect them.
+     *
+     * @param prefix key prefix, empty string for all keys
+     * @return sorted keys with the given prefix
+     */
+    public @NonNull Iterable<String> keys(@NonNull String prefix) {
+        return keys(prefix, KeyRanges.prefixEnd(prefix));
+    }
+
+    /**
+     * Returns keys in the given range sorted in ascending {@link String#compareTo(String)} order.
+     * See {@link #keys(String)} for the cost of iteration.
+     *
+     * @param fromInclusive lowest key of the range
+     * @param toExclusive   key above the range, null for no upper bound
+     * @return sorted keys in range
+     */
+    public @NonNull Iterable<String> keys(@NonNull final String fromInclusive,
+                                          @Nullable final String toExclusive) {
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return mStorage.keys(fromInclusive, toExclusive);
+            }
+        };
+    }
+
+    /**
+     * Returns a page of keys starting with the given prefix, sorted in ascending
+     * {@link String#compareTo(String)} order. Pass {@link KeyPage#nextCursor()} to get
+     * the next page. Keys written or deleted between the calls may or may not be visible
+     * in later pages. See {@link #keys(String)} for the cost of iteration.
+     *
+     * @param prefix key prefix, empty string for all keys
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param limit  maximum number of keys in the page
+     * @return page of sorted keys with the given prefix
+     */
+    public @NonNull KeyPage keys(@NonNull String prefix, @Nullable String cursor, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive");
+        }
+        String from = prefix;
+        if (cursor != null && cursor.compareTo(prefix) >= 0) {
+            // Cursor is the last key of the previous page
+            from = KeyRanges.successor(cursor);
+        }
+        final Iterator<String> iterator = mStorage.keys(from, KeyRanges.prefixEnd(prefix));
+        final List<String> keys = new ArrayList<>();
+        while (keys.size() < limit && iterator.hasNext()) {
+            keys.add(iterator.next());
+        }
+        final String nextCursor = iterator.hasNext() ? keys.get(keys.size() - 1) : null;
+        return new KeyPage(Collections.unmodifiableList(keys), nextCursor);
+    }
+
+    /**
+     * Returns counters of the book's value cache.
+     * See {@link BookOptions#cache(long, CachePolicy)}.
+     *
+     * @return snapshot of cache counters, all zeros if the cache is disabled
+     */
+    public @NonNull CacheStats getCacheStats() {
+        return mStorage.getCacheStats();
+    }
+
+    /**
+     * Sets log level for internal Kryo serializer
+     *
+     * @param level one of levels from {@link com.esotericsoftware.minlog.Log }
+     */
+    public void setLogLevel(int level) {
+        mStorage.setLogLevel(level);
+    }
+
+    /**
+     * Sets the logger for warnings and errors of all books. By default they are logged to
+     * android.util.Log on Android and to System.err elsewhere.
+     *
+     * @param logger logger to use, null to restore the default one
+     */
+    public static void setLogger(@Nullable PaperLogger logger) {
+        Platform.setLogger(logger);
+    }
+
+    /**
+     * Sets the tracer which wraps operations of all books into sections of a system trace.
+     * By default sections are written to android.os.Trace on Android API 29+ while the app is
+     * traced and nothing is traced elsewhere.
+     *
+     * @param tracer tracer to use, null to restore the default one
+     */
+    public static void setTracer(@Nullable PaperTracer tracer) {
+        Platform.setTracer(tracer);
+    }
+
+    /**
+     * Returns path to a folder containing *.pt files for all keys kept
+     * in the current Book. Could be handy for Book export/import purposes.
+     * The returned path does not exist if the method has been called prior
+     * saving any data in the current Book.
+     * <p>
+     * See also {@link #getPath(String)}.
+     *
+     * @return path to a folder locating data files for the current Book
+     */
+    public @NonNull String getPath() {
+        return mStorage.getRootFolderPath();
+    }
+
+    /**
+     * Returns path to a *.pt file containing saved object for a given key.
+     * Could be handy for object export/import purposes.
+     * The returned path does not exist if the method has been called prior
+     * saving data for the given key.
+     * <p>
+     * See also {@link #getPath()}.
+     *
+     * @param key object key
+     * @return path to a *.pt file containing saved object for a given key.
+     */
+    public @NonNull String getPath(@NonNull String key) {
+        return mStorage.getOriginalFilePath(key);
+    }
+}
@@ -0,0 +1,39 @@
+package io.paperdb;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Wraps the operations of {@link StorageEngine#PLAIN_FILE} books and their phases into named
+ * sections of a system trace, so the time spent in Paper can be attributed to a key and
+ * a phase. Each operation is an outer section with a section per
+ * {@link PaperMetrics.Phase} nested in it.
+ * <p>
+ * On Android API 29+ sections are written to android.os.Trace while the app is traced, see
+ * AndroidTracer. Nothing is traced on a plain JVM by default, paperdb-jfr maps sections to
+ * JFR events. See {@link PaperStore#setTracer(PaperTracer)}.
+ * <p>
+ * Sections are begun and ended on the thread of the operation and are properly nested, like
+ * the sections of android.os.Trace. Sections of failed operations are ended too.
+ */
+public interface PaperTracer {
+
+    /**
+     * Called once at the start of each operation, nothing is traced for the operation if it
+     * returns false. Must be cheap as it's called even if no trace is being recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param operation traced operation
+     * @param phase     phase of the operation, null for the section of the whole operation
+     * @param key       key of the operation, null for operations on many keys
+     */
+    void beginSection(@NonNull PaperMetrics.Operation operation,
+                      @Nullable PaperMetrics.Phase phase, @Nullable String key);
+
+    /**
+     * Ends the innermost section begun on the current thread
+     */
+    void endSection();
+}
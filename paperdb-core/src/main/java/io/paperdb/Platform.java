@@ -0,0 +1,96 @@
+package io.paperdb;
+
+import java.io.File;
+
+/**
+ * Services of the storage engines which differ between Android and a plain JVM: logging,
+ * tracing and syncing of directories. Android implementation lives in the Android module and
+ * is used if it's there, {@link JvmPlatform} otherwise.
+ */
+abstract class Platform implements PaperLogger {
+    // Not referenced directly, the core doesn't depend on Android
+    private static final String ANDROID_PLATFORM = "io.paperdb.AndroidPlatform";
+
+    private static volatile Platform sPlatform;
+    private static volatile PaperLogger sLogger;
+    private static volatile PaperTracer sTracer;
+
+    static Platform get() {
+        if (sPlatform == null) {
+            synchronized (Platform.class) {
+                if (sPlatform == null) {
+                    sPlatform = create();
+                }
+            }
+        }
+        return sPlatform;
+    }
+
+    private static Platform create() {
+        try {
+            return (Platform) Class.forName(ANDROID_PLATFORM).getDeclaredConstructor()
+                    .newInstance();
+        } catch (ClassNotFoundException e) {
+            return new JvmPlatform();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't create " + ANDROID_PLATFORM, e);
+        }
+    }
+
+    /**
+     * @param logger replaces the logger of the platform, null to restore it
+     */
+    static void setLogger(PaperLogger logger) {
+        sLogger = logger;
+    }
+
+    /**
+     * @param tracer replaces the tracer of the platform, null to restore it
+     */
+    static void setTracer(PaperTracer tracer) {
+        sTracer = tracer;
+    }
+
+    /**
+     * @return tracer to use, null if nothing is traced
+     */
+    static PaperTracer tracer() {
+        final PaperTracer tracer = sTracer;
+        return tracer != null ? tracer : get().defaultTracer();
+    }
+
+    private static void dispatch(int priority, String message, Throwable error) {
+        PaperLogger logger = sLogger;
+        if (logger == null) {
+            logger = get();
+        }
+        logger.log(priority, message, error);
+    }
+
+    static void warn(String message) {
+        dispatch(WARN, message, null);
+    }
+
+    static void warn(String message, Throwable error) {
+        dispatch(WARN, message, error);
+    }
+
+    static void error(String message) {
+        dispatch(ERROR, message, null);
+    }
+
+    static void error(String message, Throwable error) {
+        dispatch(ERROR, message, error);
+    }
+
+    /**
+     * @return tracer used unless replaced, null if there is none
+     */
+    abstract PaperTracer defaultTracer();
+
+    /**
+     * Makes created, renamed and deleted directory entries durable, see
+     * {@link FileSync#syncDirectory(File)}.
+     */
+    abstract void syncDirectory(File directory);
+}
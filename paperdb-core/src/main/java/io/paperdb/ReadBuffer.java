@@ -0,0 +1,61 @@
+package io.paperdb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reusable buffers for the read path: the target of the file read and the chunk of the
+ * decompressed bytes. Buffers are pooled process-wide instead of per thread, so idle
+ * threads don't pin them and short-lived threads don't allocate them again.
+ * <p>
+ * At most {@link #MAX_IDLE} buffers are kept, buffers grown above {@link #MAX_RETAINED_SIZE}
+ * are left to the GC. Larger files are memory mapped anyway.
+ */
+final class ReadBuffer {
+    static final int MAX_IDLE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    static final int MAX_RETAINED_SIZE = 256 * 1024;
+    static final int MIN_SIZE = 4 * 1024;
+
+    private static final ArrayBlockingQueue<ReadBuffer> sIdle =
+            new ArrayBlockingQueue<>(MAX_IDLE);
+
+    private byte[] mBytes = new byte[MIN_SIZE];
+    private byte[] mInflateBytes; // null until the first compressed file
+
+    private ReadBuffer() {
+    }
+
+    /**
+     * Takes an idle buffer or creates a new one. Must be returned with {@link #recycle()}
+     * once nothing refers to its bytes.
+     */
+    static ReadBuffer obtain() {
+        final ReadBuffer buffer = sIdle.poll();
+        return buffer != null ? buffer : new ReadBuffer();
+    }
+
+    void recycle() {
+        if (mBytes.length <= MAX_RETAINED_SIZE) {
+            sIdle.offer(this);
+        }
+    }
+
+    /**
+     * @return buffer of at least the given size, contents are undefined
+     */
+    byte[] bytes(int size) {
+        if (mBytes.length < size) {
+            mBytes = new byte[Math.max(MIN_SIZE, Integer.highestOneBit(size - 1) << 1)];
+        }
+        return mBytes;
+    }
+
+    /**
+     * @return buffer for the decompressed bytes, separate from {@link #bytes(int)}
+     */
+    byte[] inflateBytes() {
+        if (mInflateBytes == null) {
+            mInflateBytes = new byte[MIN_SIZE];
+        }
+        return mInflateBytes;
+    }
+}
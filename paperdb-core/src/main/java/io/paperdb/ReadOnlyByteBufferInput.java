@@ -0,0 +1,67 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kryo input over a read-only buffer, e.g. memory mapped file.
+ * <p>
+ * {@link ByteBufferInput} temporarily patches the buffer while reading ascii strings, which
+ * fails for read-only buffers. This input reads such strings without modifying the buffer.
+ */
+class ReadOnlyByteBufferInput extends ByteBufferInput {
+
+    ReadOnlyByteBufferInput(ByteBuffer buffer) {
+        super(buffer);
+    }
+
+    @Override
+    public String readString() {
+        if (nextIsAscii()) {
+            return readAscii();
+        }
+        return super.readString();
+    }
+
+    @Override
+    public StringBuilder readStringBuilder() {
+        if (nextIsAscii()) {
+            return new StringBuilder(readAscii());
+        }
+        return super.readStringBuilder();
+    }
+
+    private boolean nextIsAscii() {
+        require(1);
+        return (niobuffer.get(position) & 0x80) == 0;
+    }
+
+    /**
+     * Ascii string is stored as is, the last char is marked with the high bit.
+     */
+    private String readAscii() {
+        final int start = position;
+        int end = start;
+        int b;
+        do {
+            if (end == limit) {
+                throw new KryoException("Buffer underflow.");
+            }
+            b = niobuffer.get(end++);
+        } while ((b & 0x80) == 0);
+
+        final int length = end - start;
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        for (int i = 0; i < length - 1; i++) {
+            chars[i] = (char) niobuffer.get(start + i);
+        }
+        chars[length - 1] = (char) (b & 0x7F);
+        position = end;
+        niobuffer.position(end);
+        return new String(chars, 0, length);
+    }
+}
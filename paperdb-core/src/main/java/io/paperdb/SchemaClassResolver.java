@@ -0,0 +1,67 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+
+import java.io.IOException;
+
+/**
+ * Writes unregistered classes as ids of the {@link SchemaDictionary} while the dictionary is
+ * set with {@link #use(Kryo, SchemaDictionary)}, behaves as {@link DefaultClassResolver}
+ * otherwise. Fields of such classes are written by {@link SchemaFieldSerializer}, which takes
+ * the dictionary from here.
+ */
+final class SchemaClassResolver extends DefaultClassResolver {
+    private SchemaDictionary mDictionary;
+    // Elements of collections are usually of the same class
+    private Class mLastType;
+    private int mLastId;
+
+    /**
+     * Sets the dictionary for the values written and read until the next call
+     *
+     * @param dictionary dictionary of the book, null for the format without the dictionary
+     */
+    static void use(Kryo kryo, SchemaDictionary dictionary) {
+        final SchemaClassResolver resolver = (SchemaClassResolver) kryo.getClassResolver();
+        resolver.mDictionary = dictionary;
+        resolver.mLastType = null;
+    }
+
+    static SchemaDictionary dictionary(Kryo kryo) {
+        return ((SchemaClassResolver) kryo.getClassResolver()).mDictionary;
+    }
+
+    @Override
+    protected void writeName(Output output, Class type, Registration registration) {
+        if (mDictionary == null) {
+            super.writeName(output, type, registration);
+            return;
+        }
+        if (type != mLastType) {
+            mLastId = mDictionary.classId(type);
+            mLastType = type;
+        }
+        output.writeVarInt(NAME + 2, true);
+        output.writeVarInt(mLastId, true);
+    }
+
+    @Override
+    protected Registration readName(Input input) {
+        if (mDictionary == null) {
+            return super.readName(input);
+        }
+        final int id = input.readVarInt(true);
+        try {
+            return kryo.getRegistration(mDictionary.type(id, kryo.getClassLoader()));
+        } catch (IOException e) {
+            throw new KryoException(e);
+        } catch (ClassNotFoundException e) {
+            throw new KryoException("Unable to find class with id " + id, e);
+        }
+    }
+}
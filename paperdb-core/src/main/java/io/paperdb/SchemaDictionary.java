@@ -0,0 +1,342 @@
+package io.paperdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Book-level dictionary of class names and field layouts, see
+ * {@link BookOptions#schemaDictionary(boolean)}. Table files of {@link TableFile#VERSION_DICTIONARY}
+ * refer to classes and field layouts by the ids assigned here instead of repeating the names
+ * in every file.
+ * <p>
+ * Ids are only ever added and never change, so files written with any state of the
+ * dictionary stay readable. The file is a sequence of records: length | crc32 | entry.
+ * New entries are assigned in memory while values are serialized and must be saved with
+ * {@link #flush()} before the files referring to them are written.
+ * <p>
+ * One instance is shared by all storages of the same book folder, so ids are never assigned
+ * twice. All methods are thread-safe.
+ */
+final class SchemaDictionary {
+    static final String FILE_NAME = "schema.dict";
+
+    private static final int KIND_CLASS = 1;
+    private static final int KIND_FIELDS = 2;
+    // length + crc32
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final ConcurrentHashMap<String, SchemaDictionary> sDictionaries =
+            new ConcurrentHashMap<>();
+
+    private final File mFile;
+
+    // Lookups of the writes, entries are added under the lock and only after they are recorded
+    private final ConcurrentHashMap<Class, Integer> mClassIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> mClassIdsByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<List<String>, Integer> mFieldsIds = new ConcurrentHashMap<>();
+
+    // Lookups of the reads by id, replaced on every addition
+    private volatile String[] mClassNames = new String[0];
+    private volatile Class[] mClasses = new Class[0];
+    private volatile String[][] mFields = new String[0][];
+
+    private volatile boolean mLoaded;
+    private volatile boolean mDirty;
+    // Serialized entries in the order of ids, all of them are rewritten once the file is lost
+    private final List<byte[]> mRecords = new ArrayList<>();
+    private int mSavedCount;
+
+    SchemaDictionary(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @param dbPath path of the book folder
+     */
+    static SchemaDictionary forBook(String dbPath) {
+        SchemaDictionary dictionary = sDictionaries.get(dbPath);
+        if (dictionary == null) {
+            dictionary = new SchemaDictionary(new File(dbPath, FILE_NAME));
+            final SchemaDictionary existing = sDictionaries.putIfAbsent(dbPath, dictionary);
+            if (existing != null) {
+                dictionary = existing;
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * @return id of the class, assigns a new one for a class seen the first time
+     */
+    int classId(Class type) {
+        final Integer id = mClassIds.get(type);
+        if (id != null) {
+            return id;
+        }
+        assertLoaded();
+        synchronized (this) {
+            Integer byName = mClassIdsByName.get(type.getName());
+            if (byName == null) {
+                byName = mClassNames.length;
+                addRecord(KIND_CLASS, Arrays.asList(type.getName()));
+                mClassNames = append(mClassNames, type.getName());
+                mClasses = Arrays.copyOf(mClasses, byName + 1);
+                mClassIdsByName.put(type.getName(), byName);
+            }
+            mClassIds.put(type, byName);
+            return byName;
+        }
+    }
+
+    /**
+     * @param fieldNames names of the serialized fields in the order they are written
+     * @return id of the field layout, assigns a new one for a layout seen the first time
+     */
+    int fieldsId(String[] fieldNames) {
+        final List<String> key = Arrays.asList(fieldNames);
+        final Integer id = mFieldsIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        assertLoaded();
+        synchronized (this) {
+            Integer existing = mFieldsIds.get(key);
+            if (existing == null) {
+                existing = mFields.length;
+                addRecord(KIND_FIELDS, key);
+                final String[][] fields = Arrays.copyOf(mFields, existing + 1);
+                fields[existing] = fieldNames.clone();
+                mFields = fields;
+                mFieldsIds.put(new ArrayList<>(key), existing);
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * Resolves the class once, later lookups of the id don't touch the class loader
+     *
+     * @throws IOException if the id isn't known, i.e. the dictionary file is lost
+     */
+    Class type(int id, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        final Class[] classes = mClasses;
+        if (id >= 0 && id < classes.length && classes[id] != null) {
+            return classes[id];
+        }
+        assertLoaded();
+        final String[] names = mClassNames;
+        if (id < 0 || id >= names.length) {
+            throw new IOException("Unknown class id " + id + " in " + mFile);
+        }
+        Class type;
+        try {
+            type = Class.forName(names[id], false, classLoader);
+        } catch (ClassNotFoundException e) {
+            // Same fallback as Kryo's DefaultClassResolver
+            type = Class.forName(names[id]);
+        }
+        synchronized (this) {
+            // Array may be replaced by the addition, store into the latest one
+            mClasses[id] = type;
+        }
+        return type;
+    }
+
+    /**
+     * @return field names of the layout, the same instance for all lookups of the id
+     * @throws IOException if the id isn't known, i.e. the dictionary file is lost
+     */
+    String[] fieldNames(int id) throws IOException {
+        String[][] fields = mFields;
+        if (id >= fields.length) {
+            assertLoaded();
+            fields = mFields;
+        }
+        if (id < 0 || id >= fields.length) {
+            throw new IOException("Unknown field layout id " + id + " in " + mFile);
+        }
+        return fields[id];
+    }
+
+    /**
+     * Saves the entries added since the last call. Must be called after the value is
+     * serialized and before the file with the value is written.
+     */
+    void flush() {
+        if (!mDirty) {
+            return;
+        }
+        synchronized (this) {
+            if (mSavedCount == mRecords.size()) {
+                mDirty = false;
+                return;
+            }
+            try {
+                final File dir = mFile.getParentFile();
+                if (!dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("Couldn't create Paper dir " + dir);
+                }
+                final boolean created = mSavedCount == 0;
+                final FileOutputStream stream = new FileOutputStream(mFile, !created);
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    for (int i = mSavedCount; i < mRecords.size(); i++) {
+                        bytes.write(mRecords.get(i));
+                    }
+                    bytes.writeTo(stream);
+                    stream.getFD().sync();
+                } finally {
+                    stream.close();
+                }
+                if (created) {
+                    FileSync.syncDirectory(dir);
+                }
+                mSavedCount = mRecords.size();
+                mDirty = false;
+            } catch (IOException e) {
+                throw new PaperDbException("Couldn't save schema dictionary " + mFile, e);
+            }
+        }
+    }
+
+    /**
+     * The file is deleted along with the book folder. Ids stay assigned, as values serialized
+     * concurrently may refer to them, all entries are saved again by the next {@link #flush()}.
+     */
+    synchronized void onBookDestroyed() {
+        mSavedCount = 0;
+        mDirty = !mRecords.isEmpty();
+    }
+
+    private void addRecord(int kind, List<String> names) {
+        try {
+            final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(entry);
+            out.writeByte(kind);
+            out.writeInt(names.size());
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(entry.toByteArray());
+            final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + entry.size());
+            record.putInt(entry.size());
+            record.putInt((int) crc.getValue());
+            record.put(entry.toByteArray());
+            mRecords.add(record.array());
+            mDirty = true;
+        } catch (IOException e) {
+            // Not thrown by in-memory streams
+            throw new PaperDbException("Couldn't serialize schema entry " + names, e);
+        }
+    }
+
+    private void assertLoaded() {
+        if (!mLoaded) {
+            synchronized (this) {
+                if (!mLoaded) {
+                    load();
+                    mLoaded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the saved entries and cuts off a record torn by a crash. Such a record was never
+     * referred to, files are written only after the entries they use are saved.
+     */
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            final byte[] content = readFile(mFile);
+            final ByteBuffer bytes = ByteBuffer.wrap(content);
+            int validLength = 0;
+            while (bytes.remaining() >= RECORD_HEADER_SIZE) {
+                final int length = bytes.getInt();
+                final int checksum = bytes.getInt();
+                if (length < 0 || length > bytes.remaining()) {
+                    break;
+                }
+                final CRC32 crc = new CRC32();
+                crc.update(content, bytes.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                loadEntry(new DataInputStream(new ByteArrayInputStream(
+                        content, bytes.position(), length)));
+                mRecords.add(Arrays.copyOfRange(content, validLength,
+                        bytes.position() + length));
+                bytes.position(bytes.position() + length);
+                validLength = bytes.position();
+            }
+            mSavedCount = mRecords.size();
+            if (validLength < content.length) {
+                final RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+                //noinspection TryFinallyCanBeTryWithResources
+                try {
+                    raf.setLength(validLength);
+                    raf.getFD().sync();
+                } finally {
+                    raf.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't load schema dictionary " + mFile, e);
+        }
+    }
+
+    private void loadEntry(DataInputStream in) throws IOException {
+        final int kind = in.readByte();
+        final String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        if (kind == KIND_CLASS) {
+            mClassIdsByName.put(names[0], mClassNames.length);
+            mClassNames = append(mClassNames, names[0]);
+            mClasses = Arrays.copyOf(mClasses, mClassNames.length);
+        } else if (kind == KIND_FIELDS) {
+            mFieldsIds.put(Arrays.asList(names), mFields.length);
+            final String[][] fields = Arrays.copyOf(mFields, mFields.length + 1);
+            fields[fields.length - 1] = names;
+            mFields = fields;
+        } else {
+            throw new IOException("Unknown schema entry kind " + kind + " in " + mFile);
+        }
+    }
+
+    private static String[] append(String[] array, String element) {
+        final String[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = element;
+        return result;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            final byte[] content = new byte[(int) file.length()];
+            in.readFully(content);
+            return content;
+        } finally {
+            in.close();
+        }
+    }
+}
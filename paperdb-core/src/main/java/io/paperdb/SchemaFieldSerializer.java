@@ -0,0 +1,136 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.factories.SerializerFactory;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.InputChunked;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import io.paperdb.serializer.ReusingCompatibleFieldSerializer;
+
+/**
+ * Writes the field layout as an id of the {@link SchemaDictionary} instead of the field names
+ * while the dictionary is set on the {@link SchemaClassResolver}. Values are written in chunks
+ * the same way as by {@link ReusingCompatibleFieldSerializer}, so added and removed fields are
+ * handled as before.
+ * <p>
+ * Field layouts are matched to the fields of the class once per Kryo instance, not once per
+ * read value as with the names in the data.
+ */
+final class SchemaFieldSerializer<T> extends ReusingCompatibleFieldSerializer<T> {
+    // Same chunk size as CompatibleFieldSerializer
+    private static final int CHUNK_SIZE = 1024;
+
+    static final SerializerFactory FACTORY = new SerializerFactory() {
+        @Override
+        public Serializer makeSerializer(Kryo kryo, Class<?> type) {
+            return new SchemaFieldSerializer<>(kryo, type);
+        }
+    };
+
+    // Id of the fields in the dictionary used last, kryo instances are shared between books
+    private SchemaDictionary mWriteDictionary;
+    private int mWriteFieldsId;
+    // Keyed by the names instance of the dictionary, it's the same for all lookups of an id
+    private final IdentityHashMap<String[], CachedField[]> mReadFields = new IdentityHashMap<>();
+    private final List<InputChunked> mInputs = new ArrayList<>();
+    private int mReadDepth;
+
+    SchemaFieldSerializer(Kryo kryo, Class type) {
+        super(kryo, type);
+    }
+
+    @Override
+    protected void writeFieldNames(Kryo kryo, Output output, CachedField[] fields) {
+        final SchemaDictionary dictionary = SchemaClassResolver.dictionary(kryo);
+        if (dictionary == null) {
+            super.writeFieldNames(kryo, output, fields);
+            return;
+        }
+        if (dictionary != mWriteDictionary) {
+            final String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                names[i] = getCachedFieldName(fields[i]);
+            }
+            mWriteFieldsId = dictionary.fieldsId(names);
+            mWriteDictionary = dictionary;
+        }
+        output.writeVarInt(mWriteFieldsId, true);
+    }
+
+    @Override
+    public T read(Kryo kryo, Input input, Class<T> type) {
+        final SchemaDictionary dictionary = SchemaClassResolver.dictionary(kryo);
+        if (dictionary == null) {
+            return super.read(kryo, input, type);
+        }
+        final T object = create(kryo, input, type);
+        kryo.reference(object);
+        final ObjectMap context = kryo.getGraphContext();
+        CachedField[] fields = (CachedField[]) context.get(this);
+        if (fields == null) {
+            fields = readFields(dictionary, input.readVarInt(true));
+            context.put(this, fields);
+        }
+
+        if (mReadDepth == mInputs.size()) {
+            mInputs.add(new InputChunked(CHUNK_SIZE));
+        }
+        final InputChunked inputChunked = mInputs.get(mReadDepth++);
+        inputChunked.setInputStream(input);
+        try {
+            final boolean hasGenerics = getGenerics() != null;
+            for (CachedField field : fields) {
+                if (field != null && hasGenerics) {
+                    // Same as CompatibleFieldSerializer, generic type of the field may differ
+                    // between the values
+                    field = getField(getCachedFieldName(field));
+                }
+                if (field != null) {
+                    field.read(inputChunked, object);
+                }
+                inputChunked.nextChunks();
+            }
+        } finally {
+            mReadDepth--;
+            // Don't keep the parent input reachable
+            inputChunked.setInputStream(null);
+        }
+        return object;
+    }
+
+    /**
+     * @return fields of the class in the order of the layout, null for the removed fields
+     */
+    private CachedField[] readFields(SchemaDictionary dictionary, int id) {
+        final String[] names;
+        try {
+            names = dictionary.fieldNames(id);
+        } catch (IOException e) {
+            throw new KryoException(e);
+        }
+        CachedField[] fields = mReadFields.get(names);
+        if (fields == null) {
+            fields = new CachedField[names.length];
+            final CachedField[] allFields = getFields();
+            for (int i = 0; i < names.length; i++) {
+                for (CachedField field : allFields) {
+                    if (getCachedFieldName(field).equals(names[i])) {
+                        fields[i] = field;
+                        break;
+                    }
+                }
+            }
+            mReadFields.put(names, fields);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,20 @@
+package io.paperdb;
+
+/**
+ * Defines how the book keeps its data on disk.
+ * See {@link BookOptions#storageEngine(StorageEngine)}.
+ */
+public enum StorageEngine {
+    /**
+     * Each key is saved in a separate key.pt file. Simple and robust, files could be copied
+     * for export/import purposes. Default engine.
+     */
+    PLAIN_FILE,
+
+    /**
+     * All writes are appended to a few large segment files, an in-memory index keeps the location
+     * of the latest value for each key. Segments are compacted in background. Much less
+     * file system metadata I/O per write, best suited for books with many small keys.
+     */
+    APPEND_LOG
+}
@@ -0,0 +1,188 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Format of the table (*.pt) files:
+ * <pre>
+ * magic    4 bytes, zero byte, 'P', 'T', 'F'
+ * version  1 byte, {@link #VERSION} or {@link #VERSION_DICTIONARY}
+ * codec    1 byte, {@link #CODEC_NONE} or {@link #CODEC_DEFLATE}
+ * length   4 bytes, length of the payload
+ * checksum 4 bytes, CRC32 of the payload
+ * payload  value written with {@link Kryo#writeClassAndObject}, compressed with the codec
+ * </pre>
+ * Files written before the header was introduced contain the value wrapped into
+ * {@link PaperTable}, they never start with a zero byte. Such files written by Paper 1.x and
+ * 2.x can only be told apart by parsing them. The header tells up front which decoder to use
+ * and whether the file is complete, so corrupt files are rejected without being parsed.
+ * <p>
+ * Payload of {@link #VERSION_DICTIONARY} refers to class names and field layouts by their ids
+ * in the {@link SchemaDictionary} of the book, the file can't be read without it.
+ */
+final class TableFile {
+    static final int HEADER_SIZE = 14;
+    static final int VERSION = 1;
+    static final int VERSION_DICTIONARY = 2;
+
+    static final int CODEC_NONE = 0;
+    static final int CODEC_DEFLATE = 1;
+
+    /** File starts with the header */
+    static final int TYPE_TABLE = 0;
+    /** {@link PaperTable} without the header */
+    static final int TYPE_LEGACY = 1;
+
+    private static final int MAGIC = 0x00505446;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CODEC_OFFSET = 5;
+    private static final int LENGTH_OFFSET = 6;
+    private static final int CHECKSUM_OFFSET = 10;
+
+    /**
+     * Writes the payload after the space reserved for the header
+     */
+    static final BatchSerializer.ValueWriter WRITER = new BatchSerializer.ValueWriter() {
+        @Override
+        public void write(Kryo kryo, Output output, Object value) {
+            output.setPosition(HEADER_SIZE);
+            kryo.writeClassAndObject(output, value);
+        }
+    };
+
+    private TableFile() {
+    }
+
+    /**
+     * @param dictionary dictionary of the book, null to write the names into the file
+     * @return writer of the payload for {@link #VERSION_DICTIONARY} or {@link #VERSION}
+     */
+    static BatchSerializer.ValueWriter writer(final SchemaDictionary dictionary) {
+        if (dictionary == null) {
+            return WRITER;
+        }
+        return new BatchSerializer.ValueWriter() {
+            @Override
+            public void write(Kryo kryo, Output output, Object value) {
+                SchemaClassResolver.use(kryo, dictionary);
+                try {
+                    WRITER.write(kryo, output, value);
+                } finally {
+                    SchemaClassResolver.use(kryo, null);
+                }
+            }
+        };
+    }
+
+    /**
+     * Compresses the payload written with {@link #WRITER} if it's worth it and fills
+     * the header in.
+     *
+     * @param compressionMinSize minimum payload size to be compressed, 0 disables compression
+     * @param version            format of the payload, depends on the writer
+     */
+    static void finish(WriteBuffer buffer, int compressionMinSize, int version) {
+        final boolean compressed = compressionMinSize > 0
+                && buffer.compress(HEADER_SIZE, compressionMinSize);
+        final Output output = buffer.output();
+        writeHeader(output.getBuffer(), version, compressed ? CODEC_DEFLATE : CODEC_NONE,
+                output.position() - HEADER_SIZE);
+    }
+
+    /**
+     * Same as {@link #finish(WriteBuffer, int, int)} for outputs of batch writes
+     *
+     * @return output with the file content, the given one or its compressed copy
+     */
+    static Output finish(Output output, int compressionMinSize, int version) {
+        final int length = output.position() - HEADER_SIZE;
+        if (compressionMinSize > 0 && length >= compressionMinSize) {
+            final byte[] target = new byte[output.position()];
+            final int compressed = Compression.compress(output.getBuffer(), HEADER_SIZE, length,
+                    target, HEADER_SIZE);
+            if (compressed >= 0) {
+                writeHeader(target, version, CODEC_DEFLATE, compressed);
+                final Output compressedOutput = new Output(target, -1);
+                compressedOutput.setPosition(HEADER_SIZE + compressed);
+                return compressedOutput;
+            }
+        }
+        writeHeader(output.getBuffer(), version, CODEC_NONE, length);
+        return output;
+    }
+
+    private static void writeHeader(byte[] bytes, int version, int codec, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, length);
+        final ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.put((byte) version);
+        header.put((byte) codec);
+        header.putInt(length);
+        header.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Detects the file format from the first bytes
+     *
+     * @param bytes file content from index 0
+     * @return one of TYPE_ constants
+     */
+    static int type(ByteBuffer bytes) {
+        return bytes.limit() >= HEADER_SIZE && bytes.getInt(0) == MAGIC
+                ? TYPE_TABLE : TYPE_LEGACY;
+    }
+
+    /**
+     * @param bytes file content of {@link #TYPE_TABLE} from index 0
+     * @return {@link #VERSION} or {@link #VERSION_DICTIONARY}
+     */
+    static int version(ByteBuffer bytes) {
+        return bytes.get(VERSION_OFFSET);
+    }
+
+    /**
+     * Checks the header and the payload checksum of the file of {@link #TYPE_TABLE}
+     *
+     * @param bytes file content from index 0
+     * @param chunk buffer used to read the payload if the content isn't in the heap
+     * @return codec of the payload
+     * @throws IOException if the file is corrupt or written by a newer version
+     */
+    static int checkHeader(ByteBuffer bytes, byte[] chunk) throws IOException {
+        final int version = version(bytes);
+        if (version != VERSION && version != VERSION_DICTIONARY) {
+            throw new IOException("Unsupported table file version " + version);
+        }
+        final int codec = bytes.get(CODEC_OFFSET);
+        if (codec != CODEC_NONE && codec != CODEC_DEFLATE) {
+            throw new IOException("Unknown codec " + codec);
+        }
+        final int length = bytes.getInt(LENGTH_OFFSET);
+        if (length != bytes.limit() - HEADER_SIZE) {
+            throw new IOException("Table file is truncated or has trailing bytes, expected "
+                    + length + " bytes of payload, found " + (bytes.limit() - HEADER_SIZE));
+        }
+        final CRC32 crc = new CRC32();
+        if (bytes.hasArray()) {
+            crc.update(bytes.array(), bytes.arrayOffset() + HEADER_SIZE, length);
+        } else {
+            final ByteBuffer payload = bytes.duplicate();
+            payload.position(HEADER_SIZE);
+            while (payload.hasRemaining()) {
+                final int count = Math.min(chunk.length, payload.remaining());
+                payload.get(chunk, 0, count);
+                crc.update(chunk, 0, count);
+            }
+        }
+        if ((int) crc.getValue() != bytes.getInt(CHECKSUM_OFFSET)) {
+            throw new IOException("Table file checksum mismatch");
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,256 @@
+package io.paperdb;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Places table files of the plain file book, see {@link BookOptions#shardedLayout(boolean)}.
+ * <p>
+ * Flat layout keeps every table file right in the book folder. Sharded layout hashes the key
+ * into two levels of {@value #FAN_OUT} folders, e.g. "3f/0a/key.pt", so no folder gets more
+ * than a few hundred files even for millions of keys. Temp files of the writes are kept in
+ * the book folder in both layouts, so they are found on open without walking the shards.
+ */
+final class TableLayout {
+    static final String EXTENSION = ".pt";
+    static final int FAN_OUT = 64;
+    private static final int FAN_OUT_BITS = 6;
+    // Golden ratio, spreads the keys differing in the last chars over the shards
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+    private static final int PATH_CACHE_SIZE = 1024;
+    private static final String[] SHARD_NAMES = new String[FAN_OUT];
+
+    static {
+        for (int i = 0; i < FAN_OUT; i++) {
+            SHARD_NAMES[i] = (i < 16 ? "0" : "") + Integer.toHexString(i);
+        }
+    }
+
+    private static final FilenameFilter TABLE_FILES = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(EXTENSION);
+        }
+    };
+
+    private final File mRoot;
+    private final String mRootPath;
+    private final boolean mSharded;
+    // Direct mapped, a colliding key just replaces the entry
+    private final CachedFile[] mPathCache = new CachedFile[PATH_CACHE_SIZE];
+    // Shard folders known to exist, forgotten when the book is destroyed
+    private final Set<String> mCreatedShards =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Entries are immutable, so the cache is shared between threads without locking
+     */
+    private static final class CachedFile {
+        final String key;
+        final File file;
+
+        CachedFile(String key, File file) {
+            this.key = key;
+            this.file = file;
+        }
+    }
+
+    TableLayout(String rootPath, boolean sharded) {
+        mRoot = new File(rootPath);
+        mRootPath = rootPath;
+        mSharded = sharded;
+    }
+
+    boolean isSharded() {
+        return mSharded;
+    }
+
+    /**
+     * @return table file of the key, the same instance for the recently used keys
+     */
+    File file(String key) {
+        final int hash = key.hashCode();
+        final int slot = (hash ^ (hash >>> 16)) & (PATH_CACHE_SIZE - 1);
+        final CachedFile cached = mPathCache[slot];
+        if (cached != null && cached.key.equals(key)) {
+            return cached.file;
+        }
+        final File file = newFile(key);
+        mPathCache[slot] = new CachedFile(key, file);
+        return file;
+    }
+
+    /**
+     * Same as {@link #file(String)} without touching the cache, for walks over all keys
+     */
+    File newFile(String key) {
+        if (!mSharded) {
+            return new File(mRootPath + File.separator + key + EXTENSION);
+        }
+        return new File(mRootPath + File.separator + shardPath(key) + File.separator
+                + key + EXTENSION);
+    }
+
+    /**
+     * Temp file is renamed to the table file once written. Rename across the folders of the
+     * book is as atomic as within a folder.
+     */
+    File tempFile(String key, String tempExtension) {
+        return new File(mRootPath + File.separator + key + EXTENSION + tempExtension);
+    }
+
+    static String shardPath(String key) {
+        final int hash = key.hashCode() * HASH_MULTIPLIER;
+        return SHARD_NAMES[hash >>> (32 - FAN_OUT_BITS)] + File.separator
+                + SHARD_NAMES[(hash >>> (32 - 2 * FAN_OUT_BITS)) & (FAN_OUT - 1)];
+    }
+
+    static String keyOf(String fileName) {
+        return fileName.substring(0, fileName.length() - EXTENSION.length());
+    }
+
+    /**
+     * Creates the shard folder of the table file if it's not there yet. New folders are
+     * synced right away in any durability mode, which happens once per shard.
+     */
+    void ensureShard(File tableFile) throws IOException {
+        if (!mSharded) {
+            return;
+        }
+        final File shard = tableFile.getParentFile();
+        final String path = shard.getPath();
+        if (mCreatedShards.contains(path)) {
+            return;
+        }
+        if (!shard.isDirectory()) {
+            if (!shard.mkdirs() && !shard.isDirectory()) {
+                throw new IOException("Couldn't create shard dir " + shard);
+            }
+            FileSync.syncDirectory(shard.getParentFile());
+            FileSync.syncDirectory(mRoot);
+        }
+        mCreatedShards.add(path);
+    }
+
+    void onDestroyed() {
+        mCreatedShards.clear();
+    }
+
+    /**
+     * Lists names of all table files on the calling thread. The listing is I/O bound, so it
+     * isn't spread over the compute threads, which are kept for CPU bound work.
+     *
+     * @return file names with the extension, null if the book folder couldn't be listed
+     */
+    String[] listTableFiles() {
+        if (!mSharded) {
+            return mRoot.list(TABLE_FILES);
+        }
+        final List<String> names = listShards();
+        return names.toArray(new String[names.size()]);
+    }
+
+    private List<String> listShards() {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < FAN_OUT; i++) {
+            final File topShard = new File(mRoot, SHARD_NAMES[i]);
+            final String[] shards = topShard.list();
+            if (shards == null) {
+                continue; // No keys fall into it yet
+            }
+            for (String shard : shards) {
+                final String[] files = new File(topShard, shard).list(TABLE_FILES);
+                if (files != null) {
+                    Collections.addAll(names, files);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Moves table files left by the other layout into this one, so the layout option may be
+     * changed for the existing book. Each file is moved with a single rename, an interrupted
+     * migration is resumed on the next open.
+     *
+     * @param rootNames names of the files in the book folder
+     * @return true if any table file has been moved
+     */
+    boolean migrate(String[] rootNames) {
+        final Set<File> changedDirs = new HashSet<>();
+        try {
+            if (mSharded) {
+                for (String name : rootNames) {
+                    if (name.endsWith(EXTENSION)) {
+                        final File target = newFile(keyOf(name));
+                        ensureShard(target);
+                        move(new File(mRoot, name), target);
+                        changedDirs.add(target.getParentFile());
+                    }
+                }
+            } else {
+                for (String name : rootNames) {
+                    if (isTopShardName(name) && new File(mRoot, name).isDirectory()) {
+                        unshard(new File(mRoot, name), changedDirs);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't migrate " + mRoot + " to the "
+                    + (mSharded ? "sharded" : "flat") + " layout", e);
+        }
+        if (changedDirs.isEmpty()) {
+            return false;
+        }
+        for (File dir : changedDirs) {
+            FileSync.syncDirectory(dir);
+        }
+        FileSync.syncDirectory(mRoot);
+        return true;
+    }
+
+    private void unshard(File topShard, Set<File> changedDirs) throws IOException {
+        final File[] shards = topShard.listFiles();
+        if (shards == null) {
+            return;
+        }
+        for (File shard : shards) {
+            final File[] files = shard.listFiles(TABLE_FILES);
+            if (files != null) {
+                for (File file : files) {
+                    move(file, new File(mRoot, file.getName()));
+                    changedDirs.add(shard);
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            shard.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        topShard.delete();
+    }
+
+    private static void move(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Couldn't rename file " + from + " to " + to);
+        }
+    }
+
+    private static boolean isTopShardName(String name) {
+        if (name.length() != 2) {
+            return false;
+        }
+        for (String shardName : SHARD_NAMES) {
+            if (shardName.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,270 @@
+package io.paperdb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory cache of deserialized values bounded by the estimated serialized size of the values.
+ * <p>
+ * Eviction follows W-TinyLFU: new entries land in a small LRU admission window, entries leaving
+ * the window compete with the LRU victim of the main segmented LRU (probation + protected)
+ * and only the one accessed more often according to the {@link FrequencySketch} is kept.
+ * This keeps one-off reads of large values from flushing the hot keys out.
+ * <p>
+ * The cache itself is thread safe. Callers are responsible for ordering updates for the same key,
+ * see usages in {@link DbStoragePlainFile}.
+ */
+class ValueCache {
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    // Rough guess of the average value size to size the frequency sketch
+    private static final int AVERAGE_VALUE_SIZE = 256;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long mMaxWeight;
+    private final long mWindowMaxWeight;
+    private final long mProtectedMaxWeight;
+
+    private final HashMap<String, Node> mNodes = new HashMap<>();
+    // Access ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, Node> mWindow = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> mProbation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Node> mProtected = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch mSketch;
+
+    private long mWindowWeight;
+    private long mProbationWeight;
+    private long mProtectedWeight;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    private static class Node {
+        final String key;
+        Object value;
+        long weight;
+        int segment;
+
+        Node(String key, Object value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    ValueCache(long maxWeight) {
+        mMaxWeight = maxWeight;
+        mWindowMaxWeight = Math.max(1, maxWeight * WINDOW_PERCENT / 100);
+        mProtectedMaxWeight = (maxWeight - mWindowMaxWeight) * PROTECTED_PERCENT / 100;
+        long expectedEntries = Math.min(maxWeight / AVERAGE_VALUE_SIZE, 1 << 20);
+        mSketch = new FrequencySketch((int) expectedEntries);
+    }
+
+    /**
+     * @return cached value or null. Records hit or miss.
+     */
+    synchronized Object get(String key) {
+        mSketch.increment(key);
+        Node node = mNodes.get(key);
+        if (node == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        onAccess(node);
+        return node.value;
+    }
+
+    /**
+     * Same as {@link #get(String)}, but doesn't affect stats and eviction order.
+     */
+    synchronized Object peek(String key) {
+        Node node = mNodes.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * @return serialized size the value was cached with, 0 if not cached. Doesn't affect
+     * stats and eviction order.
+     */
+    synchronized long weight(String key) {
+        Node node = mNodes.get(key);
+        return node == null ? 0 : node.weight;
+    }
+
+    /**
+     * Adds or replaces cached value. Values larger than the whole cache are not cached.
+     */
+    synchronized void put(String key, Object value, long weight) {
+        Node node = mNodes.get(key);
+        if (weight > mMaxWeight) {
+            if (node != null) {
+                unlink(node);
+            }
+            return;
+        }
+
+        if (node != null) {
+            addWeight(node.segment, weight - node.weight);
+            node.value = value;
+            node.weight = weight;
+            onAccess(node);
+        } else {
+            mSketch.increment(key);
+            node = new Node(key, value, weight);
+            node.segment = WINDOW;
+            mNodes.put(key, node);
+            mWindow.put(key, node);
+            mWindowWeight += weight;
+        }
+        evict();
+    }
+
+    synchronized void remove(String key) {
+        Node node = mNodes.get(key);
+        if (node != null) {
+            unlink(node);
+        }
+    }
+
+    synchronized void clear() {
+        mNodes.clear();
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowWeight = 0;
+        mProbationWeight = 0;
+        mProtectedWeight = 0;
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(mHitCount, mMissCount, mEvictionCount,
+                mWindowWeight + mProbationWeight + mProtectedWeight, mMaxWeight);
+    }
+
+    private void onAccess(Node node) {
+        switch (node.segment) {
+            case WINDOW:
+                mWindow.get(node.key);
+                break;
+            case PROBATION:
+                // Second hit promotes the entry to the protected segment
+                mProbation.remove(node.key);
+                mProbationWeight -= node.weight;
+                node.segment = PROTECTED;
+                mProtected.put(node.key, node);
+                mProtectedWeight += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                mProtected.get(node.key);
+                break;
+        }
+    }
+
+    private void demoteProtected() {
+        Iterator<Node> iterator = mProtected.values().iterator();
+        while (mProtectedWeight > mProtectedMaxWeight && iterator.hasNext()) {
+            Node node = iterator.next();
+            iterator.remove();
+            mProtectedWeight -= node.weight;
+            node.segment = PROBATION;
+            mProbation.put(node.key, node);
+            mProbationWeight += node.weight;
+        }
+    }
+
+    private void evict() {
+        // Entries leaving the admission window become candidates for the main segment
+        Iterator<Node> windowIterator = mWindow.values().iterator();
+        while (mWindowWeight > mWindowMaxWeight && windowIterator.hasNext()) {
+            Node candidate = windowIterator.next();
+            windowIterator.remove();
+            mWindowWeight -= candidate.weight;
+            candidate.segment = PROBATION;
+            mProbation.put(candidate.key, candidate);
+            mProbationWeight += candidate.weight;
+            admit(candidate);
+        }
+
+        // Value updates may still overflow the cache, evict from the coldest end
+        while (weightedSize() > mMaxWeight) {
+            Node victim = eldest(mProbation);
+            if (victim == null) victim = eldest(mProtected);
+            if (victim == null) victim = eldest(mWindow);
+            if (victim == null) break;
+            evictNode(victim);
+        }
+    }
+
+    /**
+     * Keeps either the candidate or the main segment victims, whichever is used more often.
+     */
+    private void admit(Node candidate) {
+        while (weightedSize() > mMaxWeight) {
+            Node victim = eldest(mProbation);
+            if (victim == candidate || victim == null) {
+                victim = eldest(mProtected);
+            }
+            if (victim == null) {
+                evictNode(candidate);
+                return;
+            }
+            if (mSketch.frequency(candidate.key) > mSketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                evictNode(candidate);
+                return;
+            }
+        }
+    }
+
+    private void evictNode(Node node) {
+        unlink(node);
+        mEvictionCount++;
+    }
+
+    private void unlink(Node node) {
+        mNodes.remove(node.key);
+        switch (node.segment) {
+            case WINDOW:
+                mWindow.remove(node.key);
+                break;
+            case PROBATION:
+                mProbation.remove(node.key);
+                break;
+            case PROTECTED:
+                mProtected.remove(node.key);
+                break;
+        }
+        addWeight(node.segment, -node.weight);
+    }
+
+    private void addWeight(int segment, long delta) {
+        switch (segment) {
+            case WINDOW:
+                mWindowWeight += delta;
+                break;
+            case PROBATION:
+                mProbationWeight += delta;
+                break;
+            case PROTECTED:
+                mProtectedWeight += delta;
+                break;
+        }
+    }
+
+    private long weightedSize() {
+        return mWindowWeight + mProbationWeight + mProtectedWeight;
+    }
+
+    private static Node eldest(LinkedHashMap<String, Node> segment) {
+        Iterator<Node> iterator = segment.values().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+}
@@ -0,0 +1,436 @@
+package io.paperdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Storage decorator reading values into memory ahead of the reads, see
+ * {@link PaperStore#prefetch(Collection)} and {@link BookOptions#warmUp(int)}.
+ * <p>
+ * Values are preloaded on the thread of {@link PaperExecutors#preload()}. A preloaded value
+ * is handed out to the first read of the key and forgotten after that, or after
+ * {@link #PRELOAD_TTL_MILLIS} if nobody reads it. A read arriving while the preload of its key
+ * is running waits for it instead of reading the file a second time, a read arriving before
+ * the preload has started cancels it. Changes of the key drop its preloaded value.
+ * <p>
+ * With warm-up enabled reads are counted and the most read keys are saved to the access
+ * history file of the book. When the book is opened the top keys of the previous sessions
+ * are preloaded.
+ */
+class WarmUpStorage implements DbStorage {
+    static final String HISTORY_FILE_NAME = "access.history";
+
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int HISTORY_MAGIC = 0x50414854;
+    // Keys below the top are of no use for the warm-up, keep the file small
+    private static final int MAX_HISTORY_KEYS = 256;
+    // Bounds the memory used for the counts in books with lots of keys
+    private static final int MAX_COUNTED_KEYS = 4096;
+    private static final long HISTORY_SAVE_DELAY_MILLIS = 5000;
+    private static final long PRELOAD_TTL_MILLIS = 60 * 1000;
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    private final DbStorage mStorage;
+    private final int mWarmUpKeys; // 0 if warm-up is disabled
+    private final File mHistoryFile;
+    private final ConcurrentHashMap<String, Preload> mPreloads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> mReadCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger mCountedKeys = new AtomicInteger();
+    private final AtomicBoolean mHistorySaveScheduled = new AtomicBoolean();
+    private volatile boolean mClosed;
+
+    /**
+     * Value being read or read ahead of the first read of the key
+     */
+    private static class Preload {
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        final CountDownLatch done = new CountDownLatch(1);
+        // Published by the latch
+        Object value;
+        RuntimeException error;
+    }
+
+    WarmUpStorage(DbStorage storage, int warmUpKeys) {
+        mStorage = storage;
+        mWarmUpKeys = warmUpKeys;
+        mHistoryFile = new File(storage.getRootFolderPath(), HISTORY_FILE_NAME);
+        if (warmUpKeys > 0) {
+            PaperExecutors.preload().execute(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp();
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts preloading the values of the keys which aren't preloaded yet
+     */
+    void prefetch(Collection<String> keys) {
+        if (mClosed) {
+            return;
+        }
+        for (final String key : keys) {
+            final Preload preload = new Preload();
+            if (mPreloads.putIfAbsent(key, preload) != null) {
+                continue;
+            }
+            PaperExecutors.preload().execute(new Runnable() {
+                @Override
+                public void run() {
+                    preload(key, preload);
+                }
+            });
+        }
+    }
+
+    private void preload(final String key, final Preload preload) {
+        // Dropped by a change of the key or taken over by a read
+        if (mPreloads.get(key) != preload || !preload.state.compareAndSet(QUEUED, RUNNING)) {
+            return;
+        }
+        try {
+            if (mClosed) {
+                // Reading would open the closed storage again
+                preload.error = new PaperDbException("Book is closed");
+                return;
+            }
+            preload.value = mStorage.select(key);
+        } catch (RuntimeException e) {
+            // The read waiting for the preload reads the key itself and gets the error
+            preload.error = e;
+        } finally {
+            preload.state.set(DONE);
+            preload.done.countDown();
+        }
+        PaperExecutors.background().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mPreloads.remove(key, preload);
+            }
+        }, PRELOAD_TTL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return preload with the current value of the key, null if the key must be read
+     */
+    private Preload takePreload(String key) {
+        final Preload preload = mPreloads.get(key);
+        if (preload == null) {
+            return null;
+        }
+        if (preload.state.compareAndSet(QUEUED, CANCELLED)) {
+            // Not started yet, reading right away is faster than waiting in the queue
+            mPreloads.remove(key, preload);
+            return null;
+        }
+        try {
+            preload.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        // Fails if the key is changed in the meantime or the value is taken by another read
+        if (!mPreloads.remove(key, preload) || preload.error != null) {
+            return null;
+        }
+        return preload;
+    }
+
+    private void countRead(String key) {
+        if (mWarmUpKeys == 0) {
+            return;
+        }
+        AtomicInteger count = mReadCounts.get(key);
+        if (count == null) {
+            if (mCountedKeys.get() >= MAX_COUNTED_KEYS) {
+                return;
+            }
+            count = new AtomicInteger();
+            final AtomicInteger existing = mReadCounts.putIfAbsent(key, count);
+            if (existing != null) {
+                count = existing;
+            } else {
+                mCountedKeys.incrementAndGet();
+            }
+        }
+        count.incrementAndGet();
+        scheduleHistorySave();
+    }
+
+    private void scheduleHistorySave() {
+        if (!mHistorySaveScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        PaperExecutors.background().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mHistorySaveScheduled.set(false);
+                saveHistory();
+            }
+        }, HISTORY_SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves the most read keys on the calling thread. The history is only a hint for the next
+     * start, so it isn't synced to disk.
+     */
+    void saveHistory() {
+        final File dir = mHistoryFile.getParentFile();
+        if (!dir.exists()) {
+            return; // Destroyed, don't create the book folder again
+        }
+        final List<Map.Entry<String, Integer>> top = topKeys(snapshotCounts(), MAX_HISTORY_KEYS);
+        if (top.isEmpty()) {
+            return;
+        }
+        final File temp = new File(dir, HISTORY_FILE_NAME + TEMP_EXTENSION);
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                out.writeInt(HISTORY_MAGIC);
+                out.writeInt(top.size());
+                for (Map.Entry<String, Integer> entry : top) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mHistoryFile)) {
+                throw new IOException("Couldn't rename " + temp + " to " + mHistoryFile);
+            }
+        } catch (IOException e) {
+            Platform.warn("Couldn't save access history " + mHistoryFile, e);
+        }
+    }
+
+    /**
+     * Preloads the most read keys of the previous sessions. Their counts are halved and carried
+     * over to this session, so the keys which are no longer read fade out of the history.
+     */
+    private void warmUp() {
+        final Map<String, Integer> history = loadHistory();
+        for (Map.Entry<String, Integer> entry : history.entrySet()) {
+            final int count = entry.getValue() / 2;
+            if (count > 0 && mReadCounts.putIfAbsent(entry.getKey(),
+                    new AtomicInteger(count)) == null) {
+                mCountedKeys.incrementAndGet();
+            }
+        }
+        final List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : topKeys(history, mWarmUpKeys)) {
+            keys.add(entry.getKey());
+        }
+        prefetch(keys);
+    }
+
+    private Map<String, Integer> loadHistory() {
+        final Map<String, Integer> history = new LinkedHashMap<>();
+        if (!mHistoryFile.exists()) {
+            return history;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(mHistoryFile)));
+            //noinspection TryFinallyCanBeTryWithResources
+            try {
+                if (in.readInt() != HISTORY_MAGIC) {
+                    throw new IOException("Unknown access history format");
+                }
+                final int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    history.put(in.readUTF(), in.readInt());
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Platform.warn("Couldn't load access history " + mHistoryFile, e);
+            history.clear();
+        }
+        return history;
+    }
+
+    private Map<String, Integer> snapshotCounts() {
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : mReadCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    private static List<Map.Entry<String, Integer>> topKeys(Map<String, Integer> counts,
+                                                            int limit) {
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return b.getValue().compareTo(a.getValue());
+            }
+        });
+        return entries.size() > limit ? entries.subList(0, limit) : entries;
+    }
+
+    private void dropPreloads(Collection<String> keys) {
+        for (String key : keys) {
+            mPreloads.remove(key);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        mStorage.destroy();
+        mPreloads.clear();
+        mReadCounts.clear();
+        mCountedKeys.set(0);
+    }
+
+    /**
+     * Drops the queued preloads and waits for the running ones, so none of them reads from
+     * the closed storage
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        boolean interrupted = false;
+        for (Preload preload : mPreloads.values()) {
+            if (preload.state.compareAndSet(QUEUED, CANCELLED)) {
+                continue;
+            }
+            while (true) {
+                try {
+                    preload.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        mPreloads.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (mWarmUpKeys > 0) {
+            saveHistory();
+        }
+        mStorage.close();
+    }
+
+    @Override
+    public <E> void insert(String key, E value) {
+        mStorage.insert(key, value);
+        // Preload started before the write may have read the previous value
+        mPreloads.remove(key);
+    }
+
+    @Override
+    public void insertAll(Map<String, ?> values) {
+        mStorage.insertAll(values);
+        dropPreloads(values.keySet());
+    }
+
+    @Override
+    public <E> E select(String key) {
+        countRead(key);
+        final Preload preload = takePreload(key);
+        if (preload != null) {
+            //noinspection unchecked
+            return (E) preload.value;
+        }
+        return mStorage.select(key);
+    }
+
+    @Override
+    public <E> PaperIterator<E> selectIterator(String key) {
+        countRead(key);
+        final Preload preload = takePreload(key);
+        if (preload != null) {
+            return PaperIterators.of(key, preload.value);
+        }
+        return mStorage.selectIterator(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return mStorage.exists(key);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        return mStorage.lastModified(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        return mStorage.getAllKeys();
+    }
+
+    @Override
+    public Iterator<String> keys(String fromInclusive, String toExclusive) {
+        return mStorage.keys(fromInclusive, toExclusive);
+    }
+
+    @Override
+    public void deleteIfExists(String key) {
+        mStorage.deleteIfExists(key);
+        mPreloads.remove(key);
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        mStorage.deleteAll(keys);
+        dropPreloads(keys);
+    }
+
+    @Override
+    public void sync() {
+        mStorage.sync();
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return mStorage.getCacheStats();
+    }
+
+    @Override
+    public void setLogLevel(int level) {
+        mStorage.setLogLevel(level);
+    }
+
+    @Override
+    public String getOriginalFilePath(String key) {
+        return mStorage.getOriginalFilePath(key);
+    }
+
+    @Override
+    public String getRootFolderPath() {
+        return mStorage.getRootFolderPath();
+    }
+}
@@ -0,0 +1,327 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Storage decorator returning from writes before they reach the table files, see
+ * {@link BookOptions#writeBehind(long)}.
+ * <p>
+ * Each write, delete or batch is appended to the {@link WriteJournal} as a single record and
+ * kept in the in-memory overlay, which reads see right away. The flush runs in background the
+ * flush delay after the first change: it starts the next journal generation, applies all
+ * changes of the overlay to the storage as batches, syncs the storage and deletes the applied
+ * generations. Changes made during the flush stay in the overlay for the next one.
+ * <p>
+ * Changes of the journal left by a crash are applied to the storage when the book is opened,
+ * so no change is lost once the write has returned, unless the device loses power before
+ * the flush.
+ */
+class WriteBehindStorage implements DbStorage {
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final DbStorage mStorage;
+    private final long mFlushDelayMillis;
+    private final KryoPool.Holder mKryo;
+    private final WriteJournal mJournal;
+    private final ConcurrentHashMap<String, Pending> mPending = new ConcurrentHashMap<>();
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean();
+    // Guards the journal and keeps the overlay in the order of the journal records
+    private final Object mJournalLock = new Object();
+    // Only one flush at a time, destroy waits for the running flush
+    private final Object mFlushLock = new Object();
+
+    /**
+     * Latest change of the key which is not applied to the storage yet
+     */
+    private static class Pending {
+        final Object value; // null for delete
+        final long timestamp;
+
+        Pending(Object value) {
+            this.value = value;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+
+    WriteBehindStorage(DbStorage storage, long flushDelayMillis,
+                       HashMap<Class, Serializer> serializers) {
+        mStorage = storage;
+        mFlushDelayMillis = flushDelayMillis;
+        mKryo = new KryoPool.Holder(serializers);
+        mJournal = new WriteJournal(new File(storage.getRootFolderPath()), mKryo);
+        final Map<String, Object> changes = mJournal.replay();
+        if (!changes.isEmpty()) {
+            final Map<String, Object> values = new LinkedHashMap<>();
+            final List<String> deletes = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                if (entry.getValue() == WriteJournal.DELETED) {
+                    deletes.add(entry.getKey());
+                } else {
+                    values.put(entry.getKey(), entry.getValue());
+                }
+            }
+            apply(values, deletes);
+            mJournal.deleteReplayed();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (mFlushLock) {
+            synchronized (mJournalLock) {
+                mPending.clear();
+                mJournal.reset();
+                mStorage.destroy();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        synchronized (mJournalLock) {
+            mJournal.close();
+        }
+        mStorage.close();
+    }
+
+    @Override
+    public <E> void insert(String key, E value) {
+        CoalescingStorage.checkKey(key);
+        // Copy now, the caller may change the instance before it is flushed
+        final Pending pending = new Pending(mKryo.get().copy(value));
+        append(Collections.singletonMap(key, value), Collections.singletonMap(key, pending));
+    }
+
+    @Override
+    public void insertAll(Map<String, ?> values) {
+        final Map<String, Pending> pending = new HashMap<>(values.size());
+        for (Map.Entry<String, ?> entry : values.entrySet()) {
+            CoalescingStorage.checkKey(entry.getKey());
+            pending.put(entry.getKey(), new Pending(mKryo.get().copy(entry.getValue())));
+        }
+        append(values, pending);
+    }
+
+    @Override
+    public void deleteIfExists(String key) {
+        CoalescingStorage.checkKey(key);
+        append(Collections.singletonMap(key, null),
+                Collections.singletonMap(key, new Pending(null)));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        final Map<String, Object> changes = new LinkedHashMap<>(keys.size());
+        final Map<String, Pending> pending = new HashMap<>(keys.size());
+        for (String key : keys) {
+            CoalescingStorage.checkKey(key);
+            changes.put(key, null);
+            pending.put(key, new Pending(null));
+        }
+        append(changes, pending);
+    }
+
+    /**
+     * Appends the changes as one record, so a batch is replayed either whole or not at all
+     */
+    private void append(Map<String, ?> changes, Map<String, Pending> pending) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        final byte[] record = mJournal.record(changes);
+        synchronized (mJournalLock) {
+            mJournal.append(record);
+            mPending.putAll(pending);
+        }
+        if (mFlushScheduled.compareAndSet(false, true)) {
+            scheduleFlush(mFlushDelayMillis);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        PaperExecutors.background().schedule(new Runnable() {
+            @Override
+            public void run() {
+                mFlushScheduled.set(false);
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    // Changes stay in the overlay and in the journal, try again later
+                    Platform.error("Couldn't flush write-behind journal of "
+                            + mStorage.getRootFolderPath(), e);
+                    if (mFlushScheduled.compareAndSet(false, true)) {
+                        scheduleFlush(Math.max(mFlushDelayMillis, RETRY_DELAY_MILLIS));
+                    }
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Applies all changes made so far to the storage on the calling thread
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            final Map<String, Pending> flushed;
+            final long generation;
+            synchronized (mJournalLock) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                flushed = new HashMap<>(mPending);
+                generation = mJournal.rotate();
+            }
+            final Map<String, Object> values = new HashMap<>();
+            final List<String> deletes = new ArrayList<>();
+            for (Map.Entry<String, Pending> entry : flushed.entrySet()) {
+                if (entry.getValue().value != null) {
+                    values.put(entry.getKey(), entry.getValue().value);
+                } else {
+                    deletes.add(entry.getKey());
+                }
+            }
+            apply(values, deletes);
+            synchronized (mJournalLock) {
+                mJournal.deleteUpTo(generation);
+            }
+            for (Map.Entry<String, Pending> entry : flushed.entrySet()) {
+                // Changed during the flush, the latest change waits for the next one
+                mPending.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Journal may be deleted only once the changes are durable in the storage
+     */
+    private void apply(Map<String, Object> values, List<String> deletes) {
+        if (!values.isEmpty()) {
+            mStorage.insertAll(values);
+        }
+        if (!deletes.isEmpty()) {
+            mStorage.deleteAll(deletes);
+        }
+        mStorage.sync();
+    }
+
+    @Override
+    public <E> E select(String key) {
+        CoalescingStorage.checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            //noinspection unchecked
+            return pending.value == null ? null : (E) mKryo.get().copy(pending.value);
+        }
+        // Pending change is removed only after it is applied, so the storage is up to date
+        return mStorage.select(key);
+    }
+
+    @Override
+    public <E> PaperIterator<E> selectIterator(String key) {
+        CoalescingStorage.checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            // Pending value is in memory anyway
+            return PaperIterators.of(key,
+                    pending.value == null ? null : mKryo.get().copy(pending.value));
+        }
+        return mStorage.selectIterator(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        CoalescingStorage.checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            return pending.value != null;
+        }
+        return mStorage.exists(key);
+    }
+
+    @Override
+    public long lastModified(String key) {
+        CoalescingStorage.checkKey(key);
+        Pending pending = mPending.get(key);
+        if (pending != null) {
+            return pending.value != null ? pending.timestamp : -1;
+        }
+        return mStorage.lastModified(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        // Snapshot pending changes first, they are removed only after being applied
+        final Map<String, Pending> pending = new HashMap<>(mPending);
+        final Set<String> keys = new HashSet<>(mStorage.getAllKeys());
+        for (Map.Entry<String, Pending> entry : pending.entrySet()) {
+            if (entry.getValue().value != null) {
+                keys.add(entry.getKey());
+            } else {
+                keys.remove(entry.getKey());
+            }
+        }
+        return new ArrayList<>(keys);
+    }
+
+    @Override
+    public Iterator<String> keys(String fromInclusive, String toExclusive) {
+        final SortedMap<String, Boolean> pending = new TreeMap<>();
+        for (Map.Entry<String, Pending> entry : mPending.entrySet()) {
+            if (KeyRanges.inRange(entry.getKey(), fromInclusive, toExclusive)) {
+                pending.put(entry.getKey(), entry.getValue().value != null);
+            }
+        }
+        if (pending.isEmpty()) {
+            return mStorage.keys(fromInclusive, toExclusive);
+        }
+        return new CoalescingStorage.MergingIterator(mStorage.keys(fromInclusive, toExclusive),
+                pending);
+    }
+
+    /**
+     * Changes are applied first, so they are synced too
+     */
+    @Override
+    public void sync() {
+        flush();
+        mStorage.sync();
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return mStorage.getCacheStats();
+    }
+
+    @Override
+    public void setLogLevel(int level) {
+        mStorage.setLogLevel(level);
+    }
+
+    @Override
+    public String getOriginalFilePath(String key) {
+        return mStorage.getOriginalFilePath(key);
+    }
+
+    @Override
+    public String getRootFolderPath() {
+        return mStorage.getRootFolderPath();
+    }
+}
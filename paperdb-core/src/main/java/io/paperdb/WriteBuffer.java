@@ -0,0 +1,127 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reusable serialization buffer for the write path. Buffers are pooled process-wide, so
+ * steady state writes don't allocate a new buffer, grow it by copying or wrap it again.
+ * <p>
+ * At most {@link #MAX_IDLE} buffers are kept, buffers grown above {@link #MAX_RETAINED_SIZE}
+ * by large values are left to the GC.
+ */
+final class WriteBuffer {
+    static final int MAX_IDLE = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    static final int MAX_RETAINED_SIZE = 256 * 1024;
+    private static final int MIN_SIZE = 4 * 1024;
+
+    private static final ArrayBlockingQueue<WriteBuffer> sIdle =
+            new ArrayBlockingQueue<>(MAX_IDLE);
+
+    private final Output mOutput = new Output(MIN_SIZE, -1);
+    private final PaperTable<Object> mTable = new PaperTable<>();
+    private ByteBuffer mByteBuffer;
+    // Target of the compression, swapped with the output buffer if the table was compressed
+    private byte[] mSpare;
+    private ByteBuffer mSpareByteBuffer;
+
+    private WriteBuffer() {
+    }
+
+    /**
+     * Takes an idle buffer or creates a new one. Must be returned with {@link #recycle()}.
+     *
+     * @param expectedSize expected number of bytes, e.g. the last known size of the value,
+     *                     to avoid growing the buffer while serializing
+     */
+    static WriteBuffer obtain(int expectedSize) {
+        WriteBuffer buffer = sIdle.poll();
+        if (buffer == null) {
+            buffer = new WriteBuffer();
+        }
+        buffer.mOutput.clear();
+        if (buffer.mOutput.getBuffer().length < expectedSize) {
+            buffer.mOutput.setBuffer(new byte[roundUp(expectedSize)], -1);
+        }
+        return buffer;
+    }
+
+    void recycle() {
+        if (mSpare != null && mSpare.length > MAX_RETAINED_SIZE) {
+            mSpare = null;
+            mSpareByteBuffer = null;
+        }
+        if (mOutput.getBuffer().length <= MAX_RETAINED_SIZE) {
+            sIdle.offer(this);
+        }
+    }
+
+    Output output() {
+        return mOutput;
+    }
+
+    /**
+     * Serializes the value wrapped into {@link PaperTable} after the current position
+     */
+    void writeTable(Kryo kryo, Object value) {
+        mTable.mContent = value;
+        try {
+            kryo.writeObject(mOutput, mTable);
+        } finally {
+            mTable.mContent = null;
+        }
+    }
+
+    /**
+     * Replaces the bytes written after the offset with their compressed form, see
+     * {@link Compression}. The bytes before the offset are not preserved. Payloads smaller
+     * than minSize or not compressing well are left as is.
+     *
+     * @return true if the payload was compressed
+     */
+    boolean compress(int offset, int minSize) {
+        final int length = mOutput.position() - offset;
+        if (length < minSize) {
+            return false;
+        }
+        if (mSpare == null || mSpare.length < mOutput.position()) {
+            mSpare = new byte[Math.max(mOutput.position(), mOutput.getBuffer().length)];
+            mSpareByteBuffer = null;
+        }
+        final int compressed = Compression.compress(mOutput.getBuffer(), offset, length,
+                mSpare, offset);
+        if (compressed < 0) {
+            return false;
+        }
+        final byte[] table = mOutput.getBuffer();
+        final ByteBuffer tableByteBuffer = mByteBuffer;
+        mOutput.setBuffer(mSpare, -1);
+        mOutput.setPosition(offset + compressed);
+        mByteBuffer = mSpareByteBuffer;
+        mSpare = table;
+        mSpareByteBuffer = tableByteBuffer;
+        return true;
+    }
+
+    /**
+     * @return buffer with the bytes written so far, valid until the next write
+     */
+    ByteBuffer byteBuffer() {
+        final byte[] bytes = mOutput.getBuffer();
+        if (mByteBuffer == null || mByteBuffer.array() != bytes) {
+            mByteBuffer = ByteBuffer.wrap(bytes);
+        }
+        mByteBuffer.clear();
+        mByteBuffer.limit(mOutput.position());
+        return mByteBuffer;
+    }
+
+    private static int roundUp(int size) {
+        // Some headroom, so a slightly larger value doesn't grow the buffer again
+        final int target = size + size / 8;
+        return target > MAX_RETAINED_SIZE ? target : Integer.highestOneBit(target - 1) << 1;
+    }
+}
@@ -0,0 +1,238 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Sequential journal of the changes made in write-behind mode, see {@link WriteBehindStorage}.
+ * <p>
+ * Journal is split into generations, each in its own file. Changes are appended to the
+ * current generation, {@link #rotate()} starts the next one, so the older generations can be
+ * deleted once their changes are applied to the storage.
+ * <p>
+ * Each record holds the changes of one write or one batch and is preceded by its length and
+ * checksum, so a record torn by a crash is detected and dropped along with the rest of the
+ * file. Records are not synced, the journal protects against the crash of the app, the
+ * storage is synced when the changes are applied.
+ */
+final class WriteJournal {
+    static final String FILE_PREFIX = "write-behind-";
+    static final String FILE_EXTENSION = ".journal";
+    /**
+     * Value of the replayed delete, null values are not allowed in Paper
+     */
+    static final Object DELETED = new Object();
+
+    private final File mDir;
+    private final KryoPool.Holder mKryo;
+    private FileOutputStream mStream; // null until the first append to the generation
+    private long mGeneration;
+    private long mOldestGeneration;
+
+    WriteJournal(File dir, KryoPool.Holder kryo) {
+        mDir = dir;
+        mKryo = kryo;
+    }
+
+    /**
+     * Reads all changes left by the previous sessions, the latest change of each key wins.
+     * Must be called once before anything is appended.
+     *
+     * @return changed keys in the order of the first change, deletes map to {@link #DELETED}
+     */
+    Map<String, Object> replay() {
+        final Map<String, Object> changes = new LinkedHashMap<>();
+        final File[] files = mDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_EXTENSION);
+            }
+        });
+        if (files == null || files.length == 0) {
+            return changes;
+        }
+        final long[] generations = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            final String name = files[i].getName();
+            try {
+                generations[i] = Long.parseLong(name.substring(FILE_PREFIX.length(),
+                        name.length() - FILE_EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                throw new PaperDbException("Unexpected journal file " + files[i], e);
+            }
+        }
+        Arrays.sort(generations);
+        for (long generation : generations) {
+            try {
+                readFile(file(generation), changes);
+            } catch (IOException | KryoException e) {
+                throw new PaperDbException("Couldn't replay journal " + file(generation), e);
+            }
+        }
+        mOldestGeneration = generations[0];
+        mGeneration = generations[generations.length - 1] + 1;
+        return changes;
+    }
+
+    private void readFile(File file, Map<String, Object> changes) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        final Kryo kryo = mKryo.get().borrow();
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            while (true) {
+                final byte[] record;
+                try {
+                    final int length = in.readInt();
+                    final int checksum = in.readInt();
+                    if (length < 0 || length > file.length()) {
+                        return; // Torn
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    final CRC32 crc = new CRC32();
+                    crc.update(record);
+                    if ((int) crc.getValue() != checksum) {
+                        return; // Torn
+                    }
+                } catch (EOFException e) {
+                    return; // End of file or a torn record
+                }
+                final Input input = new Input(record);
+                final int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    final String key = input.readString();
+                    final Object value = input.readBoolean()
+                            ? kryo.readClassAndObject(input) : DELETED;
+                    // Later change of the key wins, but the key keeps its first position
+                    changes.put(key, value);
+                }
+            }
+        } finally {
+            mKryo.get().release(kryo);
+            in.close();
+        }
+    }
+
+    /**
+     * Serializes the changes into the journal record, doesn't need the journal lock
+     *
+     * @param changes changed keys, deletes map to null
+     */
+    byte[] record(Map<String, ?> changes) {
+        final KryoPool pool = mKryo.get();
+        final Kryo kryo = pool.borrow();
+        final Output output = new Output(256, -1);
+        try {
+            output.setPosition(8);
+            output.writeInt(changes.size());
+            for (Map.Entry<String, ?> entry : changes.entrySet()) {
+                output.writeString(entry.getKey());
+                output.writeBoolean(entry.getValue() != null);
+                if (entry.getValue() != null) {
+                    kryo.writeClassAndObject(output, entry.getValue());
+                }
+            }
+        } catch (KryoException e) {
+            throw new PaperDbException("Couldn't serialize " + changes.keySet(), e);
+        } finally {
+            pool.release(kryo);
+        }
+        final byte[] record = output.getBuffer();
+        final int length = output.position() - 8;
+        final CRC32 crc = new CRC32();
+        crc.update(record, 8, length);
+        output.setPosition(0);
+        output.writeInt(length);
+        output.writeInt((int) crc.getValue());
+        return Arrays.copyOf(record, length + 8);
+    }
+
+    /**
+     * Appends the record to the current generation. Callers serialize appends with the
+     * other journal changes.
+     */
+    void append(byte[] record) {
+        try {
+            if (mStream == null) {
+                if (!mDir.exists() && !mDir.mkdirs()) {
+                    throw new IOException("Couldn't create dir " + mDir);
+                }
+                mStream = new FileOutputStream(file(mGeneration), true);
+            }
+            mStream.write(record);
+        } catch (IOException e) {
+            throw new PaperDbException("Couldn't append to journal " + file(mGeneration), e);
+        }
+    }
+
+    /**
+     * Starts the next generation
+     *
+     * @return last generation of the journal before the rotation
+     */
+    long rotate() {
+        close();
+        return mGeneration++;
+    }
+
+    /**
+     * Deletes the generations up to the given one, their changes are applied to the storage
+     */
+    void deleteUpTo(long generation) {
+        for (long i = mOldestGeneration; i <= generation; i++) {
+            final File file = file(i);
+            if (file.exists() && !file.delete()) {
+                Platform.warn("Couldn't delete journal " + file);
+                return;
+            }
+        }
+        mOldestGeneration = generation + 1;
+    }
+
+    /**
+     * Deletes the generations read by {@link #replay()}, their changes are applied
+     */
+    void deleteReplayed() {
+        deleteUpTo(mGeneration - 1);
+    }
+
+    /**
+     * Forgets all generations, their files are deleted along with the book folder
+     */
+    void reset() {
+        close();
+        mOldestGeneration = mGeneration;
+    }
+
+    /**
+     * Closes the current generation, the next append opens it again
+     */
+    void close() {
+        if (mStream != null) {
+            try {
+                mStream.close();
+            } catch (IOException e) {
+                Platform.warn("Couldn't close journal " + file(mGeneration), e);
+            }
+            mStream = null;
+        }
+    }
+
+    private File file(long generation) {
+        return new File(mDir, FILE_PREFIX + generation + FILE_EXTENSION);
+    }
+}
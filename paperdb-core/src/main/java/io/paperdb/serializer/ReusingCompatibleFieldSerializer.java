@@ -0,0 +1,66 @@
+package io.paperdb.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.io.OutputChunked;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+import com.esotericsoftware.kryo.util.ObjectMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes exactly the same bytes as {@link CompatibleFieldSerializer}, but reuses the chunk
+ * buffers instead of allocating a new 1 KB buffer for every written object.
+ * <p/>
+ * Kryo creates a serializer instance per class for every Kryo instance, and Kryo instances are
+ * never used by two threads at once, so the buffers need no synchronization. Nested objects of
+ * the same class are written with the next buffer of the stack.
+ */
+public class ReusingCompatibleFieldSerializer<T> extends CompatibleFieldSerializer<T> {
+    // Same chunk size as CompatibleFieldSerializer, it defines the serialized format
+    private static final int CHUNK_SIZE = 1024;
+
+    private final List<OutputChunked> mChunks = new ArrayList<>();
+    private int mDepth;
+
+    public ReusingCompatibleFieldSerializer(Kryo kryo, Class type) {
+        super(kryo, type);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, T object) {
+        CachedField[] fields = getFields();
+        ObjectMap context = kryo.getGraphContext();
+        if (!context.containsKey(this)) {
+            context.put(this, null);
+            writeFieldNames(kryo, output, fields);
+        }
+
+        if (mDepth == mChunks.size()) {
+            mChunks.add(new OutputChunked(CHUNK_SIZE));
+        }
+        OutputChunked outputChunked = mChunks.get(mDepth++);
+        outputChunked.setOutputStream(output);
+        try {
+            for (CachedField field : fields) {
+                field.write(outputChunked, object);
+                outputChunked.endChunks();
+            }
+        } finally {
+            mDepth--;
+            // Don't keep the parent output reachable
+            outputChunked.setOutputStream(null);
+        }
+    }
+
+    /**
+     * Writes the names of the fields, once per object graph for each class
+     */
+    protected void writeFieldNames(Kryo kryo, Output output, CachedField[] fields) {
+        output.writeVarInt(fields.length, true);
+        for (CachedField field : fields) {
+            output.writeString(getCachedFieldName(field));
+        }
+    }
+}
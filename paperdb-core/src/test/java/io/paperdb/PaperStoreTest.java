@@ -0,0 +1,93 @@
+package io.paperdb;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the storage stack on a plain JVM, without Android classes on the classpath.
+ */
+public class PaperStoreTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<String> mMessages = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        PaperStore.setLogger(new PaperLogger() {
+            @Override
+            public void log(int priority, String message, Throwable error) {
+                synchronized (mMessages) {
+                    mMessages.add(message);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        PaperStore.setLogger(null);
+    }
+
+    private PaperStore open(BookOptions options) {
+        return new PaperStore(mFolder.getRoot().getPath(), "book",
+                new HashMap<Class, Serializer>(), options);
+    }
+
+    @Test
+    public void testReadWriteDelete() {
+        for (StorageEngine engine : StorageEngine.values()) {
+            PaperStore store = open(new BookOptions().storageEngine(engine));
+            store.write("city", "Lund");
+            store.write("numbers", Arrays.asList(1, 2, 3));
+            store.append("events", "started");
+
+            assertEquals("Lund", store.read("city"));
+            assertEquals(Arrays.asList(1, 2), store.readFirst("numbers", 2));
+            assertEquals(Arrays.asList("started"), store.list("events").range(0, 1));
+            assertEquals(2, store.getAllKeys().size());
+
+            store.delete("city");
+            assertFalse(store.contains("city"));
+            assertNull(store.read("city"));
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void testWarningsGoToLogger() throws IOException {
+        PaperStore store = open(new BookOptions().keyIndex(true));
+        store.write("city", "Lund");
+        FileOutputStream out = new FileOutputStream(
+                new File(store.getPath(), KeyIndex.SNAPSHOT_FILE_NAME));
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        // Index is rebuilt from the files
+        PaperStore reopened = open(new BookOptions().keyIndex(true));
+        assertTrue(reopened.contains("city"));
+        synchronized (mMessages) {
+            assertEquals(1, mMessages.size());
+            assertTrue(mMessages.get(0).startsWith("Couldn't load key index"));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.paperdb.jfr;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+import io.paperdb.PaperMetrics;
+import io.paperdb.PaperStore;
+import io.paperdb.PaperTracer;
+import jdk.jfr.EventType;
+
+/**
+ * Records sections of the book operations as {@link PaperSectionEvent}s, which are shown in
+ * JDK Mission Control with the thread, the key and the phase. Events are built only while
+ * a recording with them enabled is running. Install with
+ * {@code PaperStore.setTracer(new JfrTracer())}, see {@link PaperStore#setTracer(PaperTracer)}.
+ */
+public class JfrTracer implements PaperTracer {
+    private static final EventType EVENT_TYPE = EventType.getEventType(PaperSectionEvent.class);
+
+    // Events of the sections begun on the thread, the innermost first
+    private final ThreadLocal<ArrayDeque<PaperSectionEvent>> mSections =
+            ThreadLocal.withInitial(ArrayDeque::new);
+
+    @Override
+    public boolean isEnabled() {
+        return EVENT_TYPE.isEnabled();
+    }
+
+    @Override
+    public void beginSection(@NonNull PaperMetrics.Operation operation,
+                             @Nullable PaperMetrics.Phase phase, @Nullable String key) {
+        final PaperSectionEvent event = new PaperSectionEvent();
+        event.operation = operation.name();
+        event.phase = phase != null ? phase.name() : null;
+        event.key = key;
+        event.begin();
+        mSections.get().push(event);
+    }
+
+    @Override
+    public void endSection() {
+        final PaperSectionEvent event = mSections.get().poll();
+        if (event != null) {
+            // Drops the sections shorter than the threshold of the recording
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.paperdb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Section of an operation of a Paper book, see {@link JfrTracer}
+ */
+@Name(PaperSectionEvent.NAME)
+@Label("Paper Section")
+@Category("Paper")
+@Description("Operation of a Paper book or a phase of it")
+public class PaperSectionEvent extends jdk.jfr.Event {
+    public static final String NAME = "io.paperdb.Section";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Phase")
+    @Description("Phase of the operation, null for the whole operation")
+    String phase;
+
+    @Label("Key")
+    @Description("Key of the operation, null for operations on many keys")
+    String key;
+}
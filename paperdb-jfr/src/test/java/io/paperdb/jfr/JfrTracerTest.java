@@ -0,0 +1,77 @@
+package io.paperdb.jfr;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.paperdb.BookOptions;
+import io.paperdb.PaperStore;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JfrTracerTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        PaperStore.setTracer(null);
+    }
+
+    @Test
+    public void sectionsAreRecorded() throws IOException {
+        PaperStore.setTracer(new JfrTracer());
+        PaperStore store = new PaperStore(mFolder.getRoot().getPath(), "book",
+                new HashMap<Class, Serializer>(), new BookOptions());
+        // Not recorded
+        store.write("city", "Lund");
+
+        File dump = mFolder.newFile("paper.jfr");
+        Recording recording = new Recording();
+        recording.enable(PaperSectionEvent.NAME).withThreshold(Duration.ZERO);
+        recording.start();
+        store.write("city", "Kyiv");
+        assertEquals("Kyiv", store.read("city"));
+        recording.stop();
+        recording.dump(dump.toPath());
+        recording.close();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath());
+        Set<String> sections = new HashSet<>();
+        for (RecordedEvent event : events) {
+            sections.add(event.getString("operation") + "/" + event.getString("phase")
+                    + " " + event.getString("key"));
+        }
+        assertTrue(sections.contains("WRITE/null city"));
+        assertTrue(sections.contains("WRITE/SERIALIZE city"));
+        assertTrue(sections.contains("WRITE/FSYNC city"));
+        assertTrue(sections.contains("WRITE/RENAME city"));
+        assertTrue(sections.contains("READ/null city"));
+        assertTrue(sections.contains("READ/LOCK_WAIT city"));
+        assertTrue(sections.contains("READ/DESERIALIZE city"));
+        // One section per operation, the write before the recording is not there
+        int operations = 0;
+        for (RecordedEvent event : events) {
+            if (event.getString("phase") == null) {
+                operations++;
+            }
+        }
+        assertEquals(2, operations);
+    }
+}
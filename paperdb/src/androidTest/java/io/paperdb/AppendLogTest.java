@@ -0,0 +1,335 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AppendLogTest {
+
+    @Before
+    public void setUp() throws Exception {
+        // Compaction scheduled by storage instances of the previous test must not interfere
+        awaitCompaction();
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static void awaitCompaction() throws Exception {
+        PaperExecutors.compaction().submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    private static DbStorageAppendLog openStorage() {
+        return new DbStorageAppendLog(TestUtils.testLocation(), "book",
+                new HashMap<Class, Serializer>(),
+                new BookOptions().storageEngine(StorageEngine.APPEND_LOG));
+    }
+
+    @Test
+    public void testWriteReadDelete() {
+        DbStorageAppendLog storage = openStorage();
+        storage.insert("city", "Lund");
+        storage.insert("persons", TestDataGenerator.genPersonList(10));
+        assertEquals("Lund", storage.select("city"));
+        assertEquals(10, storage.<List<Person>>select("persons").size());
+        assertTrue(storage.exists("city"));
+        assertTrue(storage.lastModified("city") > 0);
+
+        storage.insert("city", "Kyiv");
+        assertEquals("Kyiv", storage.select("city"));
+
+        storage.deleteIfExists("city");
+        assertNull(storage.select("city"));
+        assertFalse(storage.exists("city"));
+        assertEquals(-1, storage.lastModified("city"));
+        assertEquals(Collections.singletonList("persons"), storage.getAllKeys());
+    }
+
+    @Test
+    public void testDataSurvivesReopen() {
+        DbStorageAppendLog storage = openStorage();
+        storage.insert("city", "Lund");
+        storage.insert("country", "Sweden");
+        storage.insert("city", "Kyiv");
+        storage.deleteIfExists("country");
+        storage.close();
+
+        DbStorageAppendLog reopened = openStorage();
+        assertEquals("Kyiv", reopened.select("city"));
+        assertNull(reopened.select("country"));
+        assertEquals(Collections.singletonList("city"), reopened.getAllKeys());
+
+        // New writes after reopen win over the records of the previous session
+        reopened.insert("city", "Victoria");
+        reopened.close();
+        assertEquals("Victoria", openStorage().select("city"));
+    }
+
+    @Test
+    public void testTornRecordIsIgnoredOnReopen() throws IOException {
+        DbStorageAppendLog storage = openStorage();
+        storage.insert("city", "Lund");
+        String segment = storage.getOriginalFilePath("city");
+        storage.close();
+
+        // Simulate crash in the middle of the append
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19,
+                20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30});
+        out.close();
+
+        DbStorageAppendLog reopened = openStorage();
+        assertEquals("Lund", reopened.select("city"));
+        reopened.insert("country", "Sweden");
+        reopened.close();
+        assertEquals("Sweden", openStorage().select("country"));
+    }
+
+    @Test
+    public void testCompactionKeepsLatestValues() {
+        DbStorageAppendLog storage = openStorage();
+        List<Person> large = TestDataGenerator.genPersonList(10000);
+        // Overwrite the same keys to fill a few segments with dead records
+        for (int i = 0; i < 6; i++) {
+            storage.insert("large", large);
+            storage.insert("small" + i, "value" + i);
+            storage.insert("counter", i);
+        }
+        storage.deleteIfExists("small0");
+        File folder = new File(storage.getRootFolderPath());
+        long sizeBefore = folderSize(folder);
+
+        storage.compact();
+
+        assertTrue(folderSize(folder) < sizeBefore);
+        assertEquals(5, (int) storage.<Integer>select("counter"));
+        assertEquals(10000, storage.<List<Person>>select("large").size());
+        assertNull(storage.select("small0"));
+        assertEquals("value5", storage.select("small5"));
+        storage.close();
+
+        // Hint files of compacted segments are used at startup
+        DbStorageAppendLog reopened = openStorage();
+        assertEquals(5, (int) reopened.<Integer>select("counter"));
+        assertEquals(10000, reopened.<List<Person>>select("large").size());
+        assertNull(reopened.select("small0"));
+        List<String> keys = new ArrayList<>(reopened.getAllKeys());
+        Collections.sort(keys);
+        assertEquals(7, keys.size());
+        assertEquals("counter", keys.get(0));
+    }
+
+    @Test
+    public void testCompactionInterruptedBeforeRenamesIsFinishedOnOpen() throws Exception {
+        DbStorageAppendLog storage = openStorage();
+        File folder = new File(storage.getRootFolderPath());
+        Map<String, byte[]> inputs = fillSegmentsForCompaction(storage);
+        storage.compact();
+        storage.close();
+
+        // Crash after the manifest is written, new segments are still temp files
+        for (String name : newSegments(folder, inputs)) {
+            assertTrue(new File(folder, name).renameTo(new File(folder, name + ".tmp")));
+        }
+        restoreInputs(folder, inputs, true);
+
+        assertLatestValues(openStorage());
+    }
+
+    @Test
+    public void testCompactionInterruptedBeforeManifestKeepsBothCopies() throws Exception {
+        DbStorageAppendLog storage = openStorage();
+        File folder = new File(storage.getRootFolderPath());
+        Map<String, byte[]> inputs = fillSegmentsForCompaction(storage);
+        storage.compact();
+        storage.close();
+
+        // Crash after the new segments are renamed, before the manifest is written
+        restoreInputs(folder, inputs, false);
+
+        DbStorageAppendLog reopened = openStorage();
+        assertLatestValues(reopened);
+        reopened.compact();
+        reopened.close();
+        assertLatestValues(openStorage());
+    }
+
+    /**
+     * @return content of the segment and hint files before the compaction
+     */
+    private static Map<String, byte[]> fillSegmentsForCompaction(DbStorageAppendLog storage)
+            throws Exception {
+        List<Person> large = TestDataGenerator.genPersonList(10000);
+        for (int i = 0; i < 6; i++) {
+            storage.insert("large", large);
+            storage.insert("small" + i, "value" + i);
+            storage.insert("counter", i);
+        }
+        storage.deleteIfExists("small0");
+        // Compaction scheduled by the writes must not change the files while they are read
+        awaitCompaction();
+        Map<String, byte[]> files = new HashMap<>();
+        for (File file : new File(storage.getRootFolderPath()).listFiles()) {
+            files.put(file.getName(), readFile(file));
+        }
+        return files;
+    }
+
+    private static List<String> newSegments(File folder, Map<String, byte[]> before) {
+        List<String> names = new ArrayList<>();
+        for (String name : folder.list()) {
+            if (name.endsWith(DbStorageAppendLog.SEGMENT_EXTENSION)
+                    && !before.containsKey(name)) {
+                names.add(name);
+            }
+        }
+        assertFalse(names.isEmpty());
+        return names;
+    }
+
+    private static void restoreInputs(File folder, Map<String, byte[]> inputs,
+                                      boolean withManifest) throws IOException {
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(manifest);
+        List<Long> ids = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : inputs.entrySet()) {
+            File file = new File(folder, entry.getKey());
+            if (!file.exists()) {
+                writeFile(file, entry.getValue());
+                String name = entry.getKey();
+                if (name.endsWith(DbStorageAppendLog.SEGMENT_EXTENSION)) {
+                    ids.add(Long.parseLong(name.substring(0,
+                            name.length() - DbStorageAppendLog.SEGMENT_EXTENSION.length())));
+                }
+            }
+        }
+        assertFalse(ids.isEmpty());
+        if (withManifest) {
+            out.writeInt(ids.size());
+            for (long id : ids) {
+                out.writeLong(id);
+            }
+            writeFile(new File(folder, DbStorageAppendLog.COMPACTION_MANIFEST),
+                    manifest.toByteArray());
+        }
+    }
+
+    private static void assertLatestValues(DbStorageAppendLog storage) {
+        assertEquals(5, (int) storage.<Integer>select("counter"));
+        assertEquals(10000, storage.<List<Person>>select("large").size());
+        assertNull(storage.select("small0"));
+        for (int i = 1; i < 6; i++) {
+            assertEquals("value" + i, storage.select("small" + i));
+        }
+        assertEquals(7, storage.getAllKeys().size());
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(content);
+        in.close();
+        return content;
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+
+    @Test
+    public void testConcurrentWritesDuringCompaction() throws Exception {
+        final DbStorageAppendLog storage = openStorage();
+        final List<Person> large = TestDataGenerator.genPersonList(2000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    for (int i = 0; i < 50; i++) {
+                        storage.insert("large" + thread, large);
+                        storage.insert("counter" + thread, i);
+                        assertEquals(i, (int) storage.<Integer>select("counter" + thread));
+                        if (i % 10 == 0) {
+                            storage.compact();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        storage.close();
+
+        DbStorageAppendLog reopened = openStorage();
+        for (int t = 0; t < 4; t++) {
+            assertEquals(49, (int) reopened.<Integer>select("counter" + t));
+            assertEquals(2000, reopened.<List<Person>>select("large" + t).size());
+        }
+    }
+
+    @Test
+    public void testBookWithAppendLogEngine() {
+        Book book = Paper.book("append-log",
+                new BookOptions().storageEngine(StorageEngine.APPEND_LOG));
+        book.destroy();
+        book.write("city", "Lund");
+        assertEquals("Lund", book.read("city"));
+        assertTrue(book.contains("city"));
+        assertTrue(book.getPath("city").endsWith(".log"));
+        book.delete("city");
+        assertFalse(book.contains("city"));
+    }
+
+    private static long folderSize(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+}
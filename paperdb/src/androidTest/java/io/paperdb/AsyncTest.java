@@ -0,0 +1,219 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    @Test
+    public void testWriteReadDeleteAsync() throws Exception {
+        Book book = TestUtils.openBook("basic", new BookOptions());
+        book.writeAsync("persons", TestDataGenerator.genPersonList(10));
+        List<Person> persons = book.<List<Person>>readAsync("persons").get();
+        assertEquals(10, persons.size());
+        assertEquals("default", book.readAsync("city", "default").get());
+
+        book.deleteAsync("persons").get();
+        assertFalse(book.contains("persons"));
+        assertNull(book.readAsync("persons").get());
+    }
+
+    @Test
+    public void testWritesOfSameKeyCompleteInOrder() throws Exception {
+        Book book = TestUtils.openBook("order", new BookOptions().ioExecutor(4, 16));
+        List<PaperFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(book.writeAsync("counter", i));
+            futures.add(book.writeAsync("other" + i % 10, i));
+        }
+        assertEquals(199, (int) book.<Integer>readAsync("counter").get());
+        for (PaperFuture<Void> future : futures) {
+            assertTrue(future.isDone());
+        }
+    }
+
+    @Test
+    public void testGetAllKeysAsyncSeesPreviousWrites() throws Exception {
+        Book book = TestUtils.openBook("keys", new BookOptions().ioExecutor(3, 8));
+        for (int i = 0; i < 30; i++) {
+            book.writeAsync("key" + i, i);
+        }
+        assertEquals(30, book.getAllKeysAsync().get().size());
+    }
+
+    @Test
+    public void testCallbackReceivesResultAndError() throws Exception {
+        Book book = TestUtils.openBook("callback", new BookOptions());
+        book.write("city", "Lund");
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        book.<String>readAsync("city").whenComplete(new PaperFuture.Callback<String>() {
+            @Override
+            public void onComplete(String value, Throwable throwable) {
+                result.set(value);
+                latch.countDown();
+            }
+        });
+        // Kryo can't serialize Thread
+        book.writeAsync("thread", new Thread()).whenComplete(new PaperFuture.Callback<Void>() {
+            @Override
+            public void onComplete(Void value, Throwable throwable) {
+                error.set(throwable);
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("Lund", result.get());
+        assertTrue(error.get() instanceof PaperDbException);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void testGetThrowsOperationError() throws Exception {
+        Book book = TestUtils.openBook("error", new BookOptions());
+        book.writeAsync("thread", new Thread()).get();
+    }
+
+    /**
+     * Keeps the I/O thread busy while serializing
+     */
+    private static class Blocker {
+    }
+
+    /**
+     * Serializer of {@link Blocker} which counts down started and waits for release
+     */
+    private static HashMap<Class, Serializer> blockingSerializers(final CountDownLatch started,
+                                                                  final CountDownLatch release,
+                                                                  final AtomicBoolean interrupted) {
+        HashMap<Class, Serializer> serializers = new HashMap<>();
+        serializers.put(Blocker.class, new Serializer<Blocker>() {
+            @Override
+            public void write(Kryo kryo, Output output, Blocker object) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+
+            @Override
+            public Blocker read(Kryo kryo, Input input, Class<Blocker> type) {
+                return new Blocker();
+            }
+        });
+        return serializers;
+    }
+
+    @Test
+    public void testFullQueueBlocksSubmitter() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Book book = TestUtils.openBook("backpressure",
+                blockingSerializers(new CountDownLatch(1), release, new AtomicBoolean()),
+                new BookOptions().ioExecutor(1, 2));
+        book.writeAsync("blocker", new Blocker());
+        book.writeAsync("a", 1);
+        book.writeAsync("b", 2);
+
+        // The queue is full, the next submission waits until the I/O thread is released
+        final CountDownLatch submitted = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                book.writeAsync("c", 3);
+                submitted.countDown();
+            }
+        }).start();
+        assertFalse(submitted.await(300, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+        assertEquals(3, (int) book.<Integer>readAsync("c").get());
+    }
+
+    @Test
+    public void testFullQueueRejectsSubmitterOnIoThread() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Book book = TestUtils.openBook("own-lane",
+                blockingSerializers(new CountDownLatch(1), release, new AtomicBoolean()),
+                new BookOptions().ioExecutor(1, 1));
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch called = new CountDownLatch(1);
+        PaperFuture<Void> blocker = book.writeAsync("blocker", new Blocker());
+        // Callback runs on the I/O thread while "a" still occupies the only slot
+        blocker.whenComplete(new PaperFuture.Callback<Void>() {
+            @Override
+            public void onComplete(Void result, Throwable ignored) {
+                try {
+                    book.writeAsync("b", 2);
+                } catch (RejectedExecutionException e) {
+                    error.set(e);
+                }
+                called.countDown();
+            }
+        });
+        book.writeAsync("a", 1);
+        release.countDown();
+
+        assertTrue(called.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof RejectedExecutionException);
+        assertEquals(1, (int) book.<Integer>readAsync("a").get());
+    }
+
+    @Test
+    public void testCancelDoesNotInterruptRunningOperation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Book book = TestUtils.openBook("cancel",
+                blockingSerializers(started, release, interrupted),
+                new BookOptions().ioExecutor(1, 4));
+        PaperFuture<Void> running = book.writeAsync("blocker", new Blocker());
+        PaperFuture<Void> queued = book.writeAsync("city", "Lund");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertFalse(running.cancel(true));
+        assertTrue(queued.cancel(true));
+        release.countDown();
+        running.get();
+        assertFalse(interrupted.get());
+        assertTrue(book.contains("blocker"));
+        assertFalse(book.contains("city"));
+    }
+}
@@ -0,0 +1,156 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BatchWriteTest {
+
+    @Before
+    public void setUp() throws Exception {
+        // Compaction scheduled by storage instances of the previous test must not interfere
+        PaperExecutors.compaction().submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static Book openBook(StorageEngine engine) {
+        return TestUtils.openBook(engine.name(), new BookOptions().storageEngine(engine));
+    }
+
+    private static Map<String, Object> genBatch(int size) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            values.put("person" + i, TestDataGenerator.genPersonList(i % 5 + 1));
+        }
+        return values;
+    }
+
+    @Test
+    public void testWriteAllDeleteAllPlainFile() {
+        writeAllDeleteAll(StorageEngine.PLAIN_FILE);
+    }
+
+    @Test
+    public void testWriteAllDeleteAllAppendLog() {
+        writeAllDeleteAll(StorageEngine.APPEND_LOG);
+    }
+
+    private void writeAllDeleteAll(StorageEngine engine) {
+        Book book = openBook(engine);
+        book.write("person0", "overwritten by batch");
+        book.writeAll(genBatch(100));
+        book.close();
+
+        Book reopened = openBook(engine);
+        assertEquals(100, reopened.getAllKeys().size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 5 + 1, reopened.<List<Person>>read("person" + i).size());
+        }
+
+        reopened.deleteAll(Arrays.asList("person0", "person1", "not-existing"));
+        assertFalse(reopened.contains("person0"));
+        reopened.close();
+
+        Book again = openBook(engine);
+        assertFalse(again.contains("person1"));
+        assertEquals(98, again.getAllKeys().size());
+    }
+
+    @Test(expected = PaperDbException.class)
+    public void testWriteAllRejectsNullValues() {
+        Map<String, Object> values = genBatch(3);
+        values.put("null", null);
+        openBook(StorageEngine.PLAIN_FILE).writeAll(values);
+    }
+
+    @Test
+    public void testUncommittedBatchIsDroppedOnReopen() throws IOException {
+        Book book = openBook(StorageEngine.PLAIN_FILE);
+        book.write("city", "Lund");
+        book.close();
+
+        // Crash after writing the new values, but before the commit file is complete
+        writeFile(new File(book.getPath("city") + ".tmp"), new byte[]{1, 2, 3});
+        writeFile(new File(book.getPath("country") + ".tmp"), new byte[]{1, 2, 3});
+        writeFile(new File(book.getPath(), "batch-1.commit"), new byte[]{1, 2, 3, 4, 5, 6});
+
+        Book reopened = openBook(StorageEngine.PLAIN_FILE);
+        assertEquals("Lund", reopened.read("city"));
+        assertEquals(Collections.singletonList("city"), reopened.getAllKeys());
+        String[] files = new File(reopened.getPath()).list();
+        assertEquals(Collections.singletonList("city.pt"), Arrays.asList(files));
+    }
+
+    @Test
+    public void testTornBatchIsDroppedFromAppendLog() throws IOException {
+        Book book = openBook(StorageEngine.APPEND_LOG);
+        book.write("city", "Lund");
+        String segment = book.getPath("city");
+        long sizeBeforeBatch = new File(segment).length();
+        book.writeAll(genBatch(20));
+        assertEquals(segment, book.getPath("person19"));
+        book.close();
+
+        // Crash in the middle of the batch append
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(sizeBeforeBatch + (file.length() - sizeBeforeBatch) / 2);
+        file.close();
+
+        Book reopened = openBook(StorageEngine.APPEND_LOG);
+        assertEquals("Lund", reopened.read("city"));
+        assertNull(reopened.read("person0"));
+        assertEquals(Collections.singletonList("city"), reopened.getAllKeys());
+    }
+
+    @Test
+    public void testLargeBatchIsSerializedInParallel() {
+        Book book = openBook(StorageEngine.PLAIN_FILE);
+        Map<String, Object> values = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            values.put("key" + i, TestDataGenerator.genPersonList(20));
+            keys.add("key" + i);
+        }
+        book.writeAll(values);
+        assertEquals(500, openBook(StorageEngine.PLAIN_FILE).getAllKeys().size());
+
+        book.deleteAll(keys);
+        assertTrue(openBook(StorageEngine.PLAIN_FILE).getAllKeys().isEmpty());
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+}
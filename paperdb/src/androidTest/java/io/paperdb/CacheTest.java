@@ -0,0 +1,146 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CacheTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static Book openBook(String name, long maxBytes, CachePolicy policy) {
+        return TestUtils.openBook(name, new BookOptions().cache(maxBytes, policy));
+    }
+
+    @Test
+    public void testReadIsServedFromCache() {
+        Book book = openBook("hits", 1024 * 1024, CachePolicy.DEFENSIVE_COPY);
+        book.write("persons", TestDataGenerator.genPersonList(10));
+
+        // Remove the file behind Paper's back, cached value is still returned
+        assertTrue(new File(book.getPath("persons")).delete());
+        List<Person> persons = book.read("persons");
+        assertEquals(10, persons.size());
+
+        CacheStats stats = book.getCacheStats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(0, stats.missCount());
+    }
+
+    @Test
+    public void testMissIsReadFromDiskAndCached() {
+        Book book = openBook("misses", 1024 * 1024, CachePolicy.DEFENSIVE_COPY);
+        book.write("city", "Lund");
+        book.close();
+        Book other = openBook("misses", 1024 * 1024, CachePolicy.DEFENSIVE_COPY);
+
+        assertEquals("Lund", other.read("city"));
+        assertEquals("Lund", other.read("city"));
+        assertEquals(1, other.getCacheStats().missCount());
+        assertEquals(1, other.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void testDefensiveCopyPolicy() {
+        Book book = openBook("copy", 1024 * 1024, CachePolicy.DEFENSIVE_COPY);
+        List<Person> written = TestDataGenerator.genPersonList(3);
+        book.write("persons", written);
+        written.clear();
+
+        List<Person> first = book.read("persons");
+        assertEquals(3, first.size());
+        first.clear();
+        List<Person> second = book.read("persons");
+        assertEquals(3, second.size());
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testImmutablePolicy() {
+        Book book = openBook("immutable", 1024 * 1024, CachePolicy.IMMUTABLE);
+        List<Person> written = TestDataGenerator.genPersonList(3);
+        book.write("persons", written);
+
+        assertSame(written, book.read("persons"));
+        assertSame(book.read("persons"), book.read("persons"));
+    }
+
+    @Test
+    public void testWriteAndDeleteUpdateCache() {
+        Book book = openBook("update", 1024 * 1024, CachePolicy.DEFENSIVE_COPY);
+        book.write("city", "Lund");
+        assertEquals("Lund", book.read("city"));
+        book.write("city", "Kyiv");
+        assertEquals("Kyiv", book.read("city"));
+        book.delete("city");
+        assertNull(book.read("city"));
+        assertFalse(book.contains("city"));
+
+        book.write("city", "Lund");
+        book.destroy();
+        assertNull(book.read("city"));
+    }
+
+    @Test
+    public void testCacheIsBoundedBySize() {
+        Book book = openBook("bounded", 4 * 1024, CachePolicy.IMMUTABLE);
+        for (int i = 0; i < 100; i++) {
+            book.write("persons" + i, TestDataGenerator.genPersonList(5));
+        }
+        CacheStats stats = book.getCacheStats();
+        assertTrue(stats.weightedSize() <= 4 * 1024);
+        assertTrue(stats.evictionCount() > 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(5, book.<List<Person>>read("persons" + i).size());
+        }
+    }
+
+    @Test
+    public void testFrequentlyReadKeySurvivesScan() {
+        Book book = openBook("frequency", 8 * 1024, CachePolicy.IMMUTABLE);
+        book.write("hot", TestDataGenerator.genPersonList(2));
+        for (int i = 0; i < 20; i++) {
+            book.read("hot");
+        }
+        // One-off writes of many other keys don't flush the hot key out
+        for (int i = 0; i < 200; i++) {
+            book.write("cold" + i, TestDataGenerator.genPersonList(5));
+            long hits = book.getCacheStats().hitCount();
+            book.read("hot");
+            assertEquals(hits + 1, book.getCacheStats().hitCount());
+        }
+        assertTrue(book.getCacheStats().evictionCount() > 0);
+    }
+
+    @Test
+    public void testCacheIsDisabledByDefault() {
+        Book book = TestUtils.openBook("disabled");
+        book.write("city", "Lund");
+        assertEquals("Lund", book.read("city"));
+        assertEquals(0, book.getCacheStats().hitCount());
+        assertEquals(0, book.getCacheStats().maxWeight());
+    }
+}
@@ -0,0 +1,181 @@
+package io.paperdb;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class CoalescingTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static Book openBook(String name, long debounceMillis) {
+        return TestUtils.openBook(name, new BookOptions().coalesceWrites(debounceMillis));
+    }
+
+    private static Book reopen(String name) {
+        return TestUtils.openBook(name);
+    }
+
+    @Test
+    public void testWritesAreCollapsed() {
+        Book book = openBook("collapse", 60 * 1000);
+        for (int i = 0; i < 100; i++) {
+            book.write("counter", i);
+            assertEquals(i, (int) book.<Integer>read("counter"));
+        }
+        // Nothing is written within the debounce window
+        assertFalse(new File(book.getPath("counter")).exists());
+        assertTrue(book.contains("counter"));
+        assertEquals(Collections.singletonList("counter"), book.getAllKeys());
+
+        book.flush();
+        assertEquals(99, (int) reopen("collapse").<Integer>read("counter"));
+    }
+
+    @Test
+    public void testDeleteIsCoalescedAsWell() {
+        Book book = openBook("delete", 60 * 1000);
+        book.write("city", "Lund");
+        book.flush();
+        book.write("city", "Kyiv");
+        book.delete("city");
+        assertNull(book.read("city"));
+        assertFalse(book.contains("city"));
+        assertEquals(-1, book.lastModified("city"));
+        assertTrue(book.getAllKeys().isEmpty());
+        // Still on disk until flushed
+        assertEquals("Lund", reopen("delete").read("city"));
+
+        book.flush();
+        assertNull(reopen("delete").read("city"));
+    }
+
+    @Test
+    public void testPendingChangeIsSavedAfterDebounce() {
+        Book book = openBook("debounce", 50);
+        book.write("city", "Lund");
+        File file = new File(book.getPath("city"));
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (!file.exists() && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertTrue(file.exists());
+        assertEquals("Lund", reopen("debounce").read("city"));
+    }
+
+    @Test
+    public void testBurstSettlesBeforeSave() {
+        Book book = TestUtils.openBook("burst", new BookOptions().coalesceWrites(300, 60 * 1000));
+        File file = new File(book.getPath("counter"));
+        // Burst lasts longer than the debounce window, but never pauses for that long
+        for (int i = 0; i < 20; i++) {
+            book.write("counter", i);
+            SystemClock.sleep(50);
+        }
+        assertFalse(file.exists());
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (!file.exists() && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertEquals(19, (int) reopen("burst").<Integer>read("counter"));
+    }
+
+    @Test
+    public void testHotKeyIsSavedAfterMaxWait() {
+        Book book = TestUtils.openBook("hot", new BookOptions().coalesceWrites(300, 400));
+        File file = new File(book.getPath("counter"));
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        int i = 0;
+        while (!file.exists() && SystemClock.uptimeMillis() < deadline) {
+            book.write("counter", i++);
+            SystemClock.sleep(20);
+        }
+        assertTrue(file.exists());
+    }
+
+    @Test
+    public void testLaterChangesAreNotAffectedByCallerMutations() {
+        Book book = openBook("copy", 60 * 1000);
+        List<Person> persons = new ArrayList<>(TestDataGenerator.genPersonList(5));
+        book.write("persons", persons);
+        persons.clear();
+        assertEquals(5, book.<List<Person>>read("persons").size());
+        book.<List<Person>>read("persons").clear();
+        book.flush();
+        assertEquals(5, reopen("copy").<List<Person>>read("persons").size());
+    }
+
+    @Test
+    public void testBatchSupersedesPendingChanges() {
+        Book book = openBook("batch", 60 * 1000);
+        book.write("a", 1);
+        book.write("b", 1);
+        HashMap<String, Object> values = new HashMap<>();
+        values.put("a", 2);
+        book.writeAll(values);
+        book.deleteAll(Arrays.asList("b"));
+        book.flush();
+
+        Book reopened = reopen("batch");
+        assertEquals(2, (int) reopened.<Integer>read("a"));
+        assertFalse(reopened.contains("b"));
+    }
+
+    @Test
+    public void testFailedBatchKeepsPendingChanges() {
+        Book book = openBook("failed-batch", 60 * 1000);
+        book.write("city", "Lund");
+        HashMap<String, Object> values = new HashMap<>();
+        values.put("city", "Kyiv");
+        values.put("thread", new Thread());
+        try {
+            book.writeAll(values);
+            fail();
+        } catch (PaperDbException expected) {
+        }
+        assertEquals("Lund", book.read("city"));
+
+        book.flush();
+        assertEquals("Lund", reopen("failed-batch").read("city"));
+    }
+
+    @Test
+    public void testDestroyDropsPendingChanges() {
+        Book book = openBook("destroy", 0);
+        for (int i = 0; i < 50; i++) {
+            book.write("key" + i, i);
+        }
+        book.destroy();
+        book.flush();
+        SystemClock.sleep(100);
+        assertTrue(book.getAllKeys().isEmpty());
+        assertTrue(reopen("destroy").getAllKeys().isEmpty());
+    }
+}
@@ -0,0 +1,134 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CompressionTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static DbStoragePlainFile openStorage(String name, int compressionMinSize) {
+        return new DbStoragePlainFile(TestUtils.testLocation(), name,
+                new HashMap<Class, Serializer>(),
+                new BookOptions().compression(compressionMinSize));
+    }
+
+    private static int codec(DbStoragePlainFile storage, String key) throws IOException {
+        File file = new File(storage.getOriginalFilePath(key));
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        return TableFile.checkHeader(ByteBuffer.wrap(content), null);
+    }
+
+    private static long fileSize(DbStoragePlainFile storage, String key) {
+        return new File(storage.getOriginalFilePath(key)).length();
+    }
+
+    @Test
+    public void testLargeValuesAreCompressed() throws IOException {
+        DbStoragePlainFile plain = openStorage("plain", 0);
+        DbStoragePlainFile compressed = openStorage("compressed", 1024);
+
+        List<Person> persons = TestDataGenerator.genPersonList(1000);
+        plain.insert("persons", persons);
+        compressed.insert("persons", persons);
+
+        assertEquals(TableFile.CODEC_NONE, codec(plain, "persons"));
+        assertEquals(TableFile.CODEC_DEFLATE, codec(compressed, "persons"));
+        assertTrue(fileSize(compressed, "persons") * 2 < fileSize(plain, "persons"));
+        assertEquals(persons, compressed.<List<Person>>select("persons"));
+    }
+
+    @Test
+    public void testSmallAndIncompressibleValuesAreStoredAsIs() throws IOException {
+        DbStoragePlainFile storage = openStorage("skipped", 1024);
+
+        storage.insert("city", "Lund");
+        byte[] noise = new byte[64 * 1024];
+        new Random(42).nextBytes(noise);
+        storage.insert("noise", noise);
+
+        assertEquals(TableFile.CODEC_NONE, codec(storage, "city"));
+        assertEquals(TableFile.CODEC_NONE, codec(storage, "noise"));
+        assertEquals("Lund", storage.select("city"));
+        assertArrayEquals(noise, storage.<byte[]>select("noise"));
+    }
+
+    @Test
+    public void testMixedBookIsReadable() throws IOException {
+        List<Person> small = TestDataGenerator.genPersonList(100);
+        // Larger than the memory mapping threshold even when compressed
+        List<String> large = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            large.add(Long.toHexString(random.nextLong()));
+        }
+
+        DbStoragePlainFile before = openStorage("mixed", 0);
+        before.insert("before", small);
+
+        DbStoragePlainFile after = openStorage("mixed", 1);
+        after.insert("small", small);
+        after.insert("large", large);
+        HashMap<String, Object> batch = new HashMap<>();
+        batch.put("batch", small);
+        after.insertAll(batch);
+
+        assertEquals(TableFile.CODEC_NONE, codec(after, "before"));
+        assertEquals(TableFile.CODEC_DEFLATE, codec(after, "small"));
+        assertEquals(TableFile.CODEC_DEFLATE, codec(after, "large"));
+        assertEquals(TableFile.CODEC_DEFLATE, codec(after, "batch"));
+        assertTrue(fileSize(after, "large") > 256 * 1024);
+
+        // Compressed files are readable regardless of the option
+        DbStoragePlainFile reopened = openStorage("mixed", 0);
+        assertEquals(small, reopened.select("before"));
+        assertEquals(small, reopened.select("small"));
+        assertEquals(large, reopened.select("large"));
+        assertEquals(small, reopened.select("batch"));
+    }
+
+    @Test
+    public void testEntropyOfRandomBytesIsHigh() {
+        byte[] noise = new byte[4096];
+        new Random(42).nextBytes(noise);
+        assertTrue(Compression.entropy(noise, 0, noise.length) > 7.5);
+        byte[] text = "aaaaaaaabbbbcccc".getBytes();
+        assertEquals(1.5, Compression.entropy(text, 0, text.length), 0.0001);
+    }
+}
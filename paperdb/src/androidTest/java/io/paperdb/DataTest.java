@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -50,6 +51,16 @@ public class DataTest {
         assertThat(persons).isEqualTo(inserted);
     }
 
+    @Test
+    public void testPutGetLargeList() {
+        // Large enough to be read through the memory mapped file
+        final List<Person> inserted = genPersonList(100000);
+        Paper.book().write("persons", inserted);
+        assertThat(new File(Paper.book().getPath("persons")).length()).isGreaterThan(1024 * 1024);
+        List<Person> persons = Paper.book().read("persons");
+        assertThat(persons).isEqualTo(inserted);
+    }
+
     @Test
     public void testPutMap() {
         final Map<Integer, Person> inserted = genPersonMap(10000);
@@ -0,0 +1,132 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.paperdb.PaperMetrics.Phase;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DurabilityTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static DbStoragePlainFile openStorage(String name, BookOptions options) {
+        return new DbStoragePlainFile(TestUtils.testLocation(), name,
+                new HashMap<Class, Serializer>(), options);
+    }
+
+    @Test
+    public void testWritesAreSyncedOnlyInSyncAlwaysMode() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        DbStoragePlainFile always = openStorage("always", new BookOptions().metrics(metrics));
+        always.insert("city", "Lund");
+        assertEquals(1, metrics.phase(Phase.FSYNC).count());
+        assertEquals(0, always.unsyncedFileCount());
+
+        metrics.reset();
+        DbStoragePlainFile none = openStorage("none",
+                new BookOptions().durability(Durability.SYNC_NONE).metrics(metrics));
+        none.insert("city", "Lund");
+        none.insert("city", "Kyiv");
+        Map<String, Object> values = new HashMap<>();
+        values.put("country", "Ukraine");
+        values.put("river", "Dnipro");
+        none.insertAll(values);
+        none.deleteIfExists("river");
+        assertEquals(0, metrics.phase(Phase.FSYNC).count());
+        assertEquals(3, none.unsyncedFileCount());
+        assertEquals("Kyiv", none.select("city"));
+        assertEquals("Ukraine", none.select("country"));
+
+        none.sync();
+        assertEquals(0, none.unsyncedFileCount());
+        assertEquals("Kyiv", none.select("city"));
+        assertEquals("Kyiv", openStorage("none", new BookOptions()).select("city"));
+    }
+
+    @Test
+    public void testPeriodicSyncRunsInBackground() throws InterruptedException {
+        DbStoragePlainFile storage = openStorage("periodic",
+                new BookOptions().periodicSync(50));
+        storage.insert("city", "Lund");
+        assertEquals(1, storage.unsyncedFileCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (storage.unsyncedFileCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, storage.unsyncedFileCount());
+
+        storage.insert("country", "Sweden");
+        storage.destroy();
+        assertEquals(0, storage.unsyncedFileCount());
+    }
+
+    @Test
+    public void testSyncSavesCoalescedWrites() {
+        Book book = TestUtils.openBook("coalesced",
+                new BookOptions().durability(Durability.SYNC_NONE).coalesceWrites(60000));
+        book.write("city", "Lund");
+        book.sync();
+        assertEquals("Lund", TestUtils.openBook("coalesced").read("city"));
+    }
+
+    @Test
+    public void testWriteReplacesFileWithRename() {
+        DbStoragePlainFile storage = openStorage("rename", new BookOptions());
+        storage.insert("city", "Lund");
+        storage.insert("city", "Kyiv");
+        assertEquals(Collections.singletonList("city.pt"),
+                Arrays.asList(new File(storage.getRootFolderPath()).list()));
+        assertEquals("Kyiv", storage.select("city"));
+    }
+
+    @Test
+    public void testLeftoversAreCleanedUpOnOpen() throws IOException {
+        DbStoragePlainFile storage = openStorage("leftovers", new BookOptions());
+        storage.insert("city", "Lund");
+        storage.insert("country", "Sweden");
+        File city = new File(storage.getOriginalFilePath("city"));
+        File country = new File(storage.getOriginalFilePath("country"));
+
+        // Failed write of an older version, which renamed the previous file to the backup
+        assertTrue(city.renameTo(new File(city.getPath() + ".bak")));
+        writeFile(city, new byte[]{1, 2, 3});
+        // Crash before the temp file is renamed
+        writeFile(new File(country.getPath() + ".tmp"), new byte[]{1, 2, 3});
+
+        DbStoragePlainFile reopened = openStorage("leftovers", new BookOptions());
+        assertEquals("Lund", reopened.select("city"));
+        assertEquals("Sweden", reopened.select("country"));
+        String[] files = new File(reopened.getRootFolderPath()).list();
+        Arrays.sort(files);
+        assertEquals(Arrays.asList("city.pt", "country.pt"), Arrays.asList(files));
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+    }
+}
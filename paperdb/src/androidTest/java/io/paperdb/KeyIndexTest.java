@@ -0,0 +1,134 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyIndexTest {
+
+    @Before
+    public void setUp() throws Exception {
+        // Wait for index snapshots scheduled by the previous tests
+        PaperExecutors.background().submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static DbStoragePlainFile openStorage(String name) {
+        return new DbStoragePlainFile(TestUtils.testLocation(), name,
+                new HashMap<Class, Serializer>(), new BookOptions().keyIndex(true));
+    }
+
+    @Test
+    public void testIndexFollowsChanges() {
+        DbStoragePlainFile storage = openStorage("changes");
+        storage.insert("city", "Lund");
+        storage.insert("country", "Sweden");
+        HashMap<String, Object> values = new HashMap<>();
+        values.put("a", 1);
+        values.put("b", 2);
+        storage.insertAll(values);
+        storage.deleteIfExists("country");
+        storage.deleteAll(Collections.singletonList("b"));
+
+        assertEquals(new HashSet<>(Arrays.asList("city", "a")),
+                new HashSet<>(storage.getAllKeys()));
+        assertTrue(storage.exists("city"));
+        assertFalse(storage.exists("country"));
+        assertEquals(new File(storage.getOriginalFilePath("city")).lastModified(),
+                storage.lastModified("city"));
+        assertEquals(-1, storage.lastModified("b"));
+
+        storage.destroy();
+        assertTrue(storage.getAllKeys().isEmpty());
+    }
+
+    @Test
+    public void testSnapshotIsLoadedOnStart() throws IOException {
+        DbStoragePlainFile storage = openStorage("snapshot");
+        storage.insert("city", "Lund");
+        storage.insert("country", "Sweden");
+        storage.saveIndex();
+        File snapshot = new File(storage.getRootFolderPath(), KeyIndex.SNAPSHOT_FILE_NAME);
+        assertTrue(snapshot.exists());
+
+        // Table added bypassing Paper isn't listed, so the keys come from the snapshot
+        writeFile(new File(storage.getOriginalFilePath("ghost")), new byte[]{1});
+        List<String> keys = openStorage("snapshot").getAllKeys();
+        assertEquals(new HashSet<>(Arrays.asList("city", "country")), new HashSet<>(keys));
+    }
+
+    @Test
+    public void testChangeInvalidatesSnapshot() {
+        DbStoragePlainFile storage = openStorage("invalidate");
+        storage.insert("city", "Lund");
+        storage.saveIndex();
+        File snapshot = new File(storage.getRootFolderPath(), KeyIndex.SNAPSHOT_FILE_NAME);
+        assertTrue(snapshot.exists());
+
+        storage.insert("country", "Sweden");
+        assertFalse(snapshot.exists());
+        // Index is rebuilt from the book folder
+        assertEquals(new HashSet<>(Arrays.asList("city", "country")),
+                new HashSet<>(openStorage("invalidate").getAllKeys()));
+    }
+
+    @Test
+    public void testCloseSavesSnapshot() {
+        DbStoragePlainFile storage = openStorage("close");
+        storage.insert("city", "Lund");
+        storage.close();
+        File snapshot = new File(storage.getRootFolderPath(), KeyIndex.SNAPSHOT_FILE_NAME);
+        assertTrue(snapshot.exists());
+
+        assertEquals(Collections.singletonList("city"), openStorage("close").getAllKeys());
+    }
+
+    @Test
+    public void testCorruptedSnapshotIsRebuilt() throws IOException {
+        DbStoragePlainFile storage = openStorage("corrupted");
+        storage.insert("city", "Lund");
+        storage.saveIndex();
+        File snapshot = new File(storage.getRootFolderPath(), KeyIndex.SNAPSHOT_FILE_NAME);
+        writeFile(snapshot, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        DbStoragePlainFile reopened = openStorage("corrupted");
+        assertEquals(Collections.singletonList("city"), reopened.getAllKeys());
+        assertEquals("Lund", reopened.select("city"));
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            stream.write(content);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.paperdb;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares {@link KeyLocker} with the previous semaphore-per-key implementation
+ * under contention and with many distinct keys.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class KeyLockerBenchmark {
+
+    private static final String TAG = "paper-benchmark";
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 100000;
+
+    interface Locker {
+        void acquire(String key);
+
+        void release(String key);
+
+        void acquireGlobal();
+
+        void releaseGlobal();
+    }
+
+    private static Locker striped() {
+        final KeyLocker locker = new KeyLocker();
+        return new Locker() {
+            @Override
+            public void acquire(String key) {
+                locker.acquire(key);
+            }
+
+            @Override
+            public void release(String key) {
+                locker.release(key);
+            }
+
+            @Override
+            public void acquireGlobal() {
+                locker.acquireGlobal();
+            }
+
+            @Override
+            public void releaseGlobal() {
+                locker.releaseGlobal();
+            }
+        };
+    }
+
+    private static Locker legacy() {
+        final LegacyKeyLocker locker = new LegacyKeyLocker();
+        return new Locker() {
+            @Override
+            public void acquire(String key) {
+                locker.acquire(key);
+            }
+
+            @Override
+            public void release(String key) {
+                locker.release(key);
+            }
+
+            @Override
+            public void acquireGlobal() {
+                locker.acquireGlobal();
+            }
+
+            @Override
+            public void releaseGlobal() {
+                locker.releaseGlobal();
+            }
+        };
+    }
+
+    @Test
+    public void testHotKeys() throws Exception {
+        final String[] keys = generateKeys(16);
+        long legacyTime = runThreads(legacy(), keys);
+        long stripedTime = runThreads(striped(), keys);
+        printResults("16 hot keys, " + THREADS + " threads", legacyTime, stripedTime);
+    }
+
+    @Test
+    public void testDistinctKeys() throws Exception {
+        final String[] keys = generateKeys(THREADS * OPERATIONS_PER_THREAD);
+        long legacyTime = runThreads(legacy(), keys);
+        long stripedTime = runThreads(striped(), keys);
+        printResults(keys.length + " distinct keys, " + THREADS + " threads",
+                legacyTime, stripedTime);
+    }
+
+    @Test
+    public void testGlobalLockAfterManyKeys() throws Exception {
+        final String[] keys = generateKeys(THREADS * OPERATIONS_PER_THREAD);
+        Locker legacy = legacy();
+        Locker striped = striped();
+        runThreads(legacy, keys);
+        runThreads(striped, keys);
+
+        long legacyTime = timeGlobalLock(legacy);
+        long stripedTime = timeGlobalLock(striped);
+        printResults("Global lock after " + keys.length + " keys", legacyTime, stripedTime);
+    }
+
+    private static long timeGlobalLock(Locker locker) {
+        long start = SystemClock.uptimeMillis();
+        for (int i = 0; i < 10; i++) {
+            locker.acquireGlobal();
+            locker.releaseGlobal();
+        }
+        return SystemClock.uptimeMillis() - start;
+    }
+
+    private static long runThreads(final Locker locker, final String[] keys) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t * OPERATIONS_PER_THREAD;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        String key = keys[(offset + i) % keys.length];
+                        locker.acquire(key);
+                        locker.release(key);
+                    }
+                    done.countDown();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        long startTime = SystemClock.uptimeMillis();
+        start.countDown();
+        done.await();
+        return SystemClock.uptimeMillis() - startTime;
+    }
+
+    private static String[] generateKeys(int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = "key" + i;
+        }
+        return keys;
+    }
+
+    private static void printResults(String name, long legacyTime, long stripedTime) {
+        Log.i(TAG, String.format("..................................\n%s " +
+                "\n Semaphore per key: %d \n Striped locks: %d", name, legacyTime, stripedTime));
+    }
+}
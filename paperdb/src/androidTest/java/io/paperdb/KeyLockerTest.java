@@ -0,0 +1,89 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyLockerTest {
+
+    @Test
+    public void testSameKeyIsMutuallyExclusive() throws Exception {
+        final KeyLocker locker = new KeyLocker();
+        final int[] counter = new int[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        locker.acquire("counter");
+                        counter[0]++;
+                        locker.release("counter");
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, counter[0]);
+    }
+
+    @Test
+    public void testGlobalLockWaitsForKeyLocks() throws Exception {
+        final KeyLocker locker = new KeyLocker();
+        locker.acquire("city");
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                locker.acquireGlobal();
+                acquired.countDown();
+                locker.releaseGlobal();
+            }
+        }).start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        locker.release("city");
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAcquireAllWithSharedStripe() throws Exception {
+        // A single stripe makes every key share the same lock
+        final KeyLocker locker = new KeyLocker(1);
+        final Set<String> keys = new HashSet<>(Arrays.asList("a", "b", "c"));
+        locker.acquireAll(keys);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                locker.acquire("d");
+                acquired.countDown();
+                locker.release("d");
+            }
+        }).start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        locker.releaseAll(keys);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStripeCountMustBePowerOfTwo() {
+        new KeyLocker(100);
+    }
+}
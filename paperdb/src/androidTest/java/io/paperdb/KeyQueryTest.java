@@ -0,0 +1,135 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyQueryTest {
+
+    @Before
+    public void setUp() throws Exception {
+        // Wait for background work and compaction scheduled by the previous tests
+        Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        PaperExecutors.background().submit(noop).get();
+        PaperExecutors.compaction().submit(noop).get();
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static Book openBook(String name, BookOptions options) {
+        Book book = TestUtils.openBook(name, options);
+        book.write("user:1:name", "Ann");
+        book.write("user:1:age", 30);
+        book.write("user:12:name", "Bob");
+        book.write("user:2:name", "Eve");
+        book.write("users", 3);
+        book.write("city", "Lund");
+        return book;
+    }
+
+    private static List<String> toList(Iterable<String> keys) {
+        List<String> list = new ArrayList<>();
+        for (String key : keys) {
+            list.add(key);
+        }
+        return list;
+    }
+
+    private void assertQueries(Book book) {
+        assertEquals(Arrays.asList("user:1:age", "user:1:name"), toList(book.keys("user:1:")));
+        // ':' sorts after digits
+        assertEquals(Arrays.asList("user:12:name", "user:1:age", "user:1:name", "user:2:name"),
+                toList(book.keys("user:")));
+        assertEquals(Arrays.asList("user:2:name", "users"), toList(book.keys("user:2", null)));
+        assertEquals(Arrays.asList("city", "user:12:name", "user:1:age"),
+                toList(book.keys("a", "user:1:b")));
+        assertEquals(6, toList(book.keys("")).size());
+        assertFalse(book.keys("country").iterator().hasNext());
+    }
+
+    @Test
+    public void testPlainFileWithoutIndex() {
+        assertQueries(openBook("plain", new BookOptions()));
+    }
+
+    @Test
+    public void testPlainFileWithIndex() {
+        assertQueries(openBook("indexed", new BookOptions().keyIndex(true)));
+    }
+
+    @Test
+    public void testAppendLog() {
+        assertQueries(openBook("log", new BookOptions().storageEngine(StorageEngine.APPEND_LOG)));
+    }
+
+    @Test
+    public void testCoalescedChangesAreMerged() {
+        Book book = openBook("coalesced", new BookOptions().coalesceWrites(60 * 1000));
+        book.flush();
+        book.write("user:1:city", "Lund");
+        book.delete("user:1:name");
+        assertEquals(Arrays.asList("user:1:age", "user:1:city"), toList(book.keys("user:1:")));
+        book.flush();
+        assertEquals(Arrays.asList("user:1:age", "user:1:city"), toList(book.keys("user:1:")));
+    }
+
+    @Test
+    public void testPagesCoverAllKeysOnce() {
+        Book book = openBook("pages", new BookOptions().keyIndex(true));
+        for (int i = 0; i < 25; i++) {
+            book.write(String.format("item:%02d", i), i);
+        }
+        List<String> keys = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            KeyPage page = book.keys("item:", cursor, 10);
+            keys.addAll(page.keys());
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(3, pages);
+        assertEquals(25, keys.size());
+        assertEquals("item:00", keys.get(0));
+        assertEquals("item:24", keys.get(24));
+
+        KeyPage exact = book.keys("user:1:", null, 2);
+        assertEquals(2, exact.keys().size());
+        assertNull(exact.nextCursor());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testKeysCantBeRemovedThroughIterator() {
+        Book book = openBook("remove", new BookOptions().keyIndex(true));
+        Iterator<String> iterator = book.keys("user:").iterator();
+        iterator.next();
+        iterator.remove();
+    }
+
+    @Test
+    public void testPrefixEnd() {
+        assertEquals("user;", KeyRanges.prefixEnd("user:"));
+        assertEquals("b", KeyRanges.prefixEnd("a\uffff"));
+        assertNull(KeyRanges.prefixEnd("\uffff"));
+        assertNull(KeyRanges.prefixEnd(""));
+    }
+}
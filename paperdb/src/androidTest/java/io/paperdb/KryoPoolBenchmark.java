@@ -0,0 +1,136 @@
+package io.paperdb;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+
+/**
+ * Compares heap retained by Kryo instances kept per thread and book with the shared pool,
+ * with 64 worker threads serializing values of 10 books.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class KryoPoolBenchmark {
+
+    private static final String TAG = "paper-benchmark";
+    private static final int THREADS = 64;
+    private static final int BOOKS = 10;
+    private static final int OPERATIONS_PER_BOOK = 20;
+
+    private interface Serialization {
+        void serialize(int book, Object value);
+    }
+
+    @Test
+    public void testRetainedMemory() throws Exception {
+        final List<Person> value = TestDataGenerator.genPersonList(10);
+        final HashMap<Class, Serializer> serializers = new HashMap<>();
+
+        // Previous approach, ThreadLocal<Kryo> per book
+        final List<ThreadLocal<Kryo>> threadLocals = new ArrayList<>();
+        for (int i = 0; i < BOOKS; i++) {
+            threadLocals.add(new ThreadLocal<Kryo>() {
+                @Override
+                protected Kryo initialValue() {
+                    return KryoFactory.create(serializers, false);
+                }
+            });
+        }
+        Result perThread = run(value, new Serialization() {
+            @Override
+            public void serialize(int book, Object value) {
+                write(threadLocals.get(book).get(), value);
+            }
+        });
+
+        final KryoPool pool = KryoPool.of(serializers, false);
+        Result pooled = run(value, new Serialization() {
+            @Override
+            public void serialize(int book, Object value) {
+                Kryo kryo = pool.borrow();
+                try {
+                    write(kryo, value);
+                } finally {
+                    pool.release(kryo);
+                }
+            }
+        });
+
+        Log.i(TAG, String.format("..................................\n" +
+                        "Kryo memory, %d threads, %d books" +
+                        "\n Per thread: %d KB retained, %d ms" +
+                        "\n Pool: %d KB retained, %d ms, %d instances created",
+                THREADS, BOOKS, perThread.retainedBytes / 1024, perThread.time,
+                pooled.retainedBytes / 1024, pooled.time, pool.createdCount()));
+    }
+
+    private static class Result {
+        long retainedBytes;
+        long time;
+    }
+
+    private static Result run(final Object value, final Serialization serialization)
+            throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long before = usedMemory();
+            long start = SystemClock.uptimeMillis();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < OPERATIONS_PER_BOOK; i++) {
+                            for (int book = 0; book < BOOKS; book++) {
+                                serialization.serialize(book, value);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            Result result = new Result();
+            result.time = SystemClock.uptimeMillis() - start;
+            // Worker threads are still alive, so are their thread locals
+            result.retainedBytes = usedMemory() - before;
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void write(Kryo kryo, Object value) {
+        Output output = new Output(4096, -1);
+        kryo.writeObject(output, new PaperTable<>(value));
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            SystemClock.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,132 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KryoPoolTest {
+
+    private static class Point {
+        int x;
+    }
+
+    private static class PointSerializer extends Serializer<Point> {
+        @Override
+        public void write(Kryo kryo, Output output, Point object) {
+            output.writeInt(object.x);
+        }
+
+        @Override
+        public Point read(Kryo kryo, Input input, Class<Point> type) {
+            Point point = new Point();
+            point.x = input.readInt();
+            return point;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    @Test
+    public void testBooksWithSameSerializersSharePool() {
+        HashMap<Class, Serializer> serializers = new HashMap<>();
+        serializers.put(Point.class, new PointSerializer());
+        KryoPool pool = KryoPool.of(serializers, false);
+        assertSame(pool, KryoPool.of(new HashMap<>(serializers), false));
+        assertNotSame(pool, KryoPool.of(serializers, true));
+        assertNotSame(pool, KryoPool.of(new HashMap<Class, Serializer>(), false));
+    }
+
+    @Test
+    public void testIdleInstancesAreReused() {
+        KryoPool pool = KryoPool.of(new HashMap<Class, Serializer>(), false);
+        Kryo kryo = pool.borrow();
+        pool.release(kryo);
+        long created = pool.createdCount();
+        for (int i = 0; i < 100; i++) {
+            Kryo borrowed = pool.borrow();
+            pool.release(borrowed);
+        }
+        assertEquals(created, pool.createdCount());
+    }
+
+    @Test
+    public void testManyThreadsKeepBoundedInstances() throws Exception {
+        final HashMap<Class, Serializer> serializers = new HashMap<>();
+        serializers.put(Point.class, new PointSerializer());
+        final Book book = TestUtils.openBook("threads", serializers, new BookOptions());
+        final KryoPool pool = KryoPool.of(serializers, false);
+        final long created = pool.createdCount();
+
+        // Short-lived threads, one operation each
+        for (int round = 0; round < 8; round++) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int x = round * 8 + t;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Point point = new Point();
+                        point.x = x;
+                        book.write("point" + x, point);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        // One instance per thread would be 64. Each round reuses the idle instances
+        // and creates only the ones above the idle limit.
+        int maxCreated = 8 + 7 * Math.max(0, 8 - KryoPool.MAX_IDLE);
+        assertTrue(pool.createdCount() - created <= maxCreated);
+        assertEquals(63, book.<Point>read("point63").x);
+    }
+
+    @Test
+    public void testAddedSerializerSwitchesPool() {
+        final HashMap<Class, Serializer> serializers = new HashMap<>();
+        KryoPool.Holder holder = new KryoPool.Holder(serializers);
+        KryoPool before = holder.get();
+        assertSame(before, holder.get());
+
+        serializers.put(Point.class, new PointSerializer());
+        KryoPool after = holder.get();
+        assertNotSame(before, after);
+        assertSame(after, KryoPool.of(serializers, false));
+    }
+
+    @Test
+    public void testCompatibleInstanceReadsData() {
+        KryoPool pool = KryoPool.of(new HashMap<Class, Serializer>(), true);
+        Person person = new Person();
+        person.setName("Ann");
+        assertEquals("Ann", pool.copy(person).getName());
+    }
+}
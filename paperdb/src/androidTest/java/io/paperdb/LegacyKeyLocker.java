@@ -5,11 +5,10 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 
 /**
- * This class allows multiple threads to lock against a string key
- * <p>
- * Created by hiperion on 2017/3/15.
+ * Previous implementation of {@link KeyLocker} with a fair semaphore per key,
+ * kept as the baseline for {@link KeyLockerBenchmark}.
  */
-class KeyLocker {
+class LegacyKeyLocker {
     private ConcurrentMap<String, Semaphore> semaphoreMap = new ConcurrentHashMap<>();
     // Global semaphore is required to block global operations involving _all_ keys
     // like destroying the paper folder or getting all keys
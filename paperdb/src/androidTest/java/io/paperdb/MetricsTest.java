@@ -0,0 +1,229 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.paperdb.PaperMetrics.Operation;
+import io.paperdb.PaperMetrics.Phase;
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class MetricsTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static class RecordingMetrics implements PaperMetrics {
+        final List<OperationMetrics> operations = new ArrayList<>();
+
+        @Override
+        public synchronized void onOperation(OperationMetrics metrics) {
+            operations.add(metrics);
+        }
+
+        synchronized OperationMetrics last() {
+            return operations.get(operations.size() - 1);
+        }
+    }
+
+    @Test
+    public void testPhasesAreReported() {
+        RecordingMetrics metrics = new RecordingMetrics();
+        Book book = TestUtils.openBook("phases", new BookOptions().metrics(metrics));
+        book.destroy();
+        OperationMetrics destroy = metrics.last();
+        assertEquals(Operation.DESTROY, destroy.operation());
+        assertEquals(1, destroy.phaseCount(Phase.LOCK_WAIT));
+        assertTrue(destroy.globalLockHoldNanos() > 0);
+
+        List<Person> persons = TestDataGenerator.genPersonList(10);
+        book.write("persons", persons);
+        OperationMetrics write = metrics.last();
+        assertEquals(Operation.WRITE, write.operation());
+        assertEquals("persons", write.key());
+        assertEquals(new File(book.getPath("persons")).length(), write.bytesWritten());
+        for (Phase phase : new Phase[]{Phase.LOCK_WAIT, Phase.SERIALIZE, Phase.WRITE,
+                Phase.FSYNC, Phase.RENAME}) {
+            assertEquals(phase.toString(), 1, write.phaseCount(phase));
+        }
+        assertEquals(0, write.phaseCount(Phase.READ));
+        assertTrue(write.durationNanos() >= write.phaseNanos(Phase.SERIALIZE)
+                + write.phaseNanos(Phase.WRITE) + write.phaseNanos(Phase.FSYNC));
+
+        // Folder is synced only if asked to
+        Book syncedFolder = TestUtils.openBook("phases",
+                new BookOptions().metrics(metrics).syncDirectory(true));
+        syncedFolder.write("persons", persons);
+        assertEquals(2, metrics.last().phaseCount(Phase.FSYNC));
+
+        assertEquals(persons, book.read("persons"));
+        OperationMetrics read = metrics.last();
+        assertEquals(Operation.READ, read.operation());
+        assertEquals(write.bytesWritten(), read.bytesRead());
+        assertEquals(1, read.phaseCount(Phase.READ));
+        assertEquals(1, read.phaseCount(Phase.DESERIALIZE));
+        assertFalse(read.compatFallback());
+
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("a", 1);
+        batch.put("b", 2);
+        book.writeAll(batch);
+        OperationMetrics commit = metrics.last();
+        assertEquals(Operation.BATCH, commit.operation());
+        assertNull(commit.key());
+        // Two files and the commit file, then the directory twice
+        assertEquals(5, commit.phaseCount(Phase.FSYNC));
+        assertEquals(1, commit.phaseCount(Phase.RENAME));
+
+        assertEquals(3, book.getAllKeys().size());
+        assertEquals(Operation.GET_ALL_KEYS, metrics.last().operation());
+        assertTrue(book.contains("a"));
+        assertEquals(Operation.EXISTS, metrics.last().operation());
+        book.delete("a");
+        assertEquals(Operation.DELETE, metrics.last().operation());
+        assertEquals(1, metrics.last().phaseCount(Phase.WRITE));
+    }
+
+    @Test
+    public void testHistogramsAggregateOperations() {
+        HistogramMetrics metrics = new HistogramMetrics();
+        Book book = TestUtils.openBook("histograms", new BookOptions().metrics(metrics));
+        // Operations before the reset are not counted
+        book.destroy();
+        metrics.reset();
+
+        for (int i = 0; i < 20; i++) {
+            book.write("key" + i, Collections.singletonList(i));
+            book.read("key" + i);
+        }
+        assertEquals(20, metrics.latency(Operation.WRITE).count());
+        assertEquals(20, metrics.latency(Operation.READ).count());
+        assertEquals(40, metrics.phase(Phase.LOCK_WAIT).count());
+        assertEquals(20, metrics.phase(Phase.FSYNC).count());
+        assertEquals(0, metrics.latency(Operation.DELETE).count());
+        assertEquals(metrics.bytesWritten(), metrics.bytesRead());
+        LatencyHistogram writes = metrics.latency(Operation.WRITE);
+        assertTrue(writes.valueAtPercentile(50) <= writes.valueAtPercentile(99));
+        assertTrue(writes.valueAtPercentile(100) == writes.max());
+        assertEquals(0, metrics.compatFallbacks());
+    }
+
+    @Test
+    public void testCompatFallbackIsCounted() throws IOException {
+        HistogramMetrics metrics = new HistogramMetrics();
+        Book book = TestUtils.openBook("compat", new BookOptions().metrics(metrics));
+        book.write("marker", 1);
+        InputStream in = getClass().getClassLoader().getResourceAsStream("recipe_1.5.pt");
+        FileOutputStream out = new FileOutputStream(book.getPath("recipe"));
+        byte[] buffer = new byte[2048];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        out.close();
+        in.close();
+
+        VersionUpgradeTest.Recipe recipe = book.read("recipe");
+        assertEquals("chocolate cake", recipe.name);
+        assertEquals(1, metrics.compatFallbacks());
+    }
+
+    @Test
+    public void testHistogramPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100000, histogram.count());
+        assertEquals(100000000, histogram.max());
+        assertEquals(50000500.0, histogram.mean(), 0.1);
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9}) {
+            long expected = (long) (percentile * 1000 * 1000);
+            long actual = histogram.valueAtPercentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected
+                    && actual <= expected * 1.035);
+        }
+        histogram.reset();
+        assertEquals(0, histogram.valueAtPercentile(99));
+    }
+
+    private static class RecordingTracer implements PaperTracer {
+        final List<String> sections = new ArrayList<>();
+        final List<String> open = new ArrayList<>();
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void beginSection(Operation operation, Phase phase, String key) {
+            String name = AndroidTracer.sectionName(operation, phase, key);
+            sections.add(name);
+            open.add(name);
+        }
+
+        @Override
+        public void endSection() {
+            open.remove(open.size() - 1);
+        }
+    }
+
+    @Test
+    public void testSectionsAreTraced() throws IOException {
+        Book book = TestUtils.openBook("tracing");
+        RecordingTracer tracer = new RecordingTracer();
+        Paper.setTracer(tracer);
+        try {
+            book.write("city", "Lund");
+            assertEquals("paperdb WRITE city", tracer.sections.get(0));
+            assertTrue(tracer.sections.contains("paperdb WRITE/SERIALIZE city"));
+            assertTrue(tracer.sections.contains("paperdb WRITE/FSYNC city"));
+            assertTrue(tracer.open.isEmpty());
+
+            // Sections of the failed operation are ended too
+            FileOutputStream out = new FileOutputStream(book.getPath("broken"));
+            out.write(new byte[]{1, 2, 3});
+            out.close();
+            tracer.sections.clear();
+            try {
+                book.read("broken");
+                fail();
+            } catch (PaperDbException expected) {
+            }
+            assertEquals("paperdb READ broken", tracer.sections.get(0));
+            assertTrue(tracer.sections.contains("paperdb READ/DESERIALIZE broken"));
+            assertTrue(tracer.open.isEmpty());
+        } finally {
+            Paper.setTracer(null);
+        }
+        String longKey = new String(new char[200]).replace('\0', 'k');
+        assertEquals(127, AndroidTracer.sectionName(Operation.READ, Phase.READ, longKey)
+                .length());
+    }
+}
@@ -0,0 +1,166 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PaperListTest {
+
+    private static final int SEGMENT_SIZE = 4;
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static <E> PaperList<E> openList(String key) {
+        return new PaperList<>(TestUtils.testLocation() + File.separator + "book", key,
+                new KryoPool.Holder(new HashMap<Class, Serializer>()), SEGMENT_SIZE);
+    }
+
+    private static File listDir(String key) {
+        return new File(TestUtils.testLocation() + File.separator + "book", key + ".list");
+    }
+
+    private int segmentCount(String key) {
+        String[] names = listDir(key).list();
+        int count = 0;
+        for (String name : names != null ? names : new String[0]) {
+            if (name.endsWith(".seg")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<Integer> numbers(int from, int to) {
+        List<Integer> numbers = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            numbers.add(i);
+        }
+        return numbers;
+    }
+
+    @Test
+    public void testAppendedElementsAreReadByIndex() {
+        PaperList<Integer> list = openList("events");
+        assertEquals(0, list.size());
+        assertTrue(list.range(0, 10).isEmpty());
+
+        for (int i = 0; i < 10; i++) {
+            list.append(i);
+        }
+        list.appendAll(numbers(10, 15));
+        assertEquals(15, list.size());
+        assertEquals(4, segmentCount("events"));
+        assertEquals(7, (int) list.get(7));
+        assertEquals(numbers(3, 11), list.range(3, 8));
+        assertEquals(numbers(12, 15), list.range(12, 100));
+
+        // State is restored from the files
+        PaperList<Integer> reopened = openList("events");
+        assertEquals(15, reopened.size());
+        assertEquals(numbers(0, 15), reopened.range(0, 15));
+    }
+
+    @Test
+    public void testTrimDropsWholeSegments() {
+        PaperList<Integer> list = openList("trim");
+        list.appendAll(numbers(0, 10));
+
+        list.trim(3);
+        assertEquals(7, list.size());
+        assertEquals(3, (int) list.get(0));
+        assertEquals(3, segmentCount("trim"));
+
+        list.trim(2);
+        assertEquals(numbers(5, 10), list.range(0, 10));
+        assertEquals(2, segmentCount("trim"));
+
+        PaperList<Integer> reopened = openList("trim");
+        assertEquals(numbers(5, 10), reopened.range(0, 10));
+
+        reopened.trim(100);
+        assertEquals(0, reopened.size());
+        reopened.append(10);
+        assertEquals(Arrays.asList(10), reopened.range(0, 10));
+        assertEquals(Arrays.asList(10), openList("trim").range(0, 10));
+    }
+
+    @Test
+    public void testTornRecordIsCutOff() throws Exception {
+        PaperList<String> list = openList("torn");
+        list.appendAll(Arrays.asList("a", "b"));
+
+        File segment = listDir("torn").listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            file.seek(file.length());
+            file.write(new byte[]{0, 0, 0, 9, 1, 2});
+        } finally {
+            file.close();
+        }
+
+        PaperList<String> reopened = openList("torn");
+        assertEquals(2, reopened.size());
+        reopened.append("c");
+        assertEquals(Arrays.asList("a", "b", "c"), openList("torn").range(0, 10));
+    }
+
+    @Test
+    public void testBookListsAreSeparateFromValues() {
+        Book book = TestUtils.openBook("book");
+        List<Person> persons = TestDataGenerator.genPersonList(3);
+        book.write("log", "value");
+        book.append("log", persons.get(0)).append("log", persons.get(1));
+        book.<Person>list("log").append(persons.get(2));
+
+        assertEquals("value", book.read("log"));
+        assertEquals(Arrays.asList("log"), book.getAllKeys());
+        assertEquals(persons, book.<Person>list("log").range(0, 3));
+        try {
+            book.list("log").get(3);
+            fail("Index is out of bounds");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        book.destroy();
+        assertEquals(0, book.list("log").size());
+        assertFalse(listDir("log").exists());
+    }
+
+    @Test
+    public void testClearDeletesFiles() {
+        PaperList<Integer> list = openList("clear");
+        list.appendAll(numbers(0, 10));
+        list.clear();
+        assertFalse(listDir("clear").exists());
+        assertEquals(0, list.size());
+        list.append(1);
+        assertEquals(Arrays.asList(1), list.range(0, 1));
+    }
+}
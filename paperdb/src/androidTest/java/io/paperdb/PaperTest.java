@@ -23,6 +23,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 @RunWith(AndroidJUnit4.class)
 public class PaperTest {
@@ -254,4 +256,23 @@ public class PaperTest {
         assertTrue(path.endsWith("/io.paperdb.test/files/io.paperdb/my_key.pt"));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBookIsReturnedOnlyForEqualOptions() {
+        Book book = Paper.book("options", new BookOptions().cache(1024, CachePolicy.IMMUTABLE));
+        assertSame(book, Paper.book("options"));
+        assertSame(book, Paper.book("options",
+                new BookOptions().cache(1024, CachePolicy.IMMUTABLE)));
+        try {
+            Paper.book("options", new BookOptions().keyIndex(true));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        // Options are copied, later changes of the instance don't apply to the opened book
+        BookOptions options = new BookOptions();
+        Book other = Paper.book("options2", options);
+        options.keyIndex(true);
+        assertSame(other, Paper.book("options2", new BookOptions()));
+    }
+
+}
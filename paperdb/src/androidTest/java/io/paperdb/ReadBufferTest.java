@@ -0,0 +1,61 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ReadBufferTest {
+
+    @Test
+    public void testBufferIsSharedBetweenThreads() throws Exception {
+        final ReadBuffer buffer = ReadBuffer.obtain();
+        final byte[] bytes = buffer.bytes(100 * 1024);
+        assertTrue(bytes.length >= 100 * 1024);
+        buffer.recycle();
+
+        // Buffer recycled by one thread is taken by another one, other idle buffers may be
+        // taken first
+        final boolean[] reused = new boolean[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<ReadBuffer> taken = new ArrayList<>();
+                for (int i = 0; i < ReadBuffer.MAX_IDLE; i++) {
+                    ReadBuffer next = ReadBuffer.obtain();
+                    reused[0] |= next.bytes(1024) == bytes;
+                    taken.add(next);
+                }
+                for (ReadBuffer next : taken) {
+                    next.recycle();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertTrue(reused[0]);
+    }
+
+    @Test
+    public void testLargeBufferIsNotRetained() {
+        ReadBuffer buffer = ReadBuffer.obtain();
+        buffer.bytes(ReadBuffer.MAX_RETAINED_SIZE + 1);
+        buffer.recycle();
+
+        List<ReadBuffer> taken = new ArrayList<>();
+        for (int i = 0; i < ReadBuffer.MAX_IDLE; i++) {
+            ReadBuffer next = ReadBuffer.obtain();
+            assertTrue(next.bytes(1).length <= ReadBuffer.MAX_RETAINED_SIZE);
+            taken.add(next);
+        }
+        for (ReadBuffer next : taken) {
+            next.recycle();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.PhoneNumber;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SchemaDictionaryTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static Book openBook(String name, boolean dictionary) {
+        return TestUtils.openBook(name, new BookOptions().schemaDictionary(dictionary));
+    }
+
+    private static File dictionaryFile(String name) {
+        return new File(TestUtils.testLocation() + File.separator + name,
+                SchemaDictionary.FILE_NAME);
+    }
+
+    @Test
+    public void testNamesAreWrittenOnce() {
+        Book plain = openBook("plain", false);
+        Book book = openBook("dictionary", true);
+
+        List<Person> persons = TestDataGenerator.genPersonList(3);
+        plain.write("persons", persons);
+        plain.write("first", persons.get(0));
+        book.write("persons", persons);
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("first", persons.get(0));
+        batch.put("numbers", Arrays.asList(1, 2, 3));
+        book.writeAll(batch);
+
+        // Names take more space than the data of small objects
+        assertTrue(new File(book.getPath("first")).length() * 2
+                < new File(plain.getPath("first")).length());
+        assertTrue(new File(book.getPath("persons")).length()
+                < new File(plain.getPath("persons")).length());
+        assertTrue(dictionaryFile("dictionary").exists());
+        assertEquals(persons, book.read("persons"));
+        assertEquals(persons.get(0), book.read("first"));
+        assertEquals(Arrays.asList(1, 2, 3), book.read("numbers"));
+        assertEquals(persons.subList(0, 2), book.readFirst("persons", 2));
+        assertEquals(3, book.getAllKeys().size());
+
+        // Files keep their format when the option is changed
+        Book reopened = openBook("dictionary", false);
+        assertEquals(persons, reopened.read("persons"));
+        reopened.write("persons", persons.subList(0, 1));
+        assertEquals(persons.subList(0, 1), book.read("persons"));
+    }
+
+    @Test
+    public void testDictionaryIsReloaded() throws IOException, ClassNotFoundException {
+        Book book = openBook("reload", true);
+        book.write("persons", TestDataGenerator.genPersonList(3));
+        // Ids survive destroy, as values serialized concurrently may refer to them
+        book.destroy();
+        book.write("person", TestDataGenerator.genPersonList(1).get(0));
+
+        SchemaDictionary shared =
+                SchemaDictionary.forBook(TestUtils.testLocation() + File.separator + "reload");
+        int personId = shared.classId(Person.class);
+        int phoneId = shared.classId(PhoneNumber.class);
+
+        // Simulate crash in the middle of the append
+        FileOutputStream out = new FileOutputStream(dictionaryFile("reload"), true);
+        out.write(new byte[]{0, 0, 0, 10, 1, 2, 3});
+        out.close();
+        long length = dictionaryFile("reload").length();
+
+        SchemaDictionary loaded = new SchemaDictionary(dictionaryFile("reload"));
+        assertEquals(Person.class, loaded.type(personId, getClass().getClassLoader()));
+        assertEquals(PhoneNumber.class, loaded.type(phoneId, getClass().getClassLoader()));
+        assertEquals(length - 7, dictionaryFile("reload").length());
+        assertEquals(personId, loaded.classId(Person.class));
+    }
+
+    @Test
+    public void testFieldChangesAreHandled() throws IOException {
+        File dir = new File(TestUtils.testLocation(), "fields");
+
+        SchemaDictionary written = new SchemaDictionary(new File(dir, "written"));
+        KryoPool pool = KryoPool.of(new HashMap<Class, Serializer>(), false);
+        Kryo kryo = pool.borrow();
+        Output output = new Output(1024, -1);
+        CompatibilityTest.TestClass value = new CompatibilityTest.TestClass();
+        value.name = "original";
+        value.timestamp = 123;
+        SchemaClassResolver.use(kryo, written);
+        kryo.writeClassAndObject(output, value);
+
+        // Same ids, but the class is changed: a field is added and a field is removed
+        SchemaDictionary changed = new SchemaDictionary(new File(dir, "changed"));
+        assertEquals(0, changed.classId(CompatibilityTest.TestClassNew.class));
+        assertEquals(0, changed.fieldsId(written.fieldNames(0)));
+        assertArrayEquals(new String[]{"name", "timestamp", "value"}, written.fieldNames(0));
+
+        SchemaClassResolver.use(kryo, changed);
+        CompatibilityTest.TestClassNew read = (CompatibilityTest.TestClassNew)
+                kryo.readClassAndObject(new Input(output.getBuffer(), 0, output.position()));
+        SchemaClassResolver.use(kryo, null);
+        pool.release(kryo);
+
+        assertEquals("original", read.name);
+        assertEquals("default", read.newField);
+        assertEquals(123L, read.timestamp);
+    }
+}
@@ -0,0 +1,151 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ShardedLayoutTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static DbStoragePlainFile openStorage(String name, BookOptions options) {
+        return new DbStoragePlainFile(TestUtils.testLocation(), name,
+                new HashMap<Class, Serializer>(), options);
+    }
+
+    @Test
+    public void testTableFilesAreSpreadOverShards() {
+        DbStoragePlainFile storage = openStorage("spread",
+                new BookOptions().shardedLayout(true));
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            storage.insert("key" + i, i);
+            keys.add("key" + i);
+        }
+        String root = storage.getRootFolderPath();
+        assertEquals(new File(root, TableLayout.shardPath("key7") + File.separator + "key7.pt")
+                .getPath(), storage.getOriginalFilePath("key7"));
+        assertTrue(new File(storage.getOriginalFilePath("key7")).exists());
+        assertEquals(0, tableFilesIn(new File(root)));
+        assertTrue(new File(root).list().length > 10);
+
+        assertEquals(keys, new HashSet<>(storage.getAllKeys()));
+        assertEquals(7, (int) storage.<Integer>select("key7"));
+        assertTrue(storage.exists("key299"));
+        storage.deleteIfExists("key7");
+        assertFalse(storage.exists("key7"));
+        assertNull(storage.select("key7"));
+    }
+
+    @Test
+    public void testBatchesWorkAcrossShards() {
+        DbStoragePlainFile storage = openStorage("batch",
+                new BookOptions().shardedLayout(true));
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            values.put("key" + i, "value" + i);
+        }
+        storage.insertAll(values);
+        storage.deleteAll(Arrays.asList("key1", "key2"));
+        assertEquals(98, storage.getAllKeys().size());
+        assertEquals("value50", storage.select("key50"));
+        assertNull(storage.select("key2"));
+        // No temp or commit files are left in the book folder
+        for (String name : new File(storage.getRootFolderPath()).list()) {
+            assertTrue(name, new File(storage.getRootFolderPath(), name).isDirectory());
+        }
+    }
+
+    @Test
+    public void testLayoutIsMigratedOnOpen() {
+        DbStoragePlainFile flat = openStorage("migrate", new BookOptions());
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            flat.insert("key" + i, i);
+            keys.add("key" + i);
+        }
+        File root = new File(flat.getRootFolderPath());
+        assertEquals(50, tableFilesIn(root));
+
+        DbStoragePlainFile sharded = openStorage("migrate",
+                new BookOptions().shardedLayout(true));
+        assertEquals(keys, new HashSet<>(sharded.getAllKeys()));
+        assertEquals(0, tableFilesIn(root));
+        assertEquals(42, (int) sharded.<Integer>select("key42"));
+        assertTrue(new File(sharded.getOriginalFilePath("key42")).exists());
+
+        DbStoragePlainFile flatAgain = openStorage("migrate", new BookOptions());
+        assertEquals(keys, new HashSet<>(flatAgain.getAllKeys()));
+        assertEquals(50, tableFilesIn(root));
+        assertEquals(50, root.list().length);
+        assertEquals(42, (int) flatAgain.<Integer>select("key42"));
+    }
+
+    @Test
+    public void testIndexIsRebuiltFromShards() {
+        DbStoragePlainFile storage = openStorage("index",
+                new BookOptions().shardedLayout(true));
+        storage.insert("city", "Lund");
+        storage.insert("country", "Sweden");
+
+        DbStoragePlainFile indexed = openStorage("index",
+                new BookOptions().shardedLayout(true).keyIndex(true));
+        assertEquals(Arrays.asList("city", "country"), indexed.getAllKeys());
+        assertTrue(indexed.lastModified("city") > 0);
+    }
+
+    @Test
+    public void testTempFilesInBookFolderAreCleanedUpOnOpen() throws IOException {
+        DbStoragePlainFile storage = openStorage("leftovers",
+                new BookOptions().shardedLayout(true));
+        storage.insert("city", "Lund");
+        // Crash before the temp file is renamed
+        File temp = new File(storage.getRootFolderPath(), "country.pt.tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        DbStoragePlainFile reopened = openStorage("leftovers",
+                new BookOptions().shardedLayout(true));
+        assertEquals("Lund", reopened.select("city"));
+        assertFalse(temp.exists());
+        assertEquals(Collections.singletonList("city"), reopened.getAllKeys());
+    }
+
+    private static int tableFilesIn(File dir) {
+        int count = 0;
+        for (String name : dir.list()) {
+            if (name.endsWith(".pt")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
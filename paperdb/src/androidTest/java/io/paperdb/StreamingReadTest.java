@@ -0,0 +1,122 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class StreamingReadTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static <T> List<T> readAll(PaperIterator<T> iterator) {
+        List<T> elements = new ArrayList<>();
+        while (iterator.hasNext()) {
+            elements.add(iterator.next());
+        }
+        return elements;
+    }
+
+    @Test
+    public void testElementsAreReadInOrder() {
+        Book book = TestUtils.openBook("order");
+        List<Person> persons = TestDataGenerator.genPersonList(1000);
+        book.write("persons", persons);
+        book.write("linked", new LinkedList<>(Arrays.asList("a", "b", "c")));
+
+        assertEquals(persons, readAll(book.<Person>readIterator("persons")));
+        assertEquals(persons.subList(0, 50), book.<Person>readFirst("persons", 50));
+        assertEquals(persons, book.<Person>readFirst("persons", 5000));
+        assertEquals(Arrays.asList("a", "b"), book.<String>readFirst("linked", 2));
+        assertTrue(book.readFirst("missing", 10).isEmpty());
+        assertFalse(book.readIterator("missing").hasNext());
+    }
+
+    @Test
+    public void testIteratorSeesValueAtOpenTime() {
+        Book book = TestUtils.openBook("snapshot");
+        book.write("list", Arrays.asList(1, 2, 3));
+
+        PaperIterator<Integer> iterator = book.readIterator("list");
+        assertEquals(1, (int) iterator.next());
+        book.write("list", Arrays.asList(4, 5));
+        book.delete("list");
+        assertEquals(Arrays.asList(2, 3), readAll(iterator));
+    }
+
+    @Test
+    public void testClosedIteratorHasNoElements() {
+        Book book = TestUtils.openBook("close");
+        book.write("list", Arrays.asList(1, 2, 3));
+
+        PaperIterator<Integer> iterator = book.readIterator("list");
+        iterator.next();
+        iterator.close();
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            fail("Closed iterator must not return elements");
+        } catch (NoSuchElementException expected) {
+        }
+    }
+
+    @Test
+    public void testCompressedAndCachedValuesAreIterated() {
+        List<Person> persons = TestDataGenerator.genPersonList(1000);
+
+        Book compressed = TestUtils.openBook("compressed", new BookOptions().compression(1));
+        compressed.write("persons", persons);
+        assertEquals(persons, readAll(compressed.<Person>readIterator("persons")));
+
+        Book cached = TestUtils.openBook("cached",
+                new BookOptions().cache(1024 * 1024, CachePolicy.DEFENSIVE_COPY));
+        cached.write("persons", persons);
+        assertEquals(persons.subList(0, 10), cached.<Person>readFirst("persons", 10));
+
+        Book appendLog = TestUtils.openBook("append-log",
+                new BookOptions().storageEngine(StorageEngine.APPEND_LOG));
+        appendLog.write("persons", persons);
+        assertEquals(persons.subList(0, 10), appendLog.<Person>readFirst("persons", 10));
+    }
+
+    @Test
+    public void testOtherCollectionsAndNonCollections() {
+        Book book = TestUtils.openBook("other");
+        // Written by their own serializers and read as a whole
+        book.write("unmodifiable", Collections.unmodifiableList(Arrays.asList(1, 2, 3)));
+        book.write("as-list", Arrays.asList(1, 2, 3));
+        book.write("person", TestDataGenerator.genPersonList(1).get(0));
+
+        assertEquals(Arrays.asList(1, 2, 3), readAll(book.<Integer>readIterator("unmodifiable")));
+        assertEquals(Arrays.asList(1, 2), book.<Integer>readFirst("as-list", 2));
+        try {
+            book.readIterator("person");
+            fail("Only collections can be iterated");
+        } catch (PaperDbException expected) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Output;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class TableFileTest {
+
+    private DbStoragePlainFile mStorage;
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+        mStorage = new DbStoragePlainFile(TestUtils.testLocation(), "book",
+                new HashMap<Class, Serializer>(), new BookOptions());
+    }
+
+    private byte[] readFile(String key) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mStorage.getOriginalFilePath(key), "r");
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            return content;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeFile(String key, byte[] content) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mStorage.getOriginalFilePath(key), "rw");
+        //noinspection TryFinallyCanBeTryWithResources
+        try {
+            file.setLength(0);
+            file.write(content);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertReadFails(String key, String reason) {
+        try {
+            mStorage.select(key);
+            fail("Corrupt file must not be read");
+        } catch (PaperDbException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(reason));
+        }
+    }
+
+    @Test
+    public void testValueIsWrittenWithHeader() throws IOException {
+        List<Person> persons = TestDataGenerator.genPersonList(10);
+        mStorage.insert("persons", persons);
+
+        ByteBuffer content = ByteBuffer.wrap(readFile("persons"));
+        assertEquals(TableFile.TYPE_TABLE, TableFile.type(content));
+        assertEquals(TableFile.CODEC_NONE, TableFile.checkHeader(content, null));
+        assertEquals(persons, mStorage.select("persons"));
+    }
+
+    @Test
+    public void testLegacyFileIsRead() throws IOException {
+        List<Person> persons = TestDataGenerator.genPersonList(10);
+        Kryo kryo = KryoFactory.create(new HashMap<Class, Serializer>(), false);
+        Output output = new Output(4096, -1);
+        kryo.writeObject(output, new PaperTable<>(persons));
+        mStorage.insert("persons", "placeholder");
+        writeFile("persons", output.toBytes());
+
+        assertEquals(TableFile.TYPE_LEGACY,
+                TableFile.type(ByteBuffer.wrap(readFile("persons"))));
+        assertEquals(persons, mStorage.select("persons"));
+
+        // Rewritten in the new format
+        mStorage.insert("persons", persons);
+        assertEquals(TableFile.TYPE_TABLE,
+                TableFile.type(ByteBuffer.wrap(readFile("persons"))));
+    }
+
+    @Test
+    public void testCorruptFilesAreRejected() throws IOException {
+        mStorage.insert("flipped", TestDataGenerator.genPersonList(10));
+        byte[] content = readFile("flipped");
+        content[content.length / 2] ^= 0x10;
+        writeFile("flipped", content);
+        assertReadFails("flipped", "checksum");
+
+        mStorage.insert("truncated", TestDataGenerator.genPersonList(10));
+        content = readFile("truncated");
+        byte[] truncated = new byte[content.length - 1];
+        System.arraycopy(content, 0, truncated, 0, truncated.length);
+        writeFile("truncated", truncated);
+        assertReadFails("truncated", "truncated");
+
+        mStorage.insert("newer", "value");
+        content = readFile("newer");
+        content[4] = TableFile.VERSION_DICTIONARY + 1;
+        writeFile("newer", content);
+        assertReadFails("newer", "version");
+    }
+}
@@ -0,0 +1,197 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Serializer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class WarmUpTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    /**
+     * Counts the reads reaching the disk, reads of the key "slow" wait for the gate
+     */
+    private static class CountingStorage extends DbStoragePlainFile {
+        final ConcurrentHashMap<String, AtomicInteger> reads = new ConcurrentHashMap<>();
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final CountDownLatch slowGate = new CountDownLatch(1);
+
+        CountingStorage(String name) {
+            super(TestUtils.testLocation(), name, new HashMap<Class, Serializer>(),
+                    new BookOptions());
+        }
+
+        @Override
+        public <E> E select(String key) {
+            reads.putIfAbsent(key, new AtomicInteger());
+            reads.get(key).incrementAndGet();
+            if (key.equals("slow")) {
+                slowStarted.countDown();
+                try {
+                    slowGate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.select(key);
+        }
+
+        int reads(String key) {
+            AtomicInteger count = reads.get(key);
+            return count == null ? 0 : count.get();
+        }
+
+        void awaitReads(String key, int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reads(key) < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, reads(key));
+        }
+    }
+
+    /**
+     * Waits for the preloads submitted so far
+     */
+    private static void awaitPreloads() throws Exception {
+        PaperExecutors.preload().submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Waits for the tasks submitted to the background thread so far
+     */
+    private static void awaitBackground() throws Exception {
+        PaperExecutors.background().submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testPreloadedValueIsReadOnce() throws Exception {
+        CountingStorage disk = new CountingStorage("book");
+        WarmUpStorage storage = new WarmUpStorage(disk, 0);
+        List<Person> persons = TestDataGenerator.genPersonList(10);
+        storage.insert("persons", persons);
+
+        storage.prefetch(Arrays.asList("persons", "missing"));
+        awaitPreloads();
+        assertEquals(1, disk.reads("persons"));
+
+        assertEquals(persons, storage.select("persons"));
+        assertNull(storage.select("missing"));
+        assertEquals(1, disk.reads("persons"));
+        assertEquals(1, disk.reads("missing"));
+
+        // Handed out once, later reads go to the disk
+        assertEquals(persons, storage.select("persons"));
+        assertEquals(2, disk.reads("persons"));
+    }
+
+    @Test
+    public void testReadWaitsForRunningPreload() throws Exception {
+        CountingStorage disk = new CountingStorage("book");
+        final WarmUpStorage storage = new WarmUpStorage(disk, 0);
+        storage.insert("slow", "value");
+
+        storage.prefetch(Collections.singletonList("slow"));
+        assertTrue(disk.slowStarted.await(5, TimeUnit.SECONDS));
+        final AtomicReference<String> read = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read.set(storage.<String>select("slow"));
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        disk.slowGate.countDown();
+        reader.join(5000);
+
+        assertEquals("value", read.get());
+        assertEquals(1, disk.reads("slow"));
+    }
+
+    @Test
+    public void testChangesDropPreloadedValues() throws Exception {
+        CountingStorage disk = new CountingStorage("book");
+        WarmUpStorage storage = new WarmUpStorage(disk, 0);
+        storage.insert("city", "Lund");
+        storage.insert("country", "Sweden");
+
+        storage.prefetch(Arrays.asList("city", "country"));
+        awaitPreloads();
+        storage.insert("city", "Kyiv");
+        storage.deleteIfExists("country");
+
+        assertEquals("Kyiv", storage.select("city"));
+        assertNull(storage.select("country"));
+    }
+
+    @Test
+    public void testMostReadKeysArePreloadedOnStart() throws Exception {
+        WarmUpStorage session = new WarmUpStorage(new CountingStorage("book"), 2);
+        for (String key : Arrays.asList("a", "b", "c")) {
+            session.insert(key, key);
+        }
+        for (String key : Arrays.asList("a", "a", "a", "b", "b", "c")) {
+            session.select(key);
+        }
+        session.saveHistory();
+
+        CountingStorage disk = new CountingStorage("book");
+        WarmUpStorage next = new WarmUpStorage(disk, 2);
+        disk.awaitReads("a", 1);
+        disk.awaitReads("b", 1);
+        awaitPreloads();
+        assertEquals(0, disk.reads("c"));
+        assertEquals("a", next.select("a"));
+        assertEquals(1, disk.reads("a"));
+
+        Book book = TestUtils.openBook("book", new BookOptions().warmUp(2));
+        book.prefetch(Collections.singletonList("c"));
+        assertEquals("c", book.read("c"));
+
+        // History is deleted along with the book
+        session.destroy();
+        awaitBackground();
+        session.saveHistory();
+        assertFalse(new File(TestUtils.testLocation() + File.separator + "book",
+                WarmUpStorage.HISTORY_FILE_NAME).exists());
+    }
+}
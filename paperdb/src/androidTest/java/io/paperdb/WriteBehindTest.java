@@ -0,0 +1,134 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+import io.paperdb.utils.TestUtils;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class WriteBehindTest {
+
+    @Before
+    public void setUp() {
+        Paper.init(getTargetContext());
+        TestUtils.destroyTestBooks();
+    }
+
+    private static Book openBook(String name, long flushDelayMillis) {
+        return TestUtils.openBook(name, new BookOptions().writeBehind(flushDelayMillis));
+    }
+
+    private static File journal(Book book, int generation) {
+        return new File(book.getPath(), WriteJournal.FILE_PREFIX + generation
+                + WriteJournal.FILE_EXTENSION);
+    }
+
+    @Test
+    public void testWritesAreVisibleBeforeFlush() {
+        Book book = openBook("overlay", 60 * 1000);
+        List<Person> persons = TestDataGenerator.genPersonList(10);
+        book.write("persons", persons);
+        book.write("city", "Lund");
+        book.delete("city");
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("a", 1);
+        batch.put("b", 2);
+        book.writeAll(batch);
+
+        // Caller may change the written instance
+        persons.clear();
+        assertEquals(10, book.<List<Person>>read("persons").size());
+        assertNull(book.read("city"));
+        assertEquals(new HashSet<>(Arrays.asList("persons", "a", "b")),
+                new HashSet<>(book.getAllKeys()));
+        assertFalse(new File(book.getPath("persons")).exists());
+        assertTrue(journal(book, 0).exists());
+
+        book.flush();
+        assertTrue(new File(book.getPath("persons")).exists());
+        assertFalse(journal(book, 0).exists());
+        assertEquals(10, book.<List<Person>>read("persons").size());
+        assertEquals(2, (int) book.<Integer>read("b"));
+    }
+
+    @Test
+    public void testJournalIsReplayedOnOpen() {
+        Book book = openBook("replay", 60 * 1000);
+        book.write("city", "Lund");
+        book.flush();
+        book.write("city", "Kyiv");
+        book.write("country", "Ukraine");
+        book.deleteAll(Collections.singletonList("country"));
+        book.write("river", "Dnipro");
+
+        // Simulates the crash, the first instance never flushes
+        Book reopened = openBook("replay", 60 * 1000);
+        assertEquals("Kyiv", reopened.read("city"));
+        assertNull(reopened.read("country"));
+        assertEquals("Dnipro", reopened.read("river"));
+        assertFalse(journal(reopened, 1).exists());
+        assertEquals("Kyiv", TestUtils.openBook("replay").read("city"));
+        // Next changes go to the next generation
+        reopened.write("city", "Odesa");
+        assertTrue(journal(reopened, 2).exists());
+        book.destroy();
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws IOException {
+        Book book = openBook("torn", 60 * 1000);
+        book.write("city", "Lund");
+        book.write("country", "Sweden");
+        File journal = journal(book, 0);
+        long length = journal.length();
+        FileOutputStream out = new FileOutputStream(journal, true);
+        out.write(new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5});
+        out.close();
+        assertEquals(length + 9, journal.length());
+
+        Book reopened = openBook("torn", 60 * 1000);
+        assertEquals("Lund", reopened.read("city"));
+        assertEquals("Sweden", reopened.read("country"));
+        assertEquals(Arrays.asList("city", "country"), sorted(reopened.getAllKeys()));
+        book.destroy();
+    }
+
+    @Test
+    public void testFlushRunsInBackground() throws InterruptedException {
+        Book book = openBook("background", 0);
+        book.write("city", "Lund");
+        File file = new File(book.getPath("city"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.exists());
+        assertEquals("Lund", book.read("city"));
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        Collections.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,100 @@
+package io.paperdb;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CompatibleFieldSerializer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import io.paperdb.testdata.Person;
+import io.paperdb.testdata.TestDataGenerator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class WriteBufferTest {
+
+    static class Node {
+        String name;
+        Node child;
+    }
+
+    private static Node chain(int length) {
+        Node head = null;
+        for (int i = 0; i < length; i++) {
+            Node node = new Node();
+            node.name = "node" + i;
+            node.child = head;
+            head = node;
+        }
+        return head;
+    }
+
+    private static byte[] serialize(Kryo kryo, Object value) {
+        Output output = new Output(4096, -1);
+        kryo.writeObject(output, new PaperTable<>(value));
+        return output.toBytes();
+    }
+
+    @Test
+    public void testFormatIsSameAsCompatibleFieldSerializer() {
+        Kryo reusing = KryoFactory.create(new HashMap<Class, Serializer>(), false);
+        Kryo original = KryoFactory.create(new HashMap<Class, Serializer>(), false);
+        original.setDefaultSerializer(CompatibleFieldSerializer.class);
+
+        List<Person> persons = TestDataGenerator.genPersonList(100);
+        assertArrayEquals(serialize(original, persons), serialize(reusing, persons));
+        // Objects of the same class nested in each other use separate chunk buffers
+        Node nodes = chain(20);
+        assertArrayEquals(serialize(original, nodes), serialize(reusing, nodes));
+        // Buffers are reused by the following writes
+        assertArrayEquals(serialize(original, nodes), serialize(reusing, nodes));
+    }
+
+    @Test
+    public void testBufferIsPresizedAndReused() {
+        WriteBuffer buffer = WriteBuffer.obtain(100 * 1024);
+        assertTrue(buffer.output().getBuffer().length >= 100 * 1024);
+        byte[] bytes = buffer.output().getBuffer();
+        buffer.recycle();
+
+        // Other idle buffers may be taken first
+        boolean reused = false;
+        List<WriteBuffer> taken = new ArrayList<>();
+        for (int i = 0; i < WriteBuffer.MAX_IDLE; i++) {
+            WriteBuffer next = WriteBuffer.obtain(1024);
+            assertEquals(0, next.output().position());
+            reused |= next.output().getBuffer() == bytes;
+            taken.add(next);
+        }
+        for (WriteBuffer next : taken) {
+            next.recycle();
+        }
+        assertTrue(reused);
+    }
+
+    @Test
+    public void testByteBufferCoversWrittenBytes() {
+        Kryo kryo = KryoFactory.create(new HashMap<Class, Serializer>(), false);
+        WriteBuffer buffer = WriteBuffer.obtain(0);
+        buffer.writeTable(kryo, Arrays.asList("a", "b"));
+        ByteBuffer bytes = buffer.byteBuffer();
+        assertEquals(0, bytes.position());
+        assertEquals(buffer.output().position(), bytes.limit());
+        assertArrayEquals(serialize(kryo, Arrays.asList("a", "b")),
+                Arrays.copyOf(bytes.array(), bytes.limit()));
+        buffer.recycle();
+    }
+}
@@ -1,5 +1,6 @@
 package io.paperdb.benchmark;
 
+import android.os.Debug;
 import android.os.SystemClock;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import androidx.test.filters.LargeTest;
@@ -12,9 +13,14 @@ import com.orhanobut.hawk.Hawk;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import io.paperdb.Book;
+import io.paperdb.BookOptions;
 import io.paperdb.Paper;
+import io.paperdb.StorageEngine;
 import io.paperdb.testdata.Person;
 import io.paperdb.testdata.PersonArg;
 import io.paperdb.testdata.TestDataGenerator;
@@ -79,6 +85,111 @@ public class Benchmark extends AndroidTestCase {
         printResults("Read 500 contacts", paperTime, hawkTime);
     }
 
+    @Test
+    public void testStorageEngines500SmallKeys() throws Exception {
+        Paper.init(getTargetContext());
+        Book plain = Paper.book("benchmark-plain-file",
+                new BookOptions().storageEngine(StorageEngine.PLAIN_FILE));
+        Book log = Paper.book("benchmark-append-log",
+                new BookOptions().storageEngine(StorageEngine.APPEND_LOG));
+        plain.destroy();
+        log.destroy();
+
+        long plainWrite = runTest(new BookWriteSmallKeysTest(plain), 500, REPEAT_COUNT);
+        long logWrite = runTest(new BookWriteSmallKeysTest(log), 500, REPEAT_COUNT);
+        long plainRead = runTest(new BookReadSmallKeysTest(plain), 500, REPEAT_COUNT);
+        long logRead = runTest(new BookReadSmallKeysTest(log), 500, REPEAT_COUNT);
+
+        Log.i(TAG, String.format("..................................\n%s " +
+                        "\n Write plain file: %d \n Write append log: %d" +
+                        "\n Read plain file: %d \n Read append log: %d",
+                "500 small keys", plainWrite, logWrite, plainRead, logRead));
+    }
+
+    @Test
+    public void testStorageEnginesReadWrite500Contacts() throws Exception {
+        final List<Person> contacts = TestDataGenerator.genPersonList(500);
+        Paper.init(getTargetContext());
+        Book plain = Paper.book("benchmark-plain-file",
+                new BookOptions().storageEngine(StorageEngine.PLAIN_FILE));
+        Book log = Paper.book("benchmark-append-log",
+                new BookOptions().storageEngine(StorageEngine.APPEND_LOG));
+        plain.destroy();
+        log.destroy();
+
+        long plainTime = runTest(new BookReadWriteContactsTest(plain), contacts, REPEAT_COUNT);
+        long logTime = runTest(new BookReadWriteContactsTest(log), contacts, REPEAT_COUNT);
+
+        Log.i(TAG, String.format("..................................\n%s " +
+                        "\n Plain file: %d \n Append log: %d",
+                "Read/write 500 contacts", plainTime, logTime));
+    }
+
+    @Test
+    public void testWriteAllVsSingleWrites500Keys() throws Exception {
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            values.put("key" + i, TestDataGenerator.genPersonList(5));
+        }
+        Paper.init(getTargetContext());
+        Paper.book().destroy();
+
+        long singleTime = runTest(new TestTask<Map<String, Object>>() {
+            @Override
+            public void run(int i, Map<String, Object> extra) {
+                for (Map.Entry<String, Object> entry : extra.entrySet()) {
+                    Paper.book().write(entry.getKey(), entry.getValue());
+                }
+            }
+        }, values, 3);
+        long batchTime = runTest(new TestTask<Map<String, Object>>() {
+            @Override
+            public void run(int i, Map<String, Object> extra) {
+                Paper.book().writeAll(extra);
+            }
+        }, values, 3);
+
+        Log.i(TAG, String.format("..................................\n%s " +
+                        "\n Single writes: %d \n Batch write: %d",
+                "Write 500 keys", singleTime, batchTime));
+    }
+
+    @Test
+    public void testWriteAllocationsPerOperation() throws Exception {
+        final List<Person> contacts = TestDataGenerator.genPersonList(50);
+        Paper.init(getTargetContext());
+        Book plain = Paper.book("benchmark-plain-file",
+                new BookOptions().storageEngine(StorageEngine.PLAIN_FILE));
+        Book log = Paper.book("benchmark-append-log",
+                new BookOptions().storageEngine(StorageEngine.APPEND_LOG));
+        plain.destroy();
+        log.destroy();
+
+        long plainBytes = measureWriteAllocations(plain, contacts);
+        long logBytes = measureWriteAllocations(log, contacts);
+
+        Log.i(TAG, String.format("..................................\n%s " +
+                        "\n Plain file: %d bytes/op \n Append log: %d bytes/op",
+                "Allocations per write of 50 contacts", plainBytes, logBytes));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static long measureWriteAllocations(Book book, List<Person> value) {
+        final int operations = 200;
+        // Warm up pooled buffers and Kryo instances
+        for (int i = 0; i < 20; i++) {
+            book.write("contacts", value);
+        }
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        for (int i = 0; i < operations; i++) {
+            book.write("contacts", value);
+        }
+        long bytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+        return bytes / operations;
+    }
+
     private void printResults(String name, long paperTime, long hawkTime) {
         Log.i(TAG, String.format("..................................\n%s \n Paper: %d \n Hawk: %d",
                 name, paperTime, hawkTime));
@@ -111,6 +222,51 @@ public class Benchmark extends AndroidTestCase {
         }
     }
 
+    private static class BookWriteSmallKeysTest implements TestTask<Integer> {
+        private final Book mBook;
+
+        BookWriteSmallKeysTest(Book book) {
+            mBook = book;
+        }
+
+        @Override
+        public void run(int i, Integer keys) {
+            for (int key = 0; key < keys; key++) {
+                mBook.write("key" + key, "value" + i);
+            }
+        }
+    }
+
+    private static class BookReadSmallKeysTest implements TestTask<Integer> {
+        private final Book mBook;
+
+        BookReadSmallKeysTest(Book book) {
+            mBook = book;
+        }
+
+        @Override
+        public void run(int i, Integer keys) {
+            for (int key = 0; key < keys; key++) {
+                mBook.<String>read("key" + key);
+            }
+        }
+    }
+
+    private static class BookReadWriteContactsTest implements TestTask<List<Person>> {
+        private final Book mBook;
+
+        BookReadWriteContactsTest(Book book) {
+            mBook = book;
+        }
+
+        @Override
+        public void run(int i, List<Person> extra) {
+            String key = "contacts" + i;
+            mBook.write(key, extra);
+            mBook.<List<Person>>read(key);
+        }
+    }
+
     private class PaperReadWriteContactsArgTest implements TestTask<List<PersonArg>> {
         @Override
         public void run(int i, List<PersonArg> extra) {
@@ -1,15 +1,58 @@
 package io.paperdb.utils;
 
+import com.esotericsoftware.kryo.Serializer;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
+
+import io.paperdb.Book;
+import io.paperdb.BookOptions;
 
 import static androidx.test.InstrumentationRegistry.getTargetContext;
 
 public class TestUtils {
 
+    /**
+     * Folder of the books opened by the tests with their own options, apart from the default
+     * Paper location.
+     */
+    public static String testLocation() {
+        return getTargetContext().getFilesDir() + File.separator + "paper-test";
+    }
+
+    /**
+     * Destroys every book in {@link #testLocation()}, to be called in setUp() along with
+     * Paper.init().
+     */
+    public static void destroyTestBooks() {
+        String[] names = new File(testLocation()).list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            openBook(name).destroy();
+        }
+    }
+
+    public static Book openBook(String name) {
+        return openBook(name, new BookOptions());
+    }
+
+    public static Book openBook(String name, BookOptions options) {
+        return openBook(name, new HashMap<Class, Serializer>(), options);
+    }
+
+    public static Book openBook(String name, HashMap<Class, Serializer> serializers,
+                                BookOptions options) {
+        // Book constructors are protected, Paper.bookOn() would cache the instance
+        return new Book(testLocation(), name, serializers, options) {
+        };
+    }
+
     public static void replacePaperDbFileBy(String fileName, String asKey) throws IOException {
         File filesDir = new File(getTargetContext().getFilesDir(), "io.paperdb");
         if (!filesDir.exists()) {
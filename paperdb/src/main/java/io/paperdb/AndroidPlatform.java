@@ -0,0 +1,54 @@
+package io.paperdb;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+
+import static io.paperdb.Paper.TAG;
+
+final class AndroidPlatform extends Platform {
+    private final AndroidTracer mTracer = new AndroidTracer();
+
+    @Override
+    public void log(int priority, String message, Throwable error) {
+        if (priority == ERROR) {
+            Log.e(TAG, message, error);
+        } else {
+            Log.w(TAG, message, error);
+        }
+    }
+
+    /**
+     * Trace.isEnabled() is there since API 29, before it sections would be built for every
+     * operation even if nothing is traced
+     */
+    @Override
+    PaperTracer defaultTracer() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? mTracer : null;
+    }
+
+    /**
+     * Does nothing before Lollipop, where there is no public API for it.
+     */
+    @Override
+    void syncDirectory(File directory) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        try {
+            FileDescriptor fd = Os.open(directory.getPath(), OsConstants.O_RDONLY, 0);
+            try {
+                Os.fsync(fd);
+            } finally {
+                Os.close(fd);
+            }
+        } catch (ErrnoException e) {
+            warn("Couldn't sync directory " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.paperdb;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Writes sections to android.os.Trace, so operations of the books show up in Perfetto and
+ * systrace as e.g. "paperdb WRITE persons" with "paperdb WRITE/FSYNC persons" nested in it.
+ * <p>
+ * Used by default on API 29+ while the app is traced. Install it with
+ * {@link Paper#setTracer(PaperTracer)} to trace on API 18-28, where the sections are built
+ * for every operation as it's unknown whether the app is traced. Does nothing before API 18.
+ */
+@SuppressLint("NewApi")
+public class AndroidTracer implements PaperTracer {
+    // Longer names are rejected by Trace
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    @Override
+    public boolean isEnabled() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return Trace.isEnabled();
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    @Override
+    public void beginSection(@NonNull PaperMetrics.Operation operation,
+                             @Nullable PaperMetrics.Phase phase, @Nullable String key) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(sectionName(operation, phase, key));
+        }
+    }
+
+    @Override
+    public void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+    static String sectionName(PaperMetrics.Operation operation, PaperMetrics.Phase phase,
+                              String key) {
+        final StringBuilder name = new StringBuilder("paperdb ").append(operation);
+        if (phase != null) {
+            name.append('/').append(phase);
+        }
+        if (key != null) {
+            name.append(' ').append(key);
+        }
+        if (name.length() > MAX_SECTION_NAME_LENGTH) {
+            name.setLength(MAX_SECTION_NAME_LENGTH);
+        }
+        return name.toString();
+    }
+}
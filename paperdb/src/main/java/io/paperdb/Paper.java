@@ -37,6 +37,8 @@ public class Paper {
     @SuppressLint("StaticFieldLeak") private static Context mContext;
 
     private static final ConcurrentHashMap<String, Book> mBookMap = new ConcurrentHashMap<>();
+    // Options the books were opened with, guarded by mBookMap
+    private static final HashMap<String, BookOptions> mBookOptionsMap = new HashMap<>();
     private static final HashMap<Class, Serializer> mCustomSerializers = new HashMap<>();
 
     /**
@@ -59,7 +61,23 @@ public class Paper {
     public static @NonNull Book book(@NonNull String name) {
         if (name.equals(DEFAULT_DB_NAME)) throw new PaperDbException(DEFAULT_DB_NAME +
                 " name is reserved for default library name");
-        return getBook(null, name);
+        return getBook(null, name, null);
+    }
+
+    /**
+     * Returns book instance with the given name, configured with the given options.
+     * Options are applied when the book is opened, the already opened book is returned only
+     * if it was opened with equal options or without options.
+     *
+     * @param name    name of new database
+     * @param options book settings
+     * @return Paper instance
+     * @throws IllegalStateException if the book is already opened with different options
+     */
+    public static @NonNull Book book(@NonNull String name, @NonNull BookOptions options) {
+        if (name.equals(DEFAULT_DB_NAME)) throw new PaperDbException(DEFAULT_DB_NAME +
+                " name is reserved for default library name");
+        return getBook(null, name, options);
     }
 
     /**
@@ -68,7 +86,7 @@ public class Paper {
      * @return Book instance
      */
     public static @NonNull Book book() {
-        return getBook(null, DEFAULT_DB_NAME);
+        return getBook(null, DEFAULT_DB_NAME, null);
     }
 
     /**
@@ -80,7 +98,24 @@ public class Paper {
      */
     public static @NonNull Book bookOn(@NonNull String location, @NonNull String name) {
         location = removeLastFileSeparatorIfExists(location);
-        return getBook(location, name);
+        return getBook(location, name, null);
+    }
+
+    /**
+     * Returns book instance to save data at custom location, configured with the given options.
+     * Options are applied when the book is opened, the already opened book is returned only
+     * if it was opened with equal options or without options.
+     *
+     * @param location the path to a folder where the book's folder will be placed
+     * @param name     the name of the book
+     * @param options  book settings
+     * @return book instance
+     * @throws IllegalStateException if the book is already opened with different options
+     */
+    public static @NonNull Book bookOn(@NonNull String location, @NonNull String name,
+                                       @NonNull BookOptions options) {
+        location = removeLastFileSeparatorIfExists(location);
+        return getBook(location, name, options);
     }
 
     /**
@@ -93,21 +128,28 @@ public class Paper {
         return bookOn(location, DEFAULT_DB_NAME);
     }
 
-    private static Book getBook(String location, String name) {
+    private static Book getBook(String location, String name, BookOptions options) {
         if (mContext == null) {
             throw new PaperDbException("Paper.init is not called");
         }
         String key = (location == null ? "" : location) + name;
         synchronized (mBookMap) {
             Book book = mBookMap.get(key);
-            if (book == null) {
-                if (location == null) {
-                    book = new Book(mContext, name, mCustomSerializers);
-                } else {
-                    book = new Book(location, name, mCustomSerializers);
+            if (book != null) {
+                if (options != null && !options.equals(mBookOptionsMap.get(key))) {
+                    throw new IllegalStateException("Book " + name
+                            + " is already opened with different options");
                 }
-                mBookMap.put(key, book);
+                return book;
+            }
+            options = options == null ? new BookOptions() : options.copy();
+            if (location == null) {
+                book = new Book(mContext, name, mCustomSerializers, options);
+            } else {
+                book = new Book(location, name, mCustomSerializers, options);
             }
+            mBookMap.put(key, book);
+            mBookOptionsMap.put(key, options);
             return book;
         }
     }
@@ -174,6 +216,26 @@ public class Paper {
         }
     }
 
+    /**
+     * Sets the logger for warnings and errors of all books, android.util.Log by default.
+     *
+     * @param logger logger to use, null to restore the default one
+     */
+    public static void setLogger(@Nullable PaperLogger logger) {
+        PaperStore.setLogger(logger);
+    }
+
+    /**
+     * Sets the tracer which wraps operations of all books into sections of a system trace.
+     * By default sections are written to android.os.Trace on API 29+ while the app is traced,
+     * use {@link AndroidTracer} to trace on older versions.
+     *
+     * @param tracer tracer to use, null to restore the default one
+     */
+    public static void setTracer(@Nullable PaperTracer tracer) {
+        PaperStore.setTracer(tracer);
+    }
+
     /**
      * Adds a custom serializer for a specific class
      * When used, must be called right after Paper.init()